@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
@@ -20,8 +21,27 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// ./gradlew jmh -Pjmh.includes=MemTableBenchmark -Pjmh.threads=4, results in build/results/jmh
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.set(listOf(it)) }
+    providers.gradleProperty("jmh.threads").orNull?.let { threads.set(it.toInt()) }
+    providers.gradleProperty("jmh.profilers").orNull?.let { profilers.set(it.split(",")) }
+}
+
 tasks.withType<Jar> {
     manifest {
         attributes["Main-Class"] = "konputer.kvdb.Main"
     }
-}
\ No newline at end of file
+}
+
+// ./gradlew ycsb -Pycsb.args="workload=A records=1000000 threads=4 seconds=60"
+tasks.register<JavaExec>("ycsb") {
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("konputer.kvdb.ycsb.Ycsb")
+    args = providers.gradleProperty("ycsb.args").orNull?.split(" ") ?: listOf()
+}
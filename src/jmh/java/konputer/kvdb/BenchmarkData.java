@@ -0,0 +1,61 @@
+package konputer.kvdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Keys, values and scratch directories shared by the benchmarks.
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return {@code i} zero padded to {@code size} bytes, so keys sort in numeric order
+     */
+    public static byte[] key(long i, int size) {
+        String digits = Long.toString(i);
+        if (digits.length() > size) {
+            throw new IllegalArgumentException("Key size " + size + " too small for " + i);
+        }
+        return ("0".repeat(size - digits.length()) + digits).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static byte[][] keys(int count, int size) {
+        byte[][] keys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(i, size);
+        }
+        return keys;
+    }
+
+    public static byte[] value(int size) {
+        byte[] value = new byte[size];
+        Arrays.fill(value, (byte) 'v');
+        return value;
+    }
+
+    public static Path tempDirectory(String name) {
+        try {
+            return Files.createTempDirectory("kvdb-" + name);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create benchmark directory", e);
+        }
+    }
+
+    public static void delete(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package konputer.kvdb;
+
+import konputer.kvdb.compaction.CompactionStats;
+import konputer.kvdb.compaction.CompactionStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same insert-heavy workload, like event ingestion, under both compaction styles. Tiered compaction
+ * should write faster and read slower since point reads check more sorted runs. Write amplification and the
+ * number of sorted runs are printed after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompactionStyleBenchmark {
+    private static final int PRELOADED = 300_000;
+    // fresh keys of 16 digits that rarely repeat
+    private static final long KEY_SPACE = 10_000_000_000_000_000L;
+
+    @Param({"LEVELED", "TIERED"})
+    CompactionStyle compactionStyle;
+
+    @Param({"100"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("compaction");
+        db = new Db(new DbOptions().directory(directory)
+                .compactionStyle(compactionStyle)
+                .l0CompactionTrigger(4));
+        keys = BenchmarkData.keys(PRELOADED, 16);
+        value = BenchmarkData.value(valueSize);
+        for (byte[] key : keys) {
+            db.set(key, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CompactionStats stats = db.getCompactionStats();
+        System.out.printf("%n%s: write amplification %.2f, %d sorted runs%n",
+                compactionStyle, stats.writeAmplification(), stats.sortedRuns());
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public void set() {
+        db.set(BenchmarkData.key(ThreadLocalRandom.current().nextLong(KEY_SPACE), 16), value);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return db.getSimple(keys[ThreadLocalRandom.current().nextInt(PRELOADED)]);
+    }
+}
@@ -0,0 +1,100 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages of keys from random start keys, read with a range iterator built per page and with one cursor per
+ * thread that is re-seeked for every page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CursorBenchmark {
+    private static final int KEYS = 200_000;
+
+    @Param({"20"})
+    int pageSize;
+
+    @Param({"100"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+    private TaggedKey end;
+
+    // kept open across pages, like a client paging through results
+    @State(Scope.Thread)
+    public static class OpenCursor {
+        DbCursor cursor;
+
+        @Setup(Level.Iteration)
+        public void open(CursorBenchmark benchmark) {
+            cursor = benchmark.db.newCursor();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("cursor");
+        db = new Db(new DbOptions().directory(directory));
+        keys = BenchmarkData.keys(KEYS, 16);
+        byte[] value = BenchmarkData.value(valueSize);
+        for (byte[] key : keys) {
+            db.set(key, value);
+        }
+        byte[] last = Arrays.copyOf(keys[KEYS - 1], 17);
+        end = new TaggedKey(last, Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    private byte[] pageStart() {
+        return keys[ThreadLocalRandom.current().nextInt(KEYS - pageSize)];
+    }
+
+    @Benchmark
+    public void rangePage(Blackhole bh) {
+        Iterator<Row> it = db.getRange(new TaggedKey(pageStart(), 0), end);
+        for (int read = 0; read < pageSize && it.hasNext(); read++) {
+            bh.consume(it.next());
+        }
+    }
+
+    @Benchmark
+    public void cursorPage(OpenCursor open, Blackhole bh) {
+        DbCursor cursor = open.cursor;
+        int read = 0;
+        for (cursor.seek(pageStart()); cursor.isValid() && read < pageSize; cursor.next()) {
+            bh.consume(cursor.value());
+            read++;
+        }
+    }
+}
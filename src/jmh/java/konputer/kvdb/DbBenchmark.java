@@ -0,0 +1,92 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range scans and compare-and-set through the whole engine. The data is written and the database reopened
+ * before measuring, so scans read tables and not the memtable. Compare-and-set contends on {@code hotKeys}
+ * keys, run with more threads ({@code -Pjmh.threads}) to see the effect of the key locks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DbBenchmark {
+    private static final int KEYS = 200_000;
+
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"100", "1000"})
+    int valueSize;
+
+    @Param({"100"})
+    int scanLength;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+
+    // only the compare-and-set runs once per number of hot keys
+    @State(Scope.Benchmark)
+    public static class Contention {
+        @Param({"1", "64"})
+        int hotKeys;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("db");
+        DbOptions options = new DbOptions().directory(directory);
+        keys = BenchmarkData.keys(KEYS, keySize);
+        byte[] value = BenchmarkData.value(valueSize);
+        try (Db writer = new Db(options)) {
+            for (byte[] key : keys) {
+                writer.set(key, value);
+            }
+        }
+        db = Db.open(options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public void scan(Blackhole bh) {
+        int first = ThreadLocalRandom.current().nextInt(KEYS - scanLength);
+        TaggedKey from = new TaggedKey(keys[first], 0);
+        TaggedKey to = new TaggedKey(keys[first + scanLength - 1], Long.MAX_VALUE);
+        for (Iterator<Row> it = db.getRange(from, to); it.hasNext(); ) {
+            bh.consume(it.next());
+        }
+    }
+
+    @Benchmark
+    public boolean cas(Contention contention) {
+        byte[] key = keys[ThreadLocalRandom.current().nextInt(contention.hotKeys)];
+        byte[] current = db.getSimple(key);
+        byte[] next = current.clone();
+        next[0]++;
+        // fails when another thread changed the key in between
+        return db.cas(key, next, current);
+    }
+}
@@ -0,0 +1,88 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.ValueHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request handler looking up {@value #LOOKUPS} keys at once, in a loop of gets and as one multiGet. Random
+ * keys rarely share a block, related keys (a range of ids) mostly do. The database is reopened before
+ * measuring, so the lookups read tables. Scores are per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MultiGetBenchmark {
+    private static final int KEYS = 200_000;
+    private static final int LOOKUPS = 100;
+
+    @Param({"false", "true"})
+    boolean related;
+
+    @Param({"100"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("multiget");
+        DbOptions options = new DbOptions().directory(directory);
+        keys = BenchmarkData.keys(KEYS, 16);
+        byte[] value = BenchmarkData.value(valueSize);
+        try (Db writer = new Db(options)) {
+            for (byte[] key : keys) {
+                writer.set(key, value);
+            }
+        }
+        db = Db.open(options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    private List<byte[]> lookups() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int first = rand.nextInt(KEYS - LOOKUPS);
+        List<byte[]> lookups = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups.add(keys[related ? first + i : rand.nextInt(KEYS)]);
+        }
+        return lookups;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getLoop(Blackhole bh) {
+        for (byte[] key : lookups()) {
+            bh.consume(db.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public List<ValueHolder> multiGet() {
+        return db.multiGet(lookups());
+    }
+}
@@ -0,0 +1,58 @@
+package konputer.kvdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overwrites of small rows through the whole engine with the memtables on and off heap. On heap the collector
+ * copies every live memtable row object while flushes are pending, run with {@code -Pjmh.profilers=gc} to see
+ * the allocation and collection time next to the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OffHeapMemTableBenchmark {
+    private static final int KEYS = 500_000;
+
+    @Param({"false", "true"})
+    boolean offHeap;
+
+    @Param({"32"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("offheap");
+        db = new Db(new DbOptions().directory(directory).offHeapMemTable(offHeap));
+        keys = BenchmarkData.keys(KEYS, 16);
+        value = BenchmarkData.value(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public void set() {
+        db.set(keys[ThreadLocalRandom.current().nextInt(KEYS)], value);
+    }
+}
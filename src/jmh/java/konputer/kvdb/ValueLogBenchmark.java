@@ -0,0 +1,60 @@
+package konputer.kvdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overwrites of blob-like values with and without key-value separation. Flushes and compactions run in the
+ * background and slow the writes down once they fall behind, so separated values that compactions only move
+ * pointers for should write faster. A threshold of 0 keeps all values in the tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueLogBenchmark {
+    private static final int KEYS = 3_000;
+
+    @Param({"0", "1024"})
+    int valueLogThreshold;
+
+    @Param({"16384"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("vlog");
+        db = new Db(new DbOptions().directory(directory)
+                .valueLogThreshold(valueLogThreshold)
+                .l0CompactionTrigger(4));
+        keys = BenchmarkData.keys(KEYS, 16);
+        value = BenchmarkData.value(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public void set() {
+        db.set(keys[ThreadLocalRandom.current().nextInt(KEYS)], value);
+    }
+}
@@ -0,0 +1,77 @@
+package konputer.kvdb;
+
+import konputer.kvdb.wal.SyncMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same ingest as single sets and as write batches, with group commit as an ingest pipeline would use it.
+ * Every invocation writes {@value #WRITES} keys, a batch size of 1 writes them with {@link Db#set}, so the
+ * scores are per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriteBatchBenchmark {
+    private static final int KEYS = 200_000;
+    private static final int WRITES = 1000;
+
+    @Param({"1", "10", "1000"})
+    int batchSize;
+
+    @Param({"100"})
+    int valueSize;
+
+    private Path directory;
+    private Db db;
+    private byte[][] keys;
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.tempDirectory("batch");
+        db = new Db(new DbOptions().directory(directory).syncMode(SyncMode.GROUP));
+        keys = BenchmarkData.keys(KEYS, 16);
+        value = BenchmarkData.value(valueSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void write() {
+        int first = ThreadLocalRandom.current().nextInt(KEYS - WRITES);
+        if (batchSize == 1) {
+            for (int i = first; i < first + WRITES; i++) {
+                db.set(keys[i], value);
+            }
+            return;
+        }
+        WriteBatch batch = new WriteBatch();
+        for (int i = first; i < first + WRITES; i++) {
+            batch.put(keys[i], value);
+            if (batch.size() == batchSize) {
+                db.write(batch);
+                batch.clear();
+            }
+        }
+        db.write(batch);
+    }
+}
@@ -0,0 +1,125 @@
+package konputer.kvdb.memory;
+
+import konputer.kvdb.BenchmarkData;
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.SnapshotManager;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.wal.LogManager;
+import konputer.kvdb.wal.SyncMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Inserts into and point lookups on one memtable, shared by all benchmark threads. Inserts go through the
+ * write-ahead log without syncing and overwrite a fixed set of keys. Like in the engine the table is replaced
+ * once it reaches the default write buffer size, so the table, its arena and its log stay bounded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemTableBenchmark {
+    private static final int KEYS = 100_000;
+    private static final long WRITE_BUFFER_SIZE = new DbOptions().writeBufferSize();
+
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"100", "1000"})
+    int valueSize;
+
+    @Param({"false", "true"})
+    boolean offHeap;
+
+    private Path directory;
+    private LogManager logs;
+    private SnapshotManager snapshots;
+    private byte[][] keys;
+    private byte[][] misses;
+    private ValueHolder value;
+    private MemTable filled;
+    private volatile MemTable table;
+    private final AtomicBoolean rotating = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        directory = BenchmarkData.tempDirectory("memtable");
+        logs = new LogManager(directory, SyncMode.NONE, 100, 0);
+        snapshots = new SnapshotManager(1);
+        keys = BenchmarkData.keys(KEYS, keySize);
+        misses = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            // sorts right after an existing key
+            misses[i] = Arrays.copyOf(keys[i], keySize + 1);
+        }
+        value = new ValueHolder(BenchmarkData.value(valueSize));
+        filled = new MemTable(snapshots, logs.newLog(), offHeap);
+        for (byte[] key : keys) {
+            filled.set(new TaggedKey(key, 1), value);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        table = new MemTable(snapshots, logs.newLog(), offHeap);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        table.freeze();
+        table.discardLog();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        filled.freeze();
+        filled.discardLog();
+        logs.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public void set() throws IOException {
+        TaggedKey key = new TaggedKey(keys[ThreadLocalRandom.current().nextInt(KEYS)], 1);
+        MemTable current = table;
+        while (!current.set(key, value)) {
+            current = table;
+        }
+        if (current.size() >= WRITE_BUFFER_SIZE && rotating.compareAndSet(false, true)) {
+            try {
+                if (table == current) {
+                    table = new MemTable(snapshots, logs.newLog(), offHeap);
+                    current.freeze();
+                    current.discardLog();
+                }
+            } finally {
+                rotating.set(false);
+            }
+        }
+    }
+
+    @Benchmark
+    public ValueHolder getHit() {
+        return filled.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public ValueHolder getMiss() {
+        return filled.get(misses[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+}
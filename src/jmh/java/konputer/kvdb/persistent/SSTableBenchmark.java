@@ -0,0 +1,143 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.BenchmarkData;
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.vlog.ValueLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Point lookups on one table through the block cache, decoding of its blocks and merging two overlapping
+ * tables the way a compaction does. The table holds the even keys, misses look up the odd ones in between.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SSTableBenchmark {
+    private static final int ROWS = 100_000;
+
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"100", "1000"})
+    int valueSize;
+
+    @Param({"NONE", "LZ"})
+    Compression compression;
+
+    private Path directory;
+    private final AtomicInteger ids = new AtomicInteger();
+    private BlockCache cache;
+    private SSTableHandle table;
+    private SSTableHandle older;
+    private ByteBuffer[] blocks;
+    private byte[][] hits;
+    private byte[][] misses;
+
+    // per invocation teardown only for the merge, it would distort the lookups
+    @State(Scope.Thread)
+    public static class MergeOutputs {
+        private List<SSTableHandle> tables = List.of();
+
+        @TearDown(Level.Invocation)
+        public void drop() {
+            for (SSTableHandle t : tables) {
+                t.supersededNotification();
+            }
+            tables = List.of();
+        }
+    }
+
+    private SSTableContentBuilder newOutput() throws IOException {
+        int id = ids.getAndIncrement();
+        File f = directory.resolve("tbl_" + id + ".sstable").toFile();
+        return new SSTableContentBuilder(f, id, new TableOptions(compression, cache, 10));
+    }
+
+    private SSTableHandle build(int step, long snapshotId) throws IOException {
+        ValueHolder value = new ValueHolder(BenchmarkData.value(valueSize));
+        try (SSTableContentBuilder b = newOutput()) {
+            for (int i = 0; i < 2 * ROWS; i += step) {
+                b.writeKv(new TaggedKey(BenchmarkData.key(i, keySize), snapshotId), value);
+            }
+            return b.build();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = BenchmarkData.tempDirectory("sstable");
+        // large enough to hold every block, lookups measure the search and not the disk
+        cache = new BlockCache(1L << 30, 16, false);
+        table = build(2, 2);
+        // every fourth key again, with an older version below the newer one
+        older = build(4, 1);
+        List<ByteBuffer> data = new ArrayList<>();
+        for (Iterator<ByteBuffer> it = table.getBlocks().get(0); it.hasNext(); ) {
+            data.add(it.next());
+        }
+        blocks = data.toArray(new ByteBuffer[0]);
+        hits = new byte[ROWS][];
+        misses = new byte[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            hits[i] = BenchmarkData.key(2L * i, keySize);
+            misses[i] = BenchmarkData.key(2L * i + 1, keySize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        table.close();
+        older.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public ValueHolder getHit() throws Exception {
+        return table.get(hits[ThreadLocalRandom.current().nextInt(ROWS)]);
+    }
+
+    @Benchmark
+    public ValueHolder getMiss() throws Exception {
+        return table.get(misses[ThreadLocalRandom.current().nextInt(ROWS)]);
+    }
+
+    @Benchmark
+    public void decodeBlock(Blackhole bh) {
+        ByteBuffer block = blocks[ThreadLocalRandom.current().nextInt(blocks.length)];
+        for (Iterator<Row> it = new SSTableHandle.RowAwareBlock(block.duplicate()).rowIterator(); it.hasNext(); ) {
+            bh.consume(it.next());
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<SSTableHandle> merge(MergeOutputs outputs) throws IOException {
+        outputs.tables = SSTableMerger.merge(List.of(table, older), null, null, this::newOutput, 4L * 1024 * 1024,
+                ValueLog.disabled(), new long[0], true);
+        return outputs.tables;
+    }
+}
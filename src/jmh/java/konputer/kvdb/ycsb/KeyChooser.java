@@ -0,0 +1,88 @@
+package konputer.kvdb.ycsb;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the record an operation works on, out of the records inserted so far.
+ */
+enum KeyChooser {
+    UNIFORM,
+    /**
+     * Zipfian popularity with the popular records spread over the key space by a hash, like YCSB's
+     * scrambled zipfian.
+     */
+    ZIPFIAN,
+    /**
+     * Zipfian over the age of the records, the most recently inserted ones are the most popular.
+     */
+    LATEST;
+
+    /**
+     * @param initialRecords records loaded before the run, the zipfian distribution is computed over them
+     * @param insertedCount  records inserted so far, read on every call
+     */
+    LongSupplier chooser(long initialRecords, LongSupplier insertedCount) {
+        return switch (this) {
+            case UNIFORM -> () -> ThreadLocalRandom.current().nextLong(insertedCount.getAsLong());
+            case ZIPFIAN -> {
+                Zipfian zipfian = new Zipfian(initialRecords);
+                yield () -> Long.remainderUnsigned(fnv(zipfian.next()), insertedCount.getAsLong());
+            }
+            case LATEST -> {
+                Zipfian zipfian = new Zipfian(initialRecords);
+                yield () -> Math.max(0, insertedCount.getAsLong() - 1 - zipfian.next());
+            }
+        };
+    }
+
+    static long fnv(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Gray et al., "Quickly generating billion-record synthetic databases", with YCSB's constant 0.99. Item 0
+     * is the most popular.
+     */
+    static final class Zipfian {
+        private static final double THETA = 0.99;
+
+        private final long items;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        Zipfian(long items) {
+            this.items = items;
+            this.zetaN = zeta(items);
+            this.alpha = 1 / (1 - THETA);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - THETA)) / (1 - zeta(2) / zetaN);
+        }
+
+        private static double zeta(long n) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+
+        long next() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, THETA)) {
+                return 1;
+            }
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package konputer.kvdb.ycsb;
+
+/**
+ * Share of each operation in a run, the core YCSB workloads A to F.
+ *
+ * @param readModifyWrite reads a record and writes it back changed
+ * @param chooser         default distribution of the records operations work on
+ */
+record Workload(double read, double update, double insert, double scan, double readModifyWrite,
+                KeyChooser chooser) {
+
+    static Workload of(String name) {
+        return switch (name.toUpperCase()) {
+            // update heavy, a session store recording recent actions
+            case "A" -> new Workload(0.5, 0.5, 0, 0, 0, KeyChooser.ZIPFIAN);
+            // read mostly, photo tagging
+            case "B" -> new Workload(0.95, 0.05, 0, 0, 0, KeyChooser.ZIPFIAN);
+            // read only, a user profile cache
+            case "C" -> new Workload(1, 0, 0, 0, 0, KeyChooser.ZIPFIAN);
+            // read latest, user status updates
+            case "D" -> new Workload(0.95, 0, 0.05, 0, 0, KeyChooser.LATEST);
+            // short ranges, threaded conversations
+            case "E" -> new Workload(0, 0, 0.05, 0.95, 0, KeyChooser.ZIPFIAN);
+            // read-modify-write, a user database
+            case "F" -> new Workload(0.5, 0, 0, 0, 0.5, KeyChooser.ZIPFIAN);
+            default -> throw new IllegalArgumentException("Unknown workload " + name + ", expected A to F");
+        };
+    }
+
+    Operation pick(double u) {
+        if ((u -= read) < 0) {
+            return Operation.READ;
+        }
+        if ((u -= update) < 0) {
+            return Operation.UPDATE;
+        }
+        if ((u -= insert) < 0) {
+            return Operation.INSERT;
+        }
+        if ((u -= scan) < 0) {
+            return Operation.SCAN;
+        }
+        return Operation.READ_MODIFY_WRITE;
+    }
+
+    enum Operation {
+        READ, UPDATE, INSERT, SCAN, READ_MODIFY_WRITE
+    }
+}
@@ -0,0 +1,242 @@
+package konputer.kvdb.ycsb;
+
+import konputer.kvdb.BenchmarkData;
+import konputer.kvdb.Db;
+import konputer.kvdb.DbCursor;
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.compaction.CompactionStats;
+import konputer.kvdb.metrics.LogLinearHistogram;
+import konputer.kvdb.ycsb.Workload.Operation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * YCSB style load generator over a database in a local directory. Loads {@code records} records, then runs
+ * one of the workloads A to F for {@code seconds} on {@code threads} threads and prints throughput, latency
+ * percentiles per operation and the write and space amplification of the directory.
+ * <p>
+ * Arguments are {@code name=value} pairs, for example
+ * {@code workload=A records=1000000 threads=4 seconds=60 valueSize=100 distribution=zipfian dir=/tmp/ycsb}.
+ * The directory is emptied first.
+ */
+public final class Ycsb {
+    private static final int KEY_SIZE = 24;
+    private static final int MAX_SCAN_LENGTH = 100;
+
+    private final String workloadName;
+    private final Workload workload;
+    private final long records;
+    private final int threads;
+    private final long seconds;
+    private final int valueSize;
+    private final KeyChooser chooser;
+    private final Path directory;
+    private final AtomicLong inserted = new AtomicLong();
+    // records below this are completely inserted, operations only pick those
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final LongAdder userBytes = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private Ycsb(Map<String, String> args) {
+        this.workloadName = args.getOrDefault("workload", "A");
+        this.workload = Workload.of(workloadName);
+        this.records = Long.parseLong(args.getOrDefault("records", "100000"));
+        this.threads = Integer.parseInt(args.getOrDefault("threads", "1"));
+        this.seconds = Long.parseLong(args.getOrDefault("seconds", "30"));
+        this.valueSize = Integer.parseInt(args.getOrDefault("valueSize", "100"));
+        String distribution = args.get("distribution");
+        this.chooser = distribution == null ? workload.chooser() : KeyChooser.valueOf(distribution.toUpperCase());
+        this.directory = Path.of(args.getOrDefault("dir", "ycsb-data"));
+        if (records <= 0 || threads <= 0 || seconds <= 0 || valueSize <= 0) {
+            throw new IllegalArgumentException("records, threads, seconds and valueSize must be positive");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsed = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            parsed.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new Ycsb(parsed).run();
+    }
+
+    // record numbers are hashed so inserts don't arrive in key order
+    private static byte[] key(long record) {
+        String digits = Long.toUnsignedString(KeyChooser.fnv(record));
+        return ("user" + "0".repeat(KEY_SIZE - 4 - digits.length()) + digits).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] value() {
+        byte[] value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        return value;
+    }
+
+    private void run() throws Exception {
+        if (Files.exists(directory)) {
+            BenchmarkData.delete(directory);
+        }
+        try (Db db = Db.open(new DbOptions().directory(directory))) {
+            System.out.printf("load: %d records of %d bytes%n", records, KEY_SIZE + valueSize);
+            long start = System.nanoTime();
+            Map<Operation, LogLinearHistogram> load = runThreads(() -> {
+                LogLinearHistogram h = newHistogram();
+                for (long r = inserted.getAndIncrement(); r < records; r = inserted.getAndIncrement()) {
+                    long t = System.nanoTime();
+                    write(db, r);
+                    h.record(System.nanoTime() - t);
+                }
+                return new EnumMap<>(Map.of(Operation.INSERT, h));
+            });
+            inserted.set(records);
+            acknowledged.set(records);
+            report(load, System.nanoTime() - start);
+
+            System.out.printf("run: workload %s, %s keys, %d threads, %ds%n", workloadName, chooser, threads, seconds);
+            LongSupplier choose = chooser.chooser(records, acknowledged::get);
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            start = System.nanoTime();
+            Map<Operation, LogLinearHistogram> run = runThreads(() -> {
+                Map<Operation, LogLinearHistogram> histograms = new EnumMap<>(Operation.class);
+                while (System.nanoTime() < end) {
+                    Operation op = workload.pick(ThreadLocalRandom.current().nextDouble());
+                    long t = System.nanoTime();
+                    execute(db, op, choose);
+                    histograms.computeIfAbsent(op, o -> newHistogram()).record(System.nanoTime() - t);
+                }
+                return histograms;
+            });
+            report(run, System.nanoTime() - start);
+            if (misses.sum() > 0) {
+                System.out.printf("reads that found no record: %d%n", misses.sum());
+            }
+            amplification(db);
+        }
+    }
+
+    private void write(Db db, long record) {
+        db.set(key(record), value());
+        userBytes.add(KEY_SIZE + valueSize);
+    }
+
+    private void execute(Db db, Operation op, LongSupplier choose) {
+        switch (op) {
+            case READ -> {
+                if (db.get(key(choose.getAsLong())) == null) {
+                    misses.increment();
+                }
+            }
+            case UPDATE -> write(db, choose.getAsLong());
+            case INSERT -> {
+                long record = inserted.getAndIncrement();
+                write(db, record);
+                while (!acknowledged.compareAndSet(record, record + 1)) {
+                    Thread.yield(); // an older insert is still running
+                }
+            }
+            case SCAN -> {
+                int length = ThreadLocalRandom.current().nextInt(MAX_SCAN_LENGTH) + 1;
+                try (DbCursor cursor = db.newCursor()) {
+                    cursor.seek(key(choose.getAsLong()));
+                    for (int i = 0; i < length && cursor.isValid(); i++) {
+                        cursor.value();
+                        cursor.next();
+                    }
+                }
+            }
+            case READ_MODIFY_WRITE -> {
+                long record = choose.getAsLong();
+                if (db.get(key(record)) == null) {
+                    misses.increment();
+                }
+                write(db, record);
+            }
+        }
+    }
+
+    // percentiles within 1% of the recorded latencies
+    private static LogLinearHistogram newHistogram() {
+        return new LogLinearHistogram(7);
+    }
+
+    private interface Worker {
+        Map<Operation, LogLinearHistogram> run() throws Exception;
+    }
+
+    private Map<Operation, LogLinearHistogram> runThreads(Worker worker) throws Exception {
+        List<Thread> running = new ArrayList<>();
+        List<Map<Operation, LogLinearHistogram>> results = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    Map<Operation, LogLinearHistogram> result = worker.run();
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "ycsb-" + i);
+            t.start();
+            running.add(t);
+        }
+        for (Thread t : running) {
+            t.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Worker failed", errors.get(0));
+        }
+        Map<Operation, LogLinearHistogram> merged = new EnumMap<>(Operation.class);
+        for (Map<Operation, LogLinearHistogram> result : results) {
+            result.forEach((op, h) -> merged.computeIfAbsent(op, o -> newHistogram()).add(h));
+        }
+        return merged;
+    }
+
+    private static void report(Map<Operation, LogLinearHistogram> histograms, long nanos) {
+        long ops = histograms.values().stream().mapToLong(LogLinearHistogram::count).sum();
+        System.out.printf("  %d ops in %.1fs, %.0f ops/s%n", ops, nanos / 1e9, ops * 1e9 / nanos);
+        histograms.forEach((op, h) -> System.out.printf(
+                "  %-17s count %9d  mean %8.1fus  p50 %8.1fus  p99 %8.1fus  p99.9 %8.1fus  max %9.1fus%n",
+                op, h.count(), h.mean() / 1e3, h.percentile(50) / 1e3, h.percentile(99) / 1e3,
+                h.percentile(99.9) / 1e3, h.max() / 1e3));
+    }
+
+    private void amplification(Db db) throws IOException {
+        CompactionStats stats = db.getCompactionStats();
+        long written = userBytes.sum();
+        // every record written at least once, updates overwrite records that already exist
+        long live = inserted.get() * (KEY_SIZE + valueSize);
+        long onDisk;
+        try (Stream<Path> files = Files.walk(directory)) {
+            onDisk = files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+        System.out.printf("write amplification: %.2f table bytes per user byte (%d MiB written by the driver, "
+                        + "%d MiB flushed, %d MiB compacted)%n",
+                written == 0 ? 0 : (double) (stats.flushedBytes() + stats.compactedBytes()) / written,
+                written >> 20, stats.flushedBytes() >> 20, stats.compactedBytes() >> 20);
+        System.out.printf("space amplification: %.2f (%d MiB in the directory, %d MiB of live records)%n",
+                live == 0 ? 0 : (double) onDisk / live, onDisk >> 20, live >> 20);
+    }
+}
@@ -3,50 +3,286 @@ package konputer.kvdb;
 
 import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.Striped;
+import konputer.kvdb.compaction.CompactionStats;
+import konputer.kvdb.compaction.WriteController;
+import konputer.kvdb.dtos.Keys;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
 import konputer.kvdb.memory.MemStore;
 import konputer.kvdb.memory.MemTablePersistor;
+import konputer.kvdb.memory.WriteBufferManager;
+import konputer.kvdb.metrics.Histogram;
+import konputer.kvdb.metrics.MetricsBean;
+import konputer.kvdb.metrics.PerfContext;
+import konputer.kvdb.metrics.Statistics;
+import konputer.kvdb.persistent.BlockCache;
 import konputer.kvdb.persistent.PersistentStore;
+import konputer.kvdb.persistent.SSTableHandle;
+import konputer.kvdb.persistent.Version;
+import konputer.kvdb.wal.LogManager;
 import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Stream;
 
 public class Db implements Lookup, AutoCloseable, KvStore {
     private static final int LOCK_COUNT = 512;
-    private final PersistentStore store = new PersistentStore();
-    private final MemTablePersistor persistor = new MemTablePersistor(store);
-    private final SnapshotManager snapshotManager = new SnapshotManager(1);
-    private final MemStore storeMem = new MemStore(persistor, snapshotManager);
+    private static final String PROPERTY_PREFIX = "kvdb.";
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
+    private final PersistentStore store;
+    private final MemTablePersistor persistor;
+    private final SnapshotManager snapshotManager;
+    private final MemStore storeMem;
     private final Striped<Lock> locks = Striped.lock(LOCK_COUNT);
+    private final Statistics statistics;
+    private final ObjectName mbeanName;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
+    public Db() {
+        this(new DbOptions());
+    }
+
+    /**
+     * Creates a new database in the options directory, which must not hold one yet, see {@link #open(DbOptions)}.
+     *
+     * @throws IllegalStateException if the directory already holds database files
+     */
+    public Db(DbOptions options) {
+        this(options, new PersistentStore(options), 1, 0);
+    }
+
+    private Db(DbOptions options, PersistentStore store, long firstSnapshotId, long firstLogId) {
+        this.store = store;
+        this.persistor = new MemTablePersistor(store, options.flushThreads());
+        this.snapshotManager = new SnapshotManager(firstSnapshotId);
+        store.setSnapshotManager(snapshotManager);
+        LogManager logManager = new LogManager(options.directory(), options.syncMode(), options.syncIntervalMillis(), firstLogId);
+        this.storeMem = new MemStore(persistor, snapshotManager, logManager, store.getWriteController(), options);
+        this.statistics = store.getStatistics();
+        try {
+            this.mbeanName = registerMBean(options.directory());
+        } catch (RuntimeException e) {
+            // the caller never gets this instance to close
+            try {
+                closeStorage();
+            } catch (RuntimeException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private ObjectName registerMBean(Path directory) {
+        try {
+            ObjectName name = new ObjectName("konputer.kvdb:type=Db,id=" + MBEAN_IDS.incrementAndGet()
+                    + ",directory=" + ObjectName.quote(directory.toAbsolutePath().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(this::getMetrics), name);
+            return name;
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register metrics MBean for " + directory, e);
+        }
+    }
+
+    public static Db open(Path directory) {
+        return open(new DbOptions().directory(directory));
+    }
+
+    /**
+     * Opens the database stored in the options directory, creating it if the directory is empty.
+     * Tables are loaded back into their layers and writes that only reached the write-ahead log are flushed
+     * into new level 0 tables before the database accepts writes.
+     */
+    public static Db open(DbOptions options) {
+        Path directory = options.directory();
+        PersistentStore store = null;
+        try {
+            Files.createDirectories(directory);
+            store = PersistentStore.open(options);
+            long lastSnapshotId = store.getMaxSnapshotId();
+            List<Long> logIds = LogManager.existingLogIds(directory);
+            for (long logId : logIds) {
+                lastSnapshotId = Math.max(lastSnapshotId, store.recoverLog(LogManager.logFile(directory, logId)));
+            }
+            long firstLogId = logIds.isEmpty() ? 0 : logIds.get(logIds.size() - 1) + 1;
+            // recovered versions must stay older than anything written from now on
+            return new Db(options, store, lastSnapshotId + 1, firstLogId);
+        } catch (IOException e) {
+            if (store != null) {
+                store.close();
+            }
+            throw new RuntimeException("Failed to open database in " + directory, e);
+        }
+    }
 
     @Override
-    public ValueHolder get(@NonNull String key) {
+    public ValueHolder get(byte @NonNull [] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the newest version of the key written at or before the snapshot, a tombstone if it is a removal
+     */
+    @Override
+    public ValueHolder get(byte @NonNull [] key, long snapshotId) {
+        long start = System.nanoTime();
+        PerfContext perf = PerfContext.current();
         try {
-            ValueHolder value = storeMem.get(key);
+            ValueHolder value = storeMem.get(key, snapshotId);
+            long tablesStart = perf == null ? 0 : System.nanoTime();
+            if (perf != null) {
+                perf.memTableNanos(tablesStart - start);
+            }
             if (value != null) {
                 return value;
             }
-            return store.get(key);
+            value = store.get(key, snapshotId);
+            if (perf != null) {
+                perf.tableNanos(System.nanoTime() - tablesStart);
+            }
+            return value;
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting value for key: " + HexFormat.of().formatHex(key), e);
+        } finally {
+            statistics.getLatency().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Looks up all keys at once, each memtable and table is probed once for all of them in key order and keys
+     * in the same block read it once.
+     *
+     * @return the value of each key like {@link #get(byte[])} would return it, in the order of {@code keys}
+     */
+    public List<ValueHolder> multiGet(List<byte @NonNull []> keys) {
+        TreeSet<byte[]> distinct = new TreeSet<>(Keys.COMPARATOR);
+        distinct.addAll(keys);
+        byte[][] sorted = distinct.toArray(new byte[0][]);
+        ValueHolder[] found = new ValueHolder[sorted.length];
+        multiGet(sorted, found);
+        List<ValueHolder> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(found[Arrays.binarySearch(sorted, key, Keys.COMPARATOR)]);
+        }
+        return values;
+    }
+
+    /**
+     * @return the values of the keys that are present, in the iteration order of {@code keys}
+     */
+    public Map<String, byte[]> multiGet(Collection<@NonNull String> keys) {
+        List<String> ordered = List.copyOf(keys);
+        List<ValueHolder> values = multiGet(ordered.stream().map(Keys::of).toList());
+        Map<String, byte[]> present = new LinkedHashMap<>();
+        for (int i = 0; i < ordered.size(); i++) {
+            ValueHolder value = values.get(i);
+            if (value != null && !value.isTombstone()) {
+                present.put(ordered.get(i), value.value());
+            }
+        }
+        return present;
+    }
+
+    @Override
+    public void multiGet(byte[][] keys, ValueHolder[] found) {
+        long start = System.nanoTime();
+        PerfContext perf = PerfContext.current();
+        try {
+            storeMem.multiGet(keys, found);
+            long tablesStart = perf == null ? 0 : System.nanoTime();
+            store.multiGet(keys, found);
+            if (perf != null) {
+                perf.memTableNanos(tablesStart - start);
+                perf.tableNanos(System.nanoTime() - tablesStart);
+            }
         } catch (Exception e) {
-            throw new RuntimeException("Error getting value for key: " + key, e);
+            throw new RuntimeException("Error getting values for " + keys.length + " keys", e);
+        } finally {
+            statistics.multiGetLatency().record(System.nanoTime() - start);
         }
     }
 
+    public CompactionStats getCompactionStats() {
+        return store.getCompactionStats();
+    }
+
+    // for tests that need the table files the store writes next
+    PersistentStore persistentStore() {
+        return store;
+    }
+
     public DbView snapshot() {
         long snapshotId = snapshotManager.doSnapshot();
 
         return new DbView(snapshotId, this);
     }
 
+    /**
+     * @return a cursor over all keys of a new snapshot, see {@link DbCursor}
+     */
+    public DbCursor newCursor() {
+        return newCursor(null, null);
+    }
+
+    /**
+     * @param lowerBound first key the cursor may show, null for no bound
+     * @param upperBound key the cursor stops before, null for no bound
+     */
+    public DbCursor newCursor(byte @Nullable [] lowerBound, byte @Nullable [] upperBound) {
+        return newCursor(snapshotManager.doSnapshot(), true, lowerBound, upperBound);
+    }
+
+    /**
+     * @param ownsSnapshot whether closing the cursor releases the snapshot
+     */
+    DbCursor newCursor(long snapshotId, boolean ownsSnapshot, byte @Nullable [] lowerBound, byte @Nullable [] upperBound) {
+        // memtables first, one flushed meanwhile is then in the version too instead of in neither
+        List<RowCursor> sources = new ArrayList<>(storeMem.cursors());
+        PerfContext perf = PerfContext.current();
+        if (perf != null) {
+            perf.memTablesProbed(sources.size());
+        }
+        Version version = store.acquireVersion();
+        sources.addAll(version.cursors());
+        SnapshotManager snapshots = snapshotManager;
+        Runnable release = ownsSnapshot ? () -> {
+            version.unref();
+            snapshots.release(snapshotId);
+        } : version::unref;
+        return new DbCursor(sources, release, store.getValueLog(), statistics.seekLatency(), snapshotId,
+                lowerBound, upperBound);
+    }
+
+    void releaseSnapshot(long snapshotId) {
+        snapshotManager.release(snapshotId);
+    }
+
     public byte[] getSimple(@NonNull String key) {
+        return getSimple(Keys.of(key));
+    }
+
+    public byte[] getSimple(byte @NonNull [] key) {
         ValueHolder value = get(key);
         if (value != null) {
             return value.value();
@@ -105,24 +341,28 @@ public class Db implements Lookup, AutoCloseable, KvStore {
                 Comparator.naturalOrder());
     }
 
-    public void set(@NonNull String key, byte[] value) {
+    @Override
+    public void set(byte @NonNull [] key, byte[] value) {
 
         set(new TaggedKey(key, snapshotManager.currentSnapshotId()), new ValueHolder(value));
     }
 
     public void set(@NonNull TaggedKey key, @NonNull ValueHolder value) {
+        long start = System.nanoTime();
         storeMem.set(key, value);
+        statistics.writeLatency().record(System.nanoTime() - start);
     }
 
     @Override
-    public boolean containsKey(@NonNull String key) {
+    public boolean containsKey(byte @NonNull [] key) {
         return getSimple(key) != null;
     }
 
     @Override
-    public boolean cas(@NonNull String key, byte[] newVal, byte[] expected) {
+    public boolean cas(byte @NonNull [] key, byte[] newVal, byte[] expected) {
         //TODO test adding outer condition
-        Lock l = locks.get(key);
+        // wrapped, arrays hash by identity
+        Lock l = locks.get(ByteBuffer.wrap(key));
         l.lock();
         try {
             if (Arrays.equals(get(key).value(), expected)) {
@@ -136,15 +376,181 @@ public class Db implements Lookup, AutoCloseable, KvStore {
     }
 
     @Override
-    public void remove(@NonNull String key) {
+    public void remove(byte @NonNull [] key) {
         set(new TaggedKey(key, snapshotManager.currentSnapshotId()), ValueHolder.tombstone());
     }
 
+    @Override
+    public void write(@NonNull WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        storeMem.write(batch::rows);
+        statistics.writeLatency().record(System.nanoTime() - start);
+    }
+
+    /**
+     * Current value of a metric, the names are {@link #getMetrics()} prefixed with {@code kvdb.}. Besides
+     * those {@code kvdb.stats} lists all of them, {@code kvdb.get.latency}, {@code kvdb.multiget.latency},
+     * {@code kvdb.write.latency} and {@code kvdb.seek.latency} summarize a histogram, and
+     * {@code kvdb.num-files-at-level<N>} and {@code kvdb.bytes-at-level<N>} work for any level.
+     *
+     * @return null for an unknown property
+     */
+    public @Nullable String getProperty(@NonNull String property) {
+        if (!property.startsWith(PROPERTY_PREFIX)) {
+            return null;
+        }
+        String name = property.substring(PROPERTY_PREFIX.length());
+        switch (name) {
+            case "stats" -> {
+                StringBuilder stats = new StringBuilder();
+                getMetrics().forEach((metric, value) ->
+                        stats.append(PROPERTY_PREFIX).append(metric).append(": ").append(value).append('\n'));
+                for (String op : List.of("get", "multiget", "write", "seek")) {
+                    stats.append(PROPERTY_PREFIX).append(op).append(".latency: ")
+                            .append(formatLatency(latency(op).snapshot())).append('\n');
+                }
+                return stats.toString();
+            }
+            case "get.latency", "multiget.latency", "write.latency", "seek.latency" -> {
+                return formatLatency(latency(name.substring(0, name.indexOf('.'))).snapshot());
+            }
+            default -> {
+                Integer level = levelOf(name, "num-files-at-level");
+                if (level == null) {
+                    level = levelOf(name, "bytes-at-level");
+                }
+                if (level != null) {
+                    Version version = store.acquireVersion();
+                    try {
+                        List<SSTableHandle> tables = tablesAt(version, level);
+                        return String.valueOf(name.startsWith("num-files")
+                                ? tables.size() : tables.stream().mapToLong(SSTableHandle::getSize).sum());
+                    } finally {
+                        version.unref();
+                    }
+                }
+                Number value = getMetrics().get(name);
+                return value == null ? null : value.toString();
+            }
+        }
+    }
+
+    private static @Nullable Integer levelOf(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            int level = Integer.parseInt(name.substring(prefix.length()));
+            return level < 0 ? null : level;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static List<SSTableHandle> tablesAt(Version version, int level) {
+        return level == 0 ? version.l0() : version.level(level).getTables();
+    }
+
+    private Histogram latency(String op) {
+        return switch (op) {
+            case "get" -> statistics.getLatency();
+            case "multiget" -> statistics.multiGetLatency();
+            case "write" -> statistics.writeLatency();
+            case "seek" -> statistics.seekLatency();
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        };
+    }
+
+    private static String formatLatency(Histogram.Snapshot s) {
+        return String.format("count %d p50 %.1fus p99 %.1fus p99.9 %.1fus max %.1fus",
+                s.count(), s.p50() / 1e3, s.p99() / 1e3, s.p999() / 1e3, s.max() / 1e3);
+    }
+
+    /**
+     * Collects every metric the engine keeps, the same numbers the JMX bean and {@link #getProperty(String)}
+     * publish. Counters count since the database was opened, latencies are in microseconds.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("cur-size-active-mem-table", storeMem.activeMemTableSize());
+        metrics.put("num-immutable-mem-table", storeMem.frozenMemTableCount());
+        WriteBufferManager writeBuffer = storeMem.getWriteBufferManager();
+        metrics.put("size-all-mem-tables", writeBuffer.memoryUsage());
+        Version version = store.acquireVersion();
+        try {
+            for (int level = 0; level < version.levelCount(); level++) {
+                List<SSTableHandle> tables = tablesAt(version, level);
+                metrics.put("num-files-at-level" + level, tables.size());
+                metrics.put("bytes-at-level" + level, tables.stream().mapToLong(SSTableHandle::getSize).sum());
+            }
+        } finally {
+            version.unref();
+        }
+        BlockCache cache = store.getBlockCache();
+        metrics.put("block-cache.hits", cache.hits());
+        metrics.put("block-cache.misses", cache.misses());
+        metrics.put("block-cache.hit-rate", cache.hitRate());
+        metrics.put("block-cache.usage", cache.usage());
+        metrics.put("bloom.checked", statistics.bloomChecked());
+        metrics.put("bloom.useful", statistics.bloomUseful());
+        metrics.put("bloom.false-positive", statistics.bloomFalsePositive());
+        CompactionStats compaction = store.getCompactionStats();
+        metrics.put("flush.bytes-written", compaction.flushedBytes());
+        metrics.put("compaction.bytes-read", store.compactionReadBytes());
+        metrics.put("compaction.bytes-written", compaction.compactedBytes());
+        WriteController controller = store.getWriteController();
+        metrics.put("write-controller.delayed-writes", controller.delayedWrites());
+        metrics.put("write-controller.stopped-writes", controller.stalledWrites());
+        metrics.put("write-controller.stall-micros", controller.stallNanos() / 1000);
+        metrics.put("write-buffer.delayed-writes", writeBuffer.delayedWrites());
+        metrics.put("write-buffer.stopped-writes", writeBuffer.stalledWrites());
+        metrics.put("write-buffer.stall-micros", writeBuffer.stallNanos() / 1000);
+        for (String op : List.of("get", "multiget", "write", "seek")) {
+            Histogram.Snapshot latency = latency(op).snapshot();
+            metrics.put(op + ".count", latency.count());
+            metrics.put(op + ".p50-micros", latency.p50() / 1e3);
+            metrics.put(op + ".p99-micros", latency.p99() / 1e3);
+            metrics.put(op + ".p999-micros", latency.p999() / 1e3);
+            metrics.put(op + ".max-micros", latency.max() / 1e3);
+        }
+        return metrics;
+    }
+
 
+    /**
+     * Closes the memtables and the tables, then unregisters the metrics MBean. Calling it again does nothing.
+     */
     @Override
     public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            closeStorage();
+        } finally {
+            unregisterMBean();
+        }
+    }
+
+    private void closeStorage() {
         persistor.shutdown();
-        persistor.close();
-        store.close();
+        try {
+            storeMem.close();
+        } finally {
+            store.close();
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (InstanceNotFoundException e) {
+            // unregistered by someone else through the MBean server
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to unregister metrics MBean " + mbeanName, e);
+        }
     }
 }
@@ -0,0 +1,257 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.metrics.Histogram;
+import konputer.kvdb.vlog.ValueLog;
+import org.jspecify.annotations.NonNull;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Seekable cursor over the keys of one snapshot, in both directions and within optional bounds. Shows the
+ * newest version of each key at or before the snapshot and skips removed keys.
+ * <p>
+ * The cursor pins the memtables and the table version it was created on, so it can be re-seeked any number
+ * of times without opening the tables again. Close it to let go of them, a cursor is not thread safe.
+ */
+public final class DbCursor implements AutoCloseable {
+    // also releases the snapshots of views that were never closed
+    static final Cleaner CURSOR_CLEANER = Cleaner.create();
+
+    private final RowCursor[] sources;
+    private final ValueLog valueLog;
+    private final Histogram seekLatency;
+    private final long snapshotId;
+    private final byte[] lowerBound;
+    private final byte[] upperBound;
+    private final Cleaner.Cleanable release;
+    // which source holds the current merged row, the others are on the side of it the cursor moves to
+    private int current = -1;
+    private boolean forward = true;
+    private Row row;
+
+    /**
+     * @param sources newest first
+     * @param release lets go of the version and snapshot the cursor reads, runs once
+     */
+    DbCursor(List<RowCursor> sources, Runnable release, ValueLog valueLog, Histogram seekLatency, long snapshotId,
+             byte @Nullable [] lowerBound, byte @Nullable [] upperBound) {
+        this.sources = sources.toArray(new RowCursor[0]);
+        this.valueLog = valueLog;
+        this.seekLatency = seekLatency;
+        this.snapshotId = snapshotId;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        // must not capture this, or the cursor never becomes unreachable
+        this.release = CURSOR_CLEANER.register(this, release);
+    }
+
+    public boolean isValid() {
+        return row != null;
+    }
+
+    public void seekToFirst() {
+        if (lowerBound != null) {
+            seek(lowerBound);
+            return;
+        }
+        long start = System.nanoTime();
+        for (RowCursor source : sources) {
+            source.seekToFirst();
+        }
+        pickSmallest();
+        findNext();
+        seekLatency.record(System.nanoTime() - start);
+    }
+
+    public void seekToLast() {
+        long start = System.nanoTime();
+        if (upperBound != null) {
+            seekBefore(upperBound);
+        } else {
+            for (RowCursor source : sources) {
+                source.seekToLast();
+            }
+            pickLargest();
+            findPrev();
+        }
+        seekLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Moves to the first key {@code >= key}.
+     */
+    public void seek(byte @NonNull [] key) {
+        long start = System.nanoTime();
+        if (lowerBound != null && Keys.compare(key, lowerBound) < 0) {
+            key = lowerBound;
+        }
+        TaggedKey oldest = new TaggedKey(key, Long.MIN_VALUE);
+        for (RowCursor source : sources) {
+            source.seek(oldest);
+        }
+        pickSmallest();
+        findNext();
+        seekLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Moves to the last key {@code <= key}.
+     */
+    public void seekForPrev(byte @NonNull [] key) {
+        long start = System.nanoTime();
+        if (upperBound != null && Keys.compare(key, upperBound) >= 0) {
+            seekBefore(upperBound);
+        } else {
+            TaggedKey newest = new TaggedKey(key, Long.MAX_VALUE);
+            for (RowCursor source : sources) {
+                source.seekForPrev(newest);
+            }
+            pickLargest();
+            findPrev();
+        }
+        seekLatency.record(System.nanoTime() - start);
+    }
+
+    public void seek(@NonNull String key) {
+        seek(Keys.of(key));
+    }
+
+    public void seekForPrev(@NonNull String key) {
+        seekForPrev(Keys.of(key));
+    }
+
+    // last key < key
+    private void seekBefore(byte[] key) {
+        TaggedKey oldest = new TaggedKey(key, Long.MIN_VALUE);
+        for (RowCursor source : sources) {
+            source.seekForPrev(oldest);
+            if (source.isValid() && source.row().key().equals(oldest)) {
+                source.prev();
+            }
+        }
+        pickLargest();
+        findPrev();
+    }
+
+    public void next() {
+        checkState(isValid(), "Cursor is not positioned on a key");
+        if (!forward) {
+            // past all versions of the current key, which the backward walk already read
+            TaggedKey after = new TaggedKey(row.key().bytes(), Long.MAX_VALUE);
+            for (RowCursor source : sources) {
+                source.seek(after);
+            }
+            pickSmallest();
+        }
+        findNext();
+    }
+
+    public void prev() {
+        checkState(isValid(), "Cursor is not positioned on a key");
+        if (forward) {
+            seekBefore(row.key().bytes());
+            return;
+        }
+        findPrev();
+    }
+
+    public byte[] key() {
+        checkState(isValid(), "Cursor is not positioned on a key");
+        return row.key().bytes();
+    }
+
+    /**
+     * @return the value, read from the value log if it was separated
+     */
+    public byte[] value() {
+        checkState(isValid(), "Cursor is not positioned on a key");
+        return valueLog.resolve(row.value()).value();
+    }
+
+    // reads all versions of the key the sources are at, stops on the first key visible in the snapshot
+    private void findNext() {
+        forward = true;
+        while (merged() != null) {
+            byte[] key = merged().key().bytes();
+            if (upperBound != null && Keys.compare(key, upperBound) >= 0) {
+                break;
+            }
+            // versions come oldest first, the last one in the snapshot wins
+            Row visible = null;
+            for (Row r = merged(); r != null && r.key().hasKey(key); r = merged()) {
+                if (r.key().snapshotId() <= snapshotId) {
+                    visible = r;
+                }
+                sources[current].next();
+                pickSmallest();
+            }
+            if (visible != null && !visible.value().isTombstone()) {
+                row = visible;
+                return;
+            }
+        }
+        row = null;
+    }
+
+    private void findPrev() {
+        forward = false;
+        while (merged() != null) {
+            byte[] key = merged().key().bytes();
+            if (lowerBound != null && Keys.compare(key, lowerBound) < 0) {
+                break;
+            }
+            // versions come newest first, the first one in the snapshot wins
+            Row visible = null;
+            for (Row r = merged(); r != null && r.key().hasKey(key); r = merged()) {
+                if (visible == null && r.key().snapshotId() <= snapshotId) {
+                    visible = r;
+                }
+                sources[current].prev();
+                pickLargest();
+            }
+            if (visible != null && !visible.value().isTombstone()) {
+                row = visible;
+                return;
+            }
+        }
+        row = null;
+    }
+
+    private Row merged() {
+        return current < 0 ? null : sources[current].row();
+    }
+
+    // a few memtables, L0 tables and levels, scanning them beats keeping a heap in order across direction changes.
+    // Writes between snapshots share a snapshot id, so equal rows of several sources are ordered by source:
+    // going forward the older source comes first, going backward the newer one
+    private void pickSmallest() {
+        current = -1;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].isValid() && (current < 0 || sources[i].row().compareTo(sources[current].row()) <= 0)) {
+                current = i;
+            }
+        }
+    }
+
+    private void pickLargest() {
+        current = -1;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].isValid() && (current < 0 || sources[i].row().compareTo(sources[current].row()) > 0)) {
+                current = i;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        row = null;
+        release.clean(); // runs at most once
+    }
+}
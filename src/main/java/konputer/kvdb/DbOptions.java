@@ -0,0 +1,407 @@
+package konputer.kvdb;
+
+import konputer.kvdb.compaction.CompactionStyle;
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.wal.SyncMode;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class DbOptions {
+    private Path directory = Path.of(".");
+    private SyncMode syncMode = SyncMode.NONE;
+    private long syncIntervalMillis = 100;
+    private List<Compression> compressionPerLevel = List.of(Compression.LZ);
+    private Compression bottommostCompression = Compression.DEFLATE;
+    private long blockCacheCapacity = 32L * 1024 * 1024;
+    private int blockCacheShards = 16;
+    private boolean cacheDecodedBlocks = false;
+    private int bloomBitsPerKey = 10;
+    private CompactionStyle compactionStyle = CompactionStyle.LEVELED;
+    private int compactionThreads = 2;
+    private int flushThreads = 2;
+    private int l0CompactionTrigger = 10;
+    private int l0SlowdownWritesTrigger = 20;
+    private int l0StopWritesTrigger = 36;
+    private long targetFileSize = 4L * 1024 * 1024;
+    private int maxSubcompactions = 4;
+    private int levelSizeMultiplier = 10;
+    private int tieredSizeRatio = 1;
+    private int tieredMaxSizeAmplificationPercent = 200;
+    private int valueLogThreshold = 0;
+    private int valueLogGcThreshold = 50;
+    private long valueLogFileSize = 256L * 1024 * 1024;
+    private int multiGetThreads = 0;
+    private boolean offHeapMemTable = false;
+    private long writeBufferSize = 1024 * 1024;
+    private long writeBufferBudget = 8L * 1024 * 1024;
+
+    public Path directory() {
+        return directory;
+    }
+
+    public DbOptions directory(Path directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    public SyncMode syncMode() {
+        return syncMode;
+    }
+
+    public DbOptions syncMode(SyncMode syncMode) {
+        this.syncMode = syncMode;
+        return this;
+    }
+
+    public long syncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Only used with {@link SyncMode#PERIODIC}.
+     */
+    public DbOptions syncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must be positive");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Codec per level starting at L0, levels past the end of the list use its last entry.
+     */
+    public DbOptions compressionPerLevel(Compression... compressionPerLevel) {
+        if (compressionPerLevel.length == 0) {
+            throw new IllegalArgumentException("At least one compression must be given");
+        }
+        this.compressionPerLevel = List.of(compressionPerLevel);
+        return this;
+    }
+
+    /**
+     * Codec for the last level, which holds most of the data and is rewritten the least. Null falls back
+     * to {@link #compressionPerLevel(Compression...)}.
+     */
+    public DbOptions bottommostCompression(Compression bottommostCompression) {
+        this.bottommostCompression = bottommostCompression;
+        return this;
+    }
+
+    public Compression compression(int level, boolean bottommost) {
+        if (bottommost && level > 0 && bottommostCompression != null) {
+            return bottommostCompression;
+        }
+        return compressionPerLevel.get(Math.min(level, compressionPerLevel.size() - 1));
+    }
+
+    public long blockCacheCapacity() {
+        return blockCacheCapacity;
+    }
+
+    /**
+     * Bytes of decompressed blocks kept in memory across all tables, 0 disables the cache.
+     */
+    public DbOptions blockCacheCapacity(long blockCacheCapacity) {
+        if (blockCacheCapacity < 0) {
+            throw new IllegalArgumentException("blockCacheCapacity must not be negative");
+        }
+        this.blockCacheCapacity = blockCacheCapacity;
+        return this;
+    }
+
+    public int blockCacheShards() {
+        return blockCacheShards;
+    }
+
+    public DbOptions blockCacheShards(int blockCacheShards) {
+        this.blockCacheShards = blockCacheShards;
+        return this;
+    }
+
+    public boolean cacheDecodedBlocks() {
+        return cacheDecodedBlocks;
+    }
+
+    /**
+     * Also keep the decoded rows of cached blocks, point reads then binary search them instead of
+     * deserializing the block again. Costs noticeably more memory per cached block.
+     */
+    public DbOptions cacheDecodedBlocks(boolean cacheDecodedBlocks) {
+        this.cacheDecodedBlocks = cacheDecodedBlocks;
+        return this;
+    }
+
+    public int bloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Size of the Bloom filter of each table per distinct key, 10 bits give about 1% false positives.
+     * Tables already written keep their filter.
+     */
+    public DbOptions bloomBitsPerKey(int bloomBitsPerKey) {
+        if (bloomBitsPerKey <= 0) {
+            throw new IllegalArgumentException("bloomBitsPerKey must be positive");
+        }
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        return this;
+    }
+
+    public CompactionStyle compactionStyle() {
+        return compactionStyle;
+    }
+
+    /**
+     * Decides how tables are merged, both styles can open a directory written with the other one.
+     */
+    public DbOptions compactionStyle(CompactionStyle compactionStyle) {
+        if (compactionStyle == null) {
+            throw new IllegalArgumentException("compactionStyle must not be null");
+        }
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public int compactionThreads() {
+        return compactionThreads;
+    }
+
+    public DbOptions compactionThreads(int compactionThreads) {
+        if (compactionThreads <= 0) {
+            throw new IllegalArgumentException("compactionThreads must be positive");
+        }
+        this.compactionThreads = compactionThreads;
+        return this;
+    }
+
+    public int flushThreads() {
+        return flushThreads;
+    }
+
+    /**
+     * Frozen memtables written to tables at the same time. They are installed in L0 in the order they were
+     * frozen regardless of which write finishes first.
+     */
+    public DbOptions flushThreads(int flushThreads) {
+        if (flushThreads <= 0) {
+            throw new IllegalArgumentException("flushThreads must be positive");
+        }
+        this.flushThreads = flushThreads;
+        return this;
+    }
+
+    public int l0CompactionTrigger() {
+        return l0CompactionTrigger;
+    }
+
+    /**
+     * Number of L0 tables that starts a compaction into L1 even if L0 is still within its size budget.
+     */
+    public DbOptions l0CompactionTrigger(int l0CompactionTrigger) {
+        if (l0CompactionTrigger <= 0) {
+            throw new IllegalArgumentException("l0CompactionTrigger must be positive");
+        }
+        this.l0CompactionTrigger = l0CompactionTrigger;
+        return this;
+    }
+
+    public int l0SlowdownWritesTrigger() {
+        return l0SlowdownWritesTrigger;
+    }
+
+    public int l0StopWritesTrigger() {
+        return l0StopWritesTrigger;
+    }
+
+    /**
+     * Writes are delayed once L0 has {@code slowdown} tables and blocked at {@code stop} tables until
+     * compaction catches up.
+     */
+    public DbOptions l0WriteTriggers(int slowdown, int stop) {
+        if (slowdown <= 0 || stop < slowdown) {
+            throw new IllegalArgumentException("Expected 0 < slowdown <= stop");
+        }
+        this.l0SlowdownWritesTrigger = slowdown;
+        this.l0StopWritesTrigger = stop;
+        return this;
+    }
+
+    public long targetFileSize() {
+        return targetFileSize;
+    }
+
+    /**
+     * Size at which compaction output is split into a new table, levels below L0 are made of such tables.
+     */
+    public DbOptions targetFileSize(long targetFileSize) {
+        if (targetFileSize <= 0) {
+            throw new IllegalArgumentException("targetFileSize must be positive");
+        }
+        this.targetFileSize = targetFileSize;
+        return this;
+    }
+
+    public int maxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    /**
+     * Number of key ranges a large compaction is split into, each merged on its own thread.
+     */
+    public DbOptions maxSubcompactions(int maxSubcompactions) {
+        if (maxSubcompactions <= 0) {
+            throw new IllegalArgumentException("maxSubcompactions must be positive");
+        }
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public int levelSizeMultiplier() {
+        return levelSizeMultiplier;
+    }
+
+    /**
+     * Growth of the size budget from one level to the next with {@link CompactionStyle#LEVELED}.
+     */
+    public DbOptions levelSizeMultiplier(int levelSizeMultiplier) {
+        if (levelSizeMultiplier < 2) {
+            throw new IllegalArgumentException("levelSizeMultiplier must be at least 2");
+        }
+        this.levelSizeMultiplier = levelSizeMultiplier;
+        return this;
+    }
+
+    public int tieredSizeRatio() {
+        return tieredSizeRatio;
+    }
+
+    /**
+     * With {@link CompactionStyle#TIERED} a run joins a merge of newer runs if it is at most this many
+     * percent larger than all of them together.
+     */
+    public DbOptions tieredSizeRatio(int tieredSizeRatio) {
+        if (tieredSizeRatio < 0) {
+            throw new IllegalArgumentException("tieredSizeRatio must not be negative");
+        }
+        this.tieredSizeRatio = tieredSizeRatio;
+        return this;
+    }
+
+    public int tieredMaxSizeAmplificationPercent() {
+        return tieredMaxSizeAmplificationPercent;
+    }
+
+    /**
+     * With {@link CompactionStyle#TIERED} all runs are merged into one once the runs above the oldest
+     * one hold more than this many percent of its size.
+     */
+    public DbOptions tieredMaxSizeAmplificationPercent(int tieredMaxSizeAmplificationPercent) {
+        if (tieredMaxSizeAmplificationPercent <= 0) {
+            throw new IllegalArgumentException("tieredMaxSizeAmplificationPercent must be positive");
+        }
+        this.tieredMaxSizeAmplificationPercent = tieredMaxSizeAmplificationPercent;
+        return this;
+    }
+
+    public int valueLogThreshold() {
+        return valueLogThreshold;
+    }
+
+    /**
+     * Values of at least this many bytes are written to value log files when tables are written, the tables
+     * only keep pointers to them. 0, the default, keeps all values in the tables.
+     */
+    public DbOptions valueLogThreshold(int valueLogThreshold) {
+        if (valueLogThreshold < 0) {
+            throw new IllegalArgumentException("valueLogThreshold must not be negative");
+        }
+        this.valueLogThreshold = valueLogThreshold;
+        return this;
+    }
+
+    public int valueLogGcThreshold() {
+        return valueLogGcThreshold;
+    }
+
+    /**
+     * Percentage of a value log file compactions have dropped after which the values still used are copied
+     * out of it, so the file can be deleted.
+     */
+    public DbOptions valueLogGcThreshold(int valueLogGcThreshold) {
+        if (valueLogGcThreshold <= 0 || valueLogGcThreshold > 100) {
+            throw new IllegalArgumentException("valueLogGcThreshold must be in (0, 100]");
+        }
+        this.valueLogGcThreshold = valueLogGcThreshold;
+        return this;
+    }
+
+    public long valueLogFileSize() {
+        return valueLogFileSize;
+    }
+
+    /**
+     * Size after which a table build continues in a new value log file. Files are mapped and addressed with
+     * int offsets, so at most {@link Integer#MAX_VALUE}.
+     */
+    public DbOptions valueLogFileSize(long valueLogFileSize) {
+        if (valueLogFileSize <= 0 || valueLogFileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("valueLogFileSize must be in (0, Integer.MAX_VALUE]");
+        }
+        this.valueLogFileSize = valueLogFileSize;
+        return this;
+    }
+
+    public int multiGetThreads() {
+        return multiGetThreads;
+    }
+
+    /**
+     * Threads that probe the L0 tables and levels of a {@code Db.multiGet} in parallel. 0, the default, probes
+     * them one after another on the calling thread, which skips keys already found in newer ones.
+     */
+    public DbOptions multiGetThreads(int multiGetThreads) {
+        if (multiGetThreads < 0) {
+            throw new IllegalArgumentException("multiGetThreads must not be negative");
+        }
+        this.multiGetThreads = multiGetThreads;
+        return this;
+    }
+
+    public boolean offHeapMemTable() {
+        return offHeapMemTable;
+    }
+
+    /**
+     * Keep memtable rows in off-heap arena chunks linked into a skip list by address instead of as objects in a
+     * {@code ConcurrentSkipListMap}. Fewer objects per row for the garbage collector to copy while flushes are
+     * pending, at the cost of serialized inserts and copying rows out on reads.
+     */
+    public DbOptions offHeapMemTable(boolean offHeapMemTable) {
+        this.offHeapMemTable = offHeapMemTable;
+        return this;
+    }
+
+    public long writeBufferSize() {
+        return writeBufferSize;
+    }
+
+    public long writeBufferBudget() {
+        return writeBufferBudget;
+    }
+
+    /**
+     * The active memtable is frozen and flushed once it holds {@code size} bytes. Writes are delayed once the
+     * active and the frozen memtables get close to {@code budget} bytes together and blocked at {@code budget}
+     * until a flush completes. The level sizes of leveled compaction are multiples of {@code size}.
+     */
+    public DbOptions writeBuffer(long size, long budget) {
+        if (size <= 0 || budget < 2 * size) {
+            throw new IllegalArgumentException("Expected 0 < size and 2 * size <= budget");
+        }
+        this.writeBufferSize = size;
+        this.writeBufferBudget = budget;
+        return this;
+    }
+}
@@ -1,37 +1,46 @@
 package konputer.kvdb;
 
-import konputer.kvdb.dtos.Row;
-import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
 
-import java.util.Iterator;
+import java.lang.ref.Cleaner;
 
 public class DbView implements ReadOnlyKvStore, AutoCloseable {
     private final long snapshotId;
-    private Db db;
+    private final Db db;
+    private final Cleaner.Cleanable release;
 
     public DbView(long snapshotId, Db db) {
         this.snapshotId = snapshotId;
         this.db = db;
+        // a view that is never closed releases its snapshot once it is unreachable, must not capture this
+        this.release = DbCursor.CURSOR_CLEANER.register(this, () -> db.releaseSnapshot(snapshotId));
     }
 
     @Override
-    public ValueHolder get(String key) {
-        Iterator<Row> it = db.getRange(new TaggedKey(key, 0), new TaggedKey(key, snapshotId));
-        if (it.hasNext()) {
-            return it.next().value();
-        }
-        return null;
+    public ValueHolder get(byte[] key) {
+        // the newest version at or before the snapshot, compactions keep it while the snapshot is live
+        ValueHolder value = db.get(key, snapshotId);
+        return value == null || value.isTombstone() ? null : value;
+    }
+
+    /**
+     * @return a cursor over the keys as of this snapshot, see {@link Db#newCursor(byte[], byte[])} for the bounds
+     */
+    public DbCursor newCursor(byte[] lowerBound, byte[] upperBound) {
+        return db.newCursor(snapshotId, false, lowerBound, upperBound);
     }
 
     @Override
-    public boolean containsKey(String key) {
+    public boolean containsKey(byte[] key) {
         return get(key) != null;
     }
 
 
+    /**
+     * Releases the snapshot, compactions may drop the versions only it read from now on.
+     */
     @Override
     public void close() {
-        db = null;
+        release.clean(); // runs at most once
     }
 }
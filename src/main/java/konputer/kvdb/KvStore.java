@@ -1,12 +1,34 @@
 package konputer.kvdb;
 
+import konputer.kvdb.dtos.Keys;
+
+/**
+ * Keys are arbitrary bytes ordered unsigned lexicographically, the string variants store their UTF-8 encoding.
+ */
 public interface KvStore extends ReadOnlyKvStore {
 
-    void set(String key, byte[] value);
+    void set(byte[] key, byte[] value);
+
+
+    boolean cas(byte[] key, byte[] newVal, byte[] expected);
+
+    void remove(byte[] key);
+
+    /**
+     * Applies all operations of {@code batch} at once, a crash either keeps all of them or none.
+     */
+    void write(WriteBatch batch);
 
+    default void set(String key, byte[] value) {
+        set(Keys.of(key), value);
+    }
 
-    boolean cas(String key, byte[] newVal, byte[] expected);
+    default boolean cas(String key, byte[] newVal, byte[] expected) {
+        return cas(Keys.of(key), newVal, expected);
+    }
 
-    void remove(String key);
+    default void remove(String key) {
+        remove(Keys.of(key));
+    }
 
 }
@@ -3,5 +3,25 @@ package konputer.kvdb;
 import konputer.kvdb.dtos.ValueHolder;
 
 public interface Lookup {
-    ValueHolder get(String key) throws Exception;
+    default ValueHolder get(byte[] key) throws Exception {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the newest version of the key written at or before the snapshot, null if there is none
+     */
+    ValueHolder get(byte[] key, long snapshotId) throws Exception;
+
+    /**
+     * Looks up every key whose slot in {@code found} is still empty and fills in what it finds.
+     *
+     * @param keys distinct and sorted by {@link konputer.kvdb.dtos.Keys#COMPARATOR}
+     */
+    default void multiGet(byte[][] keys, ValueHolder[] found) throws Exception {
+        for (int i = 0; i < keys.length; i++) {
+            if (found[i] == null) {
+                found[i] = get(keys[i]);
+            }
+        }
+    }
 }
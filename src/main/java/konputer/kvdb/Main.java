@@ -5,7 +5,7 @@ import konputer.kvdb.dtos.ValueHolder;
 public class Main {
 
     public static void main(String[] args) throws Exception {
-        Db db = new Db();
+        Db db = Db.open(new DbOptions());
         for (int i = 0; i < 1_000_000; i++) {
             db.set("key" + i, ("value" + i).getBytes());
         }
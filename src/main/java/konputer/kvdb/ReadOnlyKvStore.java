@@ -1,9 +1,18 @@
 package konputer.kvdb;
 
+import konputer.kvdb.dtos.Keys;
 import konputer.kvdb.dtos.ValueHolder;
 
 public interface ReadOnlyKvStore {
-    ValueHolder get(String key);
+    ValueHolder get(byte[] key);
 
-    boolean containsKey(String key);
+    boolean containsKey(byte[] key);
+
+    default ValueHolder get(String key) {
+        return get(Keys.of(key));
+    }
+
+    default boolean containsKey(String key) {
+        return containsKey(Keys.of(key));
+    }
 }
@@ -0,0 +1,32 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+
+/**
+ * Positions over the raw rows of one source in {@link TaggedKey} order, all versions and tombstones included.
+ * Moving past either end makes the cursor invalid until the next seek.
+ */
+public interface RowCursor {
+    boolean isValid();
+
+    /**
+     * Moves to the first row {@code >= key}.
+     */
+    void seek(TaggedKey key);
+
+    /**
+     * Moves to the last row {@code <= key}.
+     */
+    void seekForPrev(TaggedKey key);
+
+    void seekToFirst();
+
+    void seekToLast();
+
+    void next();
+
+    void prev();
+
+    Row row();
+}
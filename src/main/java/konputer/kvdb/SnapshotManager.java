@@ -1,17 +1,76 @@
 package konputer.kvdb;
 
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.base.Preconditions.checkState;
+
 public class SnapshotManager {
 
     private AtomicLong snapshotIdCounter = new AtomicLong(0);
+    // open snapshots and how often each id was handed out, compactions keep the versions they read
+    private final TreeMap<Long, Integer> live = new TreeMap<>();
+    // ids of write batches still being inserted, snapshots past them wait until they are whole
+    private final TreeSet<Long> unpublished = new TreeSet<>();
 
     public SnapshotManager(long snapshotIdCounter) {
         this.snapshotIdCounter.set(snapshotIdCounter);
     }
 
-    public long doSnapshot() {
-        return snapshotIdCounter.getAndIncrement();
+    /**
+     * @return the id of a new snapshot, live until {@link #release(long)}
+     */
+    public synchronized long doSnapshot() {
+        long id = snapshotIdCounter.getAndIncrement();
+        boolean interrupted = false;
+        while (!unpublished.isEmpty() && unpublished.first() <= id) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        live.merge(id, 1, Integer::sum);
+        return id;
+    }
+
+    /**
+     * @return an id no other write or snapshot gets, snapshots covering it are only taken after
+     * {@link #publish(long)}
+     */
+    public synchronized long reserveBatchId() {
+        long id = snapshotIdCounter.getAndIncrement();
+        unpublished.add(id);
+        return id;
+    }
+
+    /**
+     * Marks the rows tagged with a {@link #reserveBatchId() reserved} id as all inserted, or the batch as failed.
+     */
+    public synchronized void publish(long batchId) {
+        checkState(unpublished.remove(batchId), "Batch %s is not reserved", batchId);
+        notifyAll();
+    }
+
+    public synchronized void release(long snapshotId) {
+        Integer count = live.get(snapshotId);
+        checkState(count != null, "Snapshot %s is not live", snapshotId);
+        if (count == 1) {
+            live.remove(snapshotId);
+        } else {
+            live.put(snapshotId, count - 1);
+        }
+    }
+
+    /**
+     * @return ids of the live snapshots, ascending
+     */
+    public synchronized long[] liveSnapshots() {
+        return live.keySet().stream().mapToLong(Long::longValue).toArray();
     }
 
     public long currentSnapshotId() {
@@ -0,0 +1,60 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.jspecify.annotations.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and removes applied together by {@link KvStore#write(WriteBatch)}: under one snapshot id, as one
+ * write-ahead log record and into one memtable. Of several operations on the same key the last one wins.
+ */
+public class WriteBatch {
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<ValueHolder> values = new ArrayList<>();
+
+    public WriteBatch put(byte @NonNull [] key, byte @NonNull [] value) {
+        keys.add(key);
+        values.add(new ValueHolder(value));
+        return this;
+    }
+
+    public WriteBatch put(@NonNull String key, byte @NonNull [] value) {
+        return put(Keys.of(key), value);
+    }
+
+    public WriteBatch remove(byte @NonNull [] key) {
+        keys.add(key);
+        values.add(ValueHolder.tombstone());
+        return this;
+    }
+
+    public WriteBatch remove(@NonNull String key) {
+        return remove(Keys.of(key));
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+
+    List<Row> rows(long snapshotId) {
+        List<Row> rows = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            rows.add(new Row(new TaggedKey(keys.get(i), snapshotId), values.get(i)));
+        }
+        return rows;
+    }
+}
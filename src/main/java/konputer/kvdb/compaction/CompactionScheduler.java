@@ -0,0 +1,117 @@
+package konputer.kvdb.compaction;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs compactions on their own thread pool so memtable flushes never wait behind a long merge.
+ * <p>
+ * Queued compactions run lowest {@link CompactionTask#priority()} first, so L0 compactions go ahead of
+ * deeper ones. Compactions touching the same level never run at the same time.
+ */
+public class CompactionScheduler implements AutoCloseable {
+    private final CompactionStrategy strategy;
+    private final WriteController writeController;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+
+    // guarded by this
+    private final Set<Integer> busyLevels = new HashSet<>();
+    private boolean closed = false;
+    private Throwable failure;
+
+    public CompactionScheduler(CompactionStrategy strategy, int threads, WriteController writeController) {
+        this.strategy = strategy;
+        this.writeController = writeController;
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "compaction-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues every compaction the strategy considers necessary, called whenever the layers change.
+     */
+    public synchronized void maybeSchedule() {
+        if (closed || failure != null) {
+            return;
+        }
+        Optional<CompactionTask> task;
+        while ((task = strategy.pickCompaction(busyLevels)).isPresent()) {
+            CompactionTask t = task.get();
+            busyLevels.addAll(t.levels());
+            pool.execute(new QueuedTask(t, sequence.getAndIncrement()));
+        }
+    }
+
+    private void run(CompactionTask task) {
+        try {
+            task.work().run();
+        } catch (Throwable e) {
+            // retrying would most likely fail the same way, stop and let writers see it
+            synchronized (this) {
+                failure = e;
+            }
+            writeController.fail(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                busyLevels.removeAll(task.levels());
+            }
+        }
+        maybeSchedule();
+    }
+
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Drops queued compactions and waits for the running ones to install their result.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        pool.getQueue().clear();
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class QueuedTask implements Runnable, Comparable<QueuedTask> {
+        private final CompactionTask task;
+        private final long seq;
+
+        QueuedTask(CompactionTask task, long seq) {
+            this.task = task;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            CompactionScheduler.this.run(task);
+        }
+
+        @Override
+        public int compareTo(QueuedTask o) {
+            int cmp = Integer.compare(task.priority(), o.task.priority());
+            return cmp != 0 ? cmp : Long.compare(seq, o.seq);
+        }
+    }
+}
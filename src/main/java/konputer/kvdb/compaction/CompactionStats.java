@@ -0,0 +1,18 @@
+package konputer.kvdb.compaction;
+
+/**
+ * Bytes written since the store was opened, to compare how much rewriting compaction strategies cost.
+ *
+ * @param flushedBytes   table bytes written by memtable flushes
+ * @param compactedBytes table bytes written by compactions, trivial moves write nothing
+ * @param sortedRuns     L0 tables plus non-empty deeper levels, the runs a point read may have to check
+ */
+public record CompactionStats(long flushedBytes, long compactedBytes, int sortedRuns) {
+
+    /**
+     * @return bytes written to tables per byte flushed
+     */
+    public double writeAmplification() {
+        return flushedBytes == 0 ? 0 : (double) (flushedBytes + compactedBytes) / flushedBytes;
+    }
+}
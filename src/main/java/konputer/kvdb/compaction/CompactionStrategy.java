@@ -1,5 +1,14 @@
 package konputer.kvdb.compaction;
 
+import java.util.Optional;
+import java.util.Set;
+
 public interface CompactionStrategy {
-    void ensureCompacted();
+
+    /**
+     * Picks the most urgent compaction that touches none of {@code busyLevels}.
+     *
+     * @return empty if nothing is over budget or every candidate overlaps a running compaction
+     */
+    Optional<CompactionTask> pickCompaction(Set<Integer> busyLevels);
 }
@@ -0,0 +1,15 @@
+package konputer.kvdb.compaction;
+
+public enum CompactionStyle {
+    /**
+     * Every level below L0 is one sorted run about ten times the size of the previous one, tables are
+     * merged into the next level as soon as their level is over budget. Low read and space amplification.
+     */
+    LEVELED,
+    /**
+     * Every level below L0 holds one sorted run and runs of similar size are merged together. Data is
+     * rewritten far less often at the cost of more runs to check on reads and more space held by
+     * overwritten versions.
+     */
+    TIERED
+}
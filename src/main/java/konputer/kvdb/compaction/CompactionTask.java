@@ -0,0 +1,13 @@
+package konputer.kvdb.compaction;
+
+import java.util.Set;
+
+/**
+ * A compaction picked by a {@link CompactionStrategy}, its inputs are fixed when it is picked.
+ *
+ * @param priority lower runs first, the output level for leveled compactions
+ * @param levels   levels the compaction reads or writes, no other compaction may touch them meanwhile
+ * @param work     merges the inputs and installs the result
+ */
+public record CompactionTask(int priority, Set<Integer> levels, Runnable work) {
+}
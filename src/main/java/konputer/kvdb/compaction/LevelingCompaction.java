@@ -1,98 +1,108 @@
 package konputer.kvdb.compaction;
 
 import com.google.common.math.LongMath;
-import konputer.kvdb.memory.LayerManager;
-import konputer.kvdb.memory.MemStore;
-import konputer.kvdb.persistent.PersistentStore;
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.dtos.Keys;
 import konputer.kvdb.persistent.*;
-import org.jooq.lambda.Seq;
 
-import java.io.File;
-import java.io.IOException;
-import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-
-import static com.google.common.base.Preconditions.checkState;
+import java.util.Set;
 
 public class LevelingCompaction implements CompactionStrategy {
 
     private final PersistentStore store;
-    private static final int GROW_FACTOR = 10;
-    public static final LayerManager EMPTY_LAYER = new LayerManager();
-
-    public LevelingCompaction(PersistentStore store) {
+    private final int l0CompactionTrigger;
+    private final int levelSizeMultiplier;
+    private final long writeBufferSize;
+    private final SubcompactionMerger merger;
+    // picks are serialized by the scheduler, last key compacted out of each level so tables are picked round robin
+    private final Map<Integer, byte[]> compactPointers = new HashMap<>();
+
+    public LevelingCompaction(PersistentStore store, DbOptions options, SubcompactionMerger merger) {
         this.store = store;
+        this.l0CompactionTrigger = options.l0CompactionTrigger();
+        this.levelSizeMultiplier = options.levelSizeMultiplier();
+        this.writeBufferSize = options.writeBufferSize();
+        this.merger = merger;
     }
 
+    long maxLevelSize(int level) {
+        return writeBufferSize * LongMath.pow(levelSizeMultiplier, level + 1);
+    }
 
     @Override
-    public void ensureCompacted() {
-        List<CompactableLookup> comp = store.getCompactables();
-
-        List<Long> prefixSumMaxSize = Seq.range(1, comp.size() + 1)
-                .map(i -> MemStore.MAX_MEMTABLE_SIZE * LongMath.pow(10, i))
-                .scanLeft(0L, Long::sum).skip(1).toUnmodifiableList();
-
-        List<Long> prefixSumCompSizes = Seq.seq(comp).map(Compactable::getSize).scanLeft(0L, Long::sum)
-                .skip(1).toUnmodifiableList();
-
-        checkState(prefixSumMaxSize.size() == prefixSumCompSizes.size(), "Internal error: prefix sums size mismatch");
-
-        Optional<Integer> compactTo = Optional.empty();
-
-        for (int i = comp.size() - 1; i >= 0; i--) {
-            if (prefixSumCompSizes.get(i) > prefixSumMaxSize.get(i)) {
-                compactTo = Optional.of(i);
-                break;
+    public Optional<CompactionTask> pickCompaction(Set<Integer> busyLevels) {
+        // inputs are fixed here, flushes that land while the merge runs stay in L0. Levels this compaction
+        // claims can't change before it installs, so the version doesn't need to be pinned
+        Version version = store.currentVersion();
+        int levels = version.levelCount();
+        int best = -1;
+        double bestScore = 0;
+        for (int level = 0; level < levels; level++) {
+            if (busyLevels.contains(level) || busyLevels.contains(level + 1)) {
+                continue;
+            }
+            double score = score(version, level);
+            if (score >= 1 && score > bestScore) {
+                best = level;
+                bestScore = score;
             }
         }
-
-        if (compactTo.isEmpty()) {
-            return; // nothing to compact
+        if (best < 0) {
+            return Optional.empty(); // nothing to compact
         }
 
-        doCompaction(compactTo.get(), comp, prefixSumCompSizes);
+        int outputLevel = best + 1;
+        List<SSTableHandle> upper = best == 0 ? version.l0() : List.of(pickTable(version, best));
+        if (upper.isEmpty()) {
+            return Optional.empty();
+        }
+        byte[] from = upper.stream().map(t -> t.firstKey().bytes()).min(Keys.COMPARATOR).orElseThrow();
+        byte[] to = upper.stream().map(t -> t.lastKey().bytes()).max(Keys.COMPARATOR).orElseThrow();
+        List<SSTableHandle> lower = version.level(outputLevel).overlapping(from, to);
+        Set<Integer> claimed = Set.of(best, outputLevel);
+
+        if (best > 0 && lower.isEmpty()) {
+            SSTableHandle moved = upper.get(0);
+            return Optional.of(new CompactionTask(best, claimed, () -> store.installMove(moved, outputLevel)));
+        }
 
+        List<SSTableHandle> inputs = new ArrayList<>(upper);
+        inputs.addAll(lower);
+        boolean bottommost = outputLevel >= levels - 1;
+        return Optional.of(new CompactionTask(best, claimed, () -> doCompaction(outputLevel, inputs, bottommost)));
     }
 
-    private void doCompaction(int compactTo, List<CompactableLookup> comp, List<Long> prefixSumCompSizes) {
-        checkState(compactTo < comp.size(), "Compact to index is out of bounds");
-
-        int tblId = store.nextTblId();
-        try (
-                SSTableContentBuilder builder = new SSTableContentBuilder(new File("tbl_" + tblId + ".sstable"),
-                        new SSTableHeader(tblId, prefixSumCompSizes.get(prefixSumCompSizes.size() - 1)))
-        ) {
-            if (compactTo == comp.size() - 1) {
-                SSTableHandle h = SSTableMerger.merge(comp.subList(0, compactTo + 1), builder);
-                comp.add(h);
-
-            } else {
-                // toElement is exclusive, so we need to add 2 to include the next layer
-                List<CompactableLookup> toCompact = comp.subList(0, compactTo + 2);
-                SSTableHandle h = SSTableMerger.merge(toCompact, builder);
-
-
-                //newly compacted layer is switched
-                comp.set(compactTo + 1, h);
-            }
-            VarHandle.fullFence();
-
-            comp.get(0).supersededNotification();
+    private double score(Version version, int level) {
+        if (level == 0) {
+            return Math.max((double) version.l0().size() / l0CompactionTrigger, (double) version.l0Size() / maxLevelSize(0));
+        }
+        return (double) version.level(level).getSize() / maxLevelSize(level);
+    }
 
-            // remove leveled layers that were compacted
-            // layer 0 must not be removed
-            synchronized (store) {
-                for (int i = 1; i <= compactTo; i++) {
-                    comp.get(i).supersededNotification();
-                    comp.set(i, EMPTY_LAYER);
+    private SSTableHandle pickTable(Version version, int level) {
+        List<SSTableHandle> tables = version.level(level).getTables();
+        byte[] pointer = compactPointers.get(level);
+        SSTableHandle picked = tables.get(0);
+        if (pointer != null) {
+            for (SSTableHandle t : tables) {
+                if (Keys.compare(t.firstKey().bytes(), pointer) > 0) {
+                    picked = t;
+                    break;
                 }
             }
-
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        compactPointers.put(level, picked.lastKey().bytes());
+        return picked;
+    }
+
+    private void doCompaction(int outputLevel, List<SSTableHandle> inputs, boolean bottommost) {
+        List<SSTableHandle> outputs = merger.merge(outputLevel, inputs, bottommost);
+        // the merged tables replace the inputs in one manifest edit
+        store.installCompaction(outputs, outputLevel, inputs);
     }
 }
@@ -0,0 +1,104 @@
+package konputer.kvdb.compaction;
+
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.persistent.PersistentStore;
+import konputer.kvdb.persistent.SSTableContentBuilder;
+import konputer.kvdb.persistent.SSTableHandle;
+import konputer.kvdb.persistent.SSTableIndex;
+import konputer.kvdb.persistent.SSTableMerger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the inputs of a compaction into tables of about {@code targetFileSize}, splitting large
+ * compactions into key ranges that are merged in parallel. Shared by all compaction strategies.
+ */
+public class SubcompactionMerger {
+    // fence keys sampled from the inputs to place subcompaction boundaries
+    private static final int BOUNDARY_SAMPLES = 256;
+
+    private final PersistentStore store;
+    private final long targetFileSize;
+    private final int maxSubcompactions;
+    private final ExecutorService executor;
+
+    public SubcompactionMerger(PersistentStore store, DbOptions options, ExecutorService executor) {
+        this.store = store;
+        this.targetFileSize = options.targetFileSize();
+        this.maxSubcompactions = options.maxSubcompactions();
+        this.executor = executor;
+    }
+
+    /**
+     * @param inputs newest first
+     * @return the merged tables, not yet installed
+     */
+    public List<SSTableHandle> merge(int outputLevel, List<SSTableHandle> inputs, boolean bottommost) {
+        List<byte[]> bounds = subcompactionBounds(inputs);
+        // taken once, a snapshot opened later reads the newest versions, which are kept anyway
+        long[] snapshots = store.liveSnapshots();
+        List<Future<List<SSTableHandle>>> parts = new ArrayList<>();
+        for (int i = 0; i <= bounds.size(); i++) {
+            byte[] from = i == 0 ? null : bounds.get(i - 1);
+            byte[] to = i == bounds.size() ? null : bounds.get(i);
+            parts.add(executor.submit(() -> SSTableMerger.merge(inputs, from, to, () -> {
+                int tblId = store.nextTblId();
+                return new SSTableContentBuilder(store.tableFile(tblId), tblId,
+                        store.tableOptions(outputLevel, bottommost));
+            }, targetFileSize, store.getValueLog(), snapshots, bottommost)));
+        }
+
+        List<SSTableHandle> outputs = new ArrayList<>();
+        Throwable failure = null;
+        for (Future<List<SSTableHandle>> part : parts) {
+            try {
+                outputs.addAll(part.get());
+            } catch (ExecutionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            outputs.forEach(SSTableHandle::supersededNotification);
+            throw new RuntimeException("Compaction into level " + outputLevel + " failed", failure);
+        }
+        return outputs;
+    }
+
+    /**
+     * Splits a compaction into key ranges of similar size at fence keys sampled from its inputs.
+     */
+    private List<byte[]> subcompactionBounds(List<SSTableHandle> inputs) {
+        long size = inputs.stream().mapToLong(SSTableHandle::getSize).sum();
+        int parts = (int) Math.min(maxSubcompactions, size / targetFileSize);
+        if (parts <= 1) {
+            return List.of();
+        }
+        TreeSet<byte[]> sampled = new TreeSet<>(Keys.COMPARATOR);
+        for (SSTableHandle t : inputs) {
+            SSTableIndex index = t.getIndex();
+            int stride = Math.max(1, index.blockCount() * inputs.size() / BOUNDARY_SAMPLES);
+            for (int b = 0; b < index.blockCount(); b += stride) {
+                sampled.add(index.fenceKey(b).bytes());
+            }
+        }
+        List<byte[]> samples = new ArrayList<>(sampled);
+        if (samples.size() < 2) {
+            return List.of();
+        }
+        TreeSet<byte[]> bounds = new TreeSet<>(Keys.COMPARATOR);
+        for (int i = 1; i < parts; i++) {
+            // the first sample is the smallest key, a bound there would leave an empty range
+            bounds.add(samples.get(Math.max(1, i * samples.size() / parts)));
+        }
+        return new ArrayList<>(bounds);
+    }
+}
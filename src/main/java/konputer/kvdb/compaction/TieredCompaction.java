@@ -0,0 +1,171 @@
+package konputer.kvdb.compaction;
+
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.persistent.PersistentStore;
+import konputer.kvdb.persistent.SSTableHandle;
+import konputer.kvdb.persistent.SortedRun;
+import konputer.kvdb.persistent.Version;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Size-tiered compaction, every level below L0 holds one sorted run and lower levels hold newer data.
+ * <p>
+ * Once there are {@code l0CompactionTrigger} runs, counting every L0 table as a run of its own, runs are
+ * merged by the first rule that applies:
+ * <ol>
+ *     <li>all runs, if the newer ones hold more than {@code tieredMaxSizeAmplificationPercent} of the oldest</li>
+ *     <li>consecutive runs of similar size, each at most {@code tieredSizeRatio} percent larger than the
+ *     newer ones before it together</li>
+ *     <li>the newest runs, until the run count drops below the trigger</li>
+ * </ol>
+ * A merge always includes all of L0 or none of it, its output replaces the oldest run it read. Output of L0
+ * alone goes to the empty level right above the newest level, the levels are pushed one down if there is none.
+ */
+public class TieredCompaction implements CompactionStrategy {
+    private static final int MIN_MERGE_WIDTH = 2;
+
+    private final PersistentStore store;
+    private final int trigger;
+    private final int sizeRatio;
+    private final int maxSizeAmplificationPercent;
+    private final SubcompactionMerger merger;
+
+    public TieredCompaction(PersistentStore store, DbOptions options, SubcompactionMerger merger) {
+        this.store = store;
+        this.trigger = options.l0CompactionTrigger();
+        this.sizeRatio = options.tieredSizeRatio();
+        this.maxSizeAmplificationPercent = options.tieredMaxSizeAmplificationPercent();
+        this.merger = merger;
+    }
+
+    /**
+     * @param level  0 for all of L0
+     * @param tables newest first
+     * @param width  number of sorted runs, the table count for L0
+     */
+    private record Run(int level, List<SSTableHandle> tables, long size, int width) {
+    }
+
+    @Override
+    public Optional<CompactionTask> pickCompaction(Set<Integer> busyLevels) {
+        // levels a compaction claims can't change before it installs, no need to pin the version
+        Version version = store.currentVersion();
+        List<Run> runs = sortedRuns(version);
+        int width = runs.stream().mapToInt(Run::width).sum();
+        if (width < trigger) {
+            return Optional.empty();
+        }
+        return pickSizeAmplification(version, runs, busyLevels)
+                .or(() -> pickSimilarSize(version, runs, busyLevels))
+                .or(() -> pickRunCount(version, runs, width, busyLevels));
+    }
+
+    // newest first
+    private List<Run> sortedRuns(Version version) {
+        List<Run> runs = new ArrayList<>();
+        List<SSTableHandle> l0 = version.l0();
+        if (!l0.isEmpty()) {
+            runs.add(new Run(0, l0, version.l0Size(), l0.size()));
+        }
+        for (int level = 1; level < version.levelCount(); level++) {
+            SortedRun run = version.level(level);
+            if (!run.getTables().isEmpty()) {
+                runs.add(new Run(level, run.getTables(), run.getSize(), 1));
+            }
+        }
+        return runs;
+    }
+
+    private Optional<CompactionTask> pickSizeAmplification(Version version, List<Run> runs, Set<Integer> busyLevels) {
+        Run oldest = runs.get(runs.size() - 1);
+        if (runs.size() < 2 || oldest.level() == 0) {
+            return Optional.empty();
+        }
+        long newer = runs.stream().mapToLong(Run::size).sum() - oldest.size();
+        if (newer * 100 <= oldest.size() * maxSizeAmplificationPercent) {
+            return Optional.empty();
+        }
+        return compaction(version, runs, runs, busyLevels);
+    }
+
+    private Optional<CompactionTask> pickSimilarSize(Version version, List<Run> runs, Set<Integer> busyLevels) {
+        for (int start = 0; start < runs.size(); start++) {
+            long accumulated = runs.get(start).size();
+            int width = runs.get(start).width();
+            int end = start + 1;
+            for (; end < runs.size(); end++) {
+                if (runs.get(end).size() * 100 > accumulated * (100 + sizeRatio)) {
+                    break;
+                }
+                accumulated += runs.get(end).size();
+                width += runs.get(end).width();
+            }
+            if (width >= MIN_MERGE_WIDTH) {
+                Optional<CompactionTask> task = compaction(version, runs, runs.subList(start, end), busyLevels);
+                if (task.isPresent()) {
+                    return task;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<CompactionTask> pickRunCount(Version version, List<Run> runs, int width, Set<Integer> busyLevels) {
+        int merged = 0;
+        for (int end = 0; end < runs.size(); end++) {
+            merged += runs.get(end).width();
+            if (merged >= MIN_MERGE_WIDTH && merged > width - trigger) {
+                return compaction(version, runs, runs.subList(0, end + 1), busyLevels);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param picked consecutive runs of {@code runs}
+     * @return empty if a level the merge reads or writes is busy
+     */
+    private Optional<CompactionTask> compaction(Version version, List<Run> runs, List<Run> picked, Set<Integer> busyLevels) {
+        Run first = picked.get(0);
+        Run last = picked.get(picked.size() - 1);
+        int next = runs.indexOf(last) + 1;
+        int outputLevel = last.level();
+        int pushDownTo = 0;
+        if (outputLevel == 0) {
+            // newer than every level, so it has to end up above all of them
+            int nextLevel = next < runs.size() ? runs.get(next).level() : 2;
+            if (nextLevel > 1) {
+                outputLevel = nextLevel - 1;
+            } else {
+                outputLevel = 1;
+                pushDownTo = 2;
+                while (!version.level(pushDownTo).getTables().isEmpty()) {
+                    pushDownTo++;
+                }
+            }
+        }
+        Set<Integer> claimed = IntStream.rangeClosed(first.level(), Math.max(outputLevel, pushDownTo)).boxed()
+                .collect(Collectors.toSet());
+        if (claimed.stream().anyMatch(busyLevels::contains)) {
+            return Optional.empty();
+        }
+
+        List<SSTableHandle> inputs = picked.stream().flatMap(r -> r.tables().stream()).toList();
+        int output = outputLevel;
+        int pushDown = pushDownTo;
+        boolean bottommost = next == runs.size() && pushDown == 0;
+        return Optional.of(new CompactionTask(first.level(), claimed, () -> {
+            List<SSTableHandle> outputs = merger.merge(output, inputs, bottommost);
+            if (pushDown > 0) {
+                store.pushDownLevels(1, pushDown);
+            }
+            store.installCompaction(outputs, output, inputs);
+        }));
+    }
+}
@@ -0,0 +1,57 @@
+package konputer.kvdb.compaction;
+
+import konputer.kvdb.persistent.PersistentStore;
+import konputer.kvdb.persistent.SSTableHandle;
+import konputer.kvdb.persistent.Version;
+import konputer.kvdb.vlog.ValueLog;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Runs the compactions of another strategy first. Once it has nothing to do, rewrites tables below L0 in
+ * place that point into value log files in need of collection, which moves their values out of those files.
+ * Tables in L0 are left to the next compaction of L0.
+ */
+public class ValueLogCollection implements CompactionStrategy {
+
+    private final CompactionStrategy strategy;
+    private final PersistentStore store;
+    private final SubcompactionMerger merger;
+
+    public ValueLogCollection(CompactionStrategy strategy, PersistentStore store, SubcompactionMerger merger) {
+        this.strategy = strategy;
+        this.store = store;
+        this.merger = merger;
+    }
+
+    @Override
+    public Optional<CompactionTask> pickCompaction(Set<Integer> busyLevels) {
+        return strategy.pickCompaction(busyLevels).or(() -> pickCollection(busyLevels));
+    }
+
+    private Optional<CompactionTask> pickCollection(Set<Integer> busyLevels) {
+        // the level is claimed until the rewrite installs, so the table can't go away meanwhile
+        Version version = store.currentVersion();
+        ValueLog valueLog = store.getValueLog();
+        for (int level = 1; level < version.levelCount(); level++) {
+            if (busyLevels.contains(level)) {
+                continue;
+            }
+            for (SSTableHandle t : version.level(level).getTables()) {
+                for (int fileId : t.valueLogFiles()) {
+                    if (valueLog.needsCollection(fileId)) {
+                        int outputLevel = level;
+                        boolean bottommost = level == version.levelCount() - 1;
+                        return Optional.of(new CompactionTask(Integer.MAX_VALUE, Set.of(level), () -> {
+                            List<SSTableHandle> outputs = merger.merge(outputLevel, List.of(t), bottommost);
+                            store.installCompaction(outputs, outputLevel, List.of(t));
+                        }));
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,116 @@
+package konputer.kvdb.compaction;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds writers back while compaction falls behind, based on the number of L0 tables.
+ * <p>
+ * Between the slowdown and the stop trigger every write is delayed, growing towards {@link #MAX_DELAY_NANOS}
+ * close to the stop trigger. At the stop trigger writers block until a compaction brings L0 below it.
+ */
+public class WriteController implements AutoCloseable {
+    static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int slowdownTrigger;
+    private final int stopTrigger;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition belowStop = lock.newCondition();
+    private volatile int l0Tables = 0;
+    private volatile Throwable backgroundError;
+    private volatile boolean closed = false;
+
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder stalledWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    public WriteController(int slowdownTrigger, int stopTrigger) {
+        this.slowdownTrigger = slowdownTrigger;
+        this.stopTrigger = stopTrigger;
+    }
+
+    public void l0TablesChanged(int tables) {
+        l0Tables = tables;
+        if (tables < stopTrigger) {
+            signalAll();
+        }
+    }
+
+    /**
+     * Compactions stopped after a failure, L0 will only grow from now on so writes are refused.
+     */
+    public void fail(Throwable error) {
+        backgroundError = error;
+        signalAll();
+    }
+
+    private void signalAll() {
+        lock.lock();
+        try {
+            belowStop.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by every writer before it touches the memtable.
+     */
+    public void throttle() {
+        checkError();
+        int tables = l0Tables;
+        if (tables < slowdownTrigger) {
+            return;
+        }
+        if (tables < stopTrigger) {
+            delayedWrites.increment();
+            long start = System.nanoTime();
+            LockSupport.parkNanos(MAX_DELAY_NANOS * (tables - slowdownTrigger + 1) / (stopTrigger - slowdownTrigger + 1));
+            stallNanos.add(System.nanoTime() - start);
+            return;
+        }
+        stalledWrites.increment();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            while (l0Tables >= stopTrigger && backgroundError == null && !closed) {
+                belowStop.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+            stallNanos.add(System.nanoTime() - start);
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        Throwable error = backgroundError;
+        if (error != null) {
+            throw new IllegalStateException("Background compaction failed, writes are disabled", error);
+        }
+    }
+
+    public long delayedWrites() {
+        return delayedWrites.sum();
+    }
+
+    public long stalledWrites() {
+        return stalledWrites.sum();
+    }
+
+    /**
+     * @return time writers spent delayed or blocked here
+     */
+    public long stallNanos() {
+        return stallNanos.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        signalAll();
+    }
+}
@@ -0,0 +1,98 @@
+package konputer.kvdb.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block codecs, the id is stored in the block framing so it must never change for an existing codec.
+ */
+public enum Compression {
+    NONE((byte) 0),
+    // fast pure java LZ77, meant for the upper levels that get rewritten often
+    LZ((byte) 1),
+    // best ratio, meant for the bottom level
+    DEFLATE((byte) 2);
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final byte id;
+
+    Compression(byte id) {
+        this.id = id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    public static Compression fromId(byte id) {
+        for (Compression c : values()) {
+            if (c.id == id) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression id: " + id);
+    }
+
+    public byte[] compress(byte[] src, int length) {
+        return switch (this) {
+            case NONE -> Arrays.copyOf(src, length);
+            case LZ -> LzCompressor.compress(src, length);
+            case DEFLATE -> deflate(src, length);
+        };
+    }
+
+    /**
+     * @param src stored bytes from position to limit, the position is left untouched
+     */
+    public ByteBuffer decompress(ByteBuffer src, int rawLength) {
+        return switch (this) {
+            case NONE -> src.slice();
+            case LZ -> ByteBuffer.wrap(LzCompressor.decompress(src, rawLength));
+            case DEFLATE -> inflate(src, rawLength);
+        };
+    }
+
+    private static byte[] deflate(byte[] src, int length) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(src, 0, length);
+        deflater.finish();
+        byte[] out = new byte[length + (length >> 3) + 64];
+        int written = 0;
+        while (!deflater.finished()) {
+            if (written == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            written += deflater.deflate(out, written, out.length - written);
+        }
+        return Arrays.copyOf(out, written);
+    }
+
+    private static ByteBuffer inflate(ByteBuffer src, int rawLength) {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(src.slice());
+        byte[] out = new byte[rawLength];
+        try {
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(out, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new IllegalStateException("Corrupted block, expected " + rawLength + " bytes but got " + read);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted block", e);
+        }
+        return ByteBuffer.wrap(out);
+    }
+}
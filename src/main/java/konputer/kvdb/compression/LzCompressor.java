@@ -0,0 +1,132 @@
+package konputer.kvdb.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Minimal LZ4 style block compressor.
+ * <p>
+ * A sequence is {@code [token][literal length ext][literals][2 byte offset][match length ext]}, the high
+ * nibble of the token is the literal length and the low nibble the match length minus {@link #MIN_MATCH}.
+ * A nibble of 15 is followed by extension bytes of 255 terminated by a byte below 255. The last sequence
+ * carries only literals, the decoder stops once it produced the raw length.
+ */
+final class LzCompressor {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private LzCompressor() {
+    }
+
+    static byte[] compress(byte[] src, int length) {
+        byte[] out = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int o = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= length) {
+            int seq = readInt(src, i);
+            int h = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < length && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+
+            int literals = i - anchor;
+            int tokenPos = o++;
+            out[tokenPos] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength - MIN_MATCH, 15));
+            o = writeLength(out, o, literals);
+            System.arraycopy(src, anchor, out, o, literals);
+            o += literals;
+            int offset = i - ref;
+            out[o++] = (byte) offset;
+            out[o++] = (byte) (offset >>> 8);
+            o = writeLength(out, o, matchLength - MIN_MATCH);
+
+            i += matchLength;
+            anchor = i;
+        }
+
+        int literals = length - anchor;
+        if (literals > 0) {
+            out[o++] = (byte) (Math.min(literals, 15) << 4);
+            o = writeLength(out, o, literals);
+            System.arraycopy(src, anchor, out, o, literals);
+            o += literals;
+        }
+        return Arrays.copyOf(out, o);
+    }
+
+    static byte[] decompress(ByteBuffer src, int rawLength) {
+        byte[] out = new byte[rawLength];
+        int p = src.position();
+        int o = 0;
+        while (o < rawLength) {
+            int token = src.get(p++) & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src.get(p++) & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            src.get(p, out, o, literals);
+            p += literals;
+            o += literals;
+            if (o >= rawLength) {
+                break;
+            }
+
+            int offset = (src.get(p) & 0xFF) | ((src.get(p + 1) & 0xFF) << 8);
+            p += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src.get(p++) & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int from = o - offset;
+            if (from < 0 || o + matchLength > rawLength) {
+                throw new IllegalStateException("Corrupted LZ block");
+            }
+            // byte by byte, the match may overlap with the bytes it produces
+            for (int k = 0; k < matchLength; k++) {
+                out[o++] = out[from + k];
+            }
+        }
+        return out;
+    }
+
+    private static int writeLength(byte[] out, int o, int length) {
+        if (length < 15) {
+            return o;
+        }
+        int rest = length - 15;
+        while (rest >= 255) {
+            out[o++] = (byte) 255;
+            rest -= 255;
+        }
+        out[o++] = (byte) rest;
+        return o;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
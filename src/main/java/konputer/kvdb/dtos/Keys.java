@@ -0,0 +1,59 @@
+package konputer.kvdb.dtos;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keys are plain byte arrays ordered unsigned lexicographically, for UTF-8 encoded strings that is code
+ * point order.
+ */
+public final class Keys {
+    public static final Comparator<byte[]> COMPARATOR = Keys::compare;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private Keys() {
+    }
+
+    public static byte[] of(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    /**
+     * Compares {@code length} bytes at {@code offset} of {@code buf} with {@code key} without copying them out
+     * or allocating.
+     */
+    public static int compare(ByteBuffer buf, int offset, int length, byte[] key) {
+        if (buf.hasArray()) {
+            int from = buf.arrayOffset() + offset;
+            return Arrays.compareUnsigned(buf.array(), from, from + length, key, 0, key.length);
+        }
+        int common = Math.min(length, key.length);
+        int i = 0;
+        if (buf.order() == ByteOrder.BIG_ENDIAN) {
+            // eight bytes at a time, big endian longs compare like their bytes
+            for (; i + Long.BYTES <= common; i += Long.BYTES) {
+                long a = buf.getLong(offset + i);
+                long b = (long) LONGS.get(key, i);
+                if (a != b) {
+                    return Long.compareUnsigned(a, b);
+                }
+            }
+        }
+        for (; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buf.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+}
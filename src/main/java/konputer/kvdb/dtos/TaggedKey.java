@@ -4,19 +4,32 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * @param bytes user key, compared unsigned lexicographically by {@link Keys}
+ */
 public record TaggedKey(
-        String key,
+        byte[] bytes,
         long snapshotId
 ) implements Comparable<TaggedKey> {
 
+    public TaggedKey(String key, long snapshotId) {
+        this(Keys.of(key), snapshotId);
+    }
+
+    /**
+     * @return the user key decoded as UTF-8, allocates a new string on every call
+     */
+    public String key() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 
     public long serialize(DataOutputStream os) throws IOException {
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-        os.writeInt(keyBytes.length);
-        os.write(keyBytes);
+        os.writeInt(bytes.length);
+        os.write(bytes);
         os.writeLong(snapshotId);
-        return keyBytes.length + Long.BYTES + Integer.BYTES; // +4 for the length of the key
+        return bytes.length + Long.BYTES + Integer.BYTES; // +4 for the length of the key
     }
 
     public static TaggedKey deserialize(ByteBuffer buf) {
@@ -24,16 +37,47 @@ public record TaggedKey(
         byte[] keyBytes = new byte[keyLength];
         buf.get(keyBytes);
         long snapshotId = buf.getLong();
-        return new TaggedKey(new String(keyBytes, StandardCharsets.UTF_8), snapshotId);
+        return new TaggedKey(keyBytes, snapshotId);
+    }
+
+    /**
+     * Compares the serialized key at {@code pos} of {@code buf} with {@code key} in place.
+     */
+    public static int compareSerialized(ByteBuffer buf, int pos, TaggedKey key) {
+        int keyLength = buf.getInt(pos);
+        int cmp = Keys.compare(buf, pos + Integer.BYTES, keyLength, key.bytes);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Long.compare(buf.getLong(pos + Integer.BYTES + keyLength), key.snapshotId);
+    }
+
+    public boolean hasKey(byte[] key) {
+        return Arrays.equals(bytes, key);
     }
 
     @Override
     public int compareTo(TaggedKey o) {
-        int keyComparison = this.key.compareTo(o.key);
+        int keyComparison = Keys.compare(this.bytes, o.bytes);
         if (keyComparison != 0) {
             return keyComparison;
         }
         // snapshotId comparison so newer entries come first
         return Long.compare(this.snapshotId, o.snapshotId);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TaggedKey other && snapshotId == other.snapshotId && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(bytes) + Long.hashCode(snapshotId);
+    }
+
+    @Override
+    public String toString() {
+        return "TaggedKey[key=" + key() + ", snapshotId=" + snapshotId + "]";
+    }
 }
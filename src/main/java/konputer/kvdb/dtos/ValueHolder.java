@@ -4,8 +4,11 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+/**
+ * @param pointer where the value lies if it was separated into the value log, {@code value} is null then
+ */
 public record ValueHolder(
-        byte[] value, boolean deleted
+        byte[] value, boolean deleted, ValuePointer pointer
 ) {
     private static final ValueHolder DELETED = new ValueHolder(null, true);
 
@@ -13,11 +16,23 @@ public record ValueHolder(
         this(value, false);
     }
 
+    public ValueHolder(byte[] value, boolean deleted) {
+        this(value, deleted, null);
+    }
+
     public static ValueHolder tombstone() {
         return DELETED;
     }
 
+    public static ValueHolder ofPointer(ValuePointer pointer) {
+        return new ValueHolder(null, false, pointer);
+    }
+
+    // only for the write-ahead log, values are separated when tables are written
     public long serialize(DataOutputStream os) throws IOException {
+        if (pointer != null) {
+            throw new IllegalStateException("Value log pointers are not written to the log");
+        }
         if (value == null) {
             os.writeInt(-1); // indicates a tombstone
             return Integer.BYTES;
@@ -44,13 +59,21 @@ public record ValueHolder(
         return deleted;
     }
 
+    public boolean isPointer() {
+        return pointer != null;
+    }
+
     public int length() {
+        if (pointer != null) {
+            return ValuePointer.ENCODED_SIZE;
+        }
         return (value == null ? 0 : value.length) + Integer.BYTES; // +4 for the length of the value
     }
 
     @Override
     public boolean equals(Object o) {
         return o instanceof ValueHolder &&
-                java.util.Arrays.equals(value, ((ValueHolder) o).value);
+                java.util.Arrays.equals(value, ((ValueHolder) o).value) &&
+                java.util.Objects.equals(pointer, ((ValueHolder) o).pointer);
     }
 }
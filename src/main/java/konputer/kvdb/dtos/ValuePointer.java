@@ -0,0 +1,13 @@
+package konputer.kvdb.dtos;
+
+/**
+ * Location of a value that was written to a value log file instead of its table.
+ *
+ * @param fileId id of the value log file
+ * @param offset position of the value bytes in the file
+ * @param length length of the value
+ */
+public record ValuePointer(int fileId, long offset, int length) {
+    // upper bound of the varint encoding in blocks, charged for cached rows
+    public static final int ENCODED_SIZE = 2 * 5 + 10;
+}
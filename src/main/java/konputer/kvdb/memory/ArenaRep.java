@@ -0,0 +1,276 @@
+package konputer.kvdb.memory;
+
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Rows kept off the heap in direct buffer chunks and linked into a skip list by their addresses, so a table
+ * costs the garbage collector a few chunk objects instead of several objects per row.
+ * <p>
+ * Puts are serialized on the arena, reads follow the links without locking: a node is written completely
+ * before the release store that links it in. A put of an existing key links a new value record into the
+ * node, the old record stays in the arena until the table is dropped. Layout, all 8 byte aligned:
+ * <pre>
+ * node   [long snapshotId][long value address][int keyLength][int height][height x long next address][key]
+ * value  [int length, -1 for a tombstone][value]
+ * </pre>
+ * Addresses are {@code chunk index << 32 | offset}. The head node is at address 0, which also ends a list.
+ * Sizes count the arena bytes rows take up, padding and the old value records of replaced keys included.
+ */
+final class ArenaRep implements MemTableRep {
+    static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_HEIGHT = 12;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SNAPSHOT_ID = 0;
+    private static final int VALUE = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int HEIGHT = 20;
+    private static final int NEXT = 24;
+    private static final int TOMBSTONE = -1;
+    private static final long HEAD = 0;
+
+    // replaced as a whole when a chunk is added, readers see a chunk before any address pointing into it
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkUsed = 0; // guarded by this
+    private final long[] prev = new long[MAX_HEIGHT]; // guarded by this
+
+    ArenaRep() {
+        long head = allocate(NEXT + MAX_HEIGHT * Long.BYTES);
+        chunk(head).putInt(offset(head) + HEIGHT, MAX_HEIGHT);
+    }
+
+    private static int align(int size) {
+        return (size + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    // must be called with the lock held, chunks are zeroed so fresh next addresses are 0
+    private long allocate(int size) {
+        size = align(size);
+        ByteBuffer[] current = chunks;
+        if (current.length == 0 || chunkUsed + size > current[current.length - 1].capacity()) {
+            ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, size)).order(ByteOrder.nativeOrder());
+            chunks = grown;
+            chunkUsed = 0;
+            current = grown;
+        }
+        long address = (long) (current.length - 1) << 32 | chunkUsed;
+        chunkUsed += size;
+        return address;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private long next(long node, int level) {
+        return (long) LONGS.getAcquire(chunk(node), offset(node) + NEXT + level * Long.BYTES);
+    }
+
+    private void setNext(long node, int level, long next) {
+        LONGS.setRelease(chunk(node), offset(node) + NEXT + level * Long.BYTES, next);
+    }
+
+    private int compare(long node, TaggedKey key) {
+        ByteBuffer c = chunk(node);
+        int o = offset(node);
+        int height = c.getInt(o + HEIGHT);
+        int cmp = Keys.compare(c, o + NEXT + height * Long.BYTES, c.getInt(o + KEY_LENGTH), key.bytes());
+        return cmp != 0 ? cmp : Long.compare(c.getLong(o + SNAPSHOT_ID), key.snapshotId());
+    }
+
+    private long writeValue(ValueHolder value) {
+        byte[] v = value.value();
+        long address = allocate(Integer.BYTES + (v == null ? 0 : v.length));
+        ByteBuffer c = chunk(address);
+        c.putInt(offset(address), v == null ? TOMBSTONE : v.length);
+        if (v != null) {
+            c.put(offset(address) + Integer.BYTES, v);
+        }
+        return address;
+    }
+
+    @Override
+    public synchronized long put(TaggedKey key, ValueHolder value) {
+        long before = usedBytes();
+        long found = findGreaterOrEqual(key, prev);
+        if (found != HEAD && compare(found, key) == 0) {
+            LONGS.setRelease(chunk(found), offset(found) + VALUE, writeValue(value));
+            return usedBytes() - before;
+        }
+        int height = randomHeight();
+        byte[] bytes = key.bytes();
+        long node = allocate(NEXT + height * Long.BYTES + bytes.length);
+        ByteBuffer c = chunk(node);
+        int o = offset(node);
+        c.putLong(o + SNAPSHOT_ID, key.snapshotId());
+        c.putLong(o + VALUE, writeValue(value));
+        c.putInt(o + KEY_LENGTH, bytes.length);
+        c.putInt(o + HEIGHT, height);
+        c.put(o + NEXT + height * Long.BYTES, bytes);
+        for (int level = 0; level < height; level++) {
+            // the node's own links first, the release store on the predecessor publishes it
+            c.putLong(o + NEXT + level * Long.BYTES, next(prev[level], level));
+            setNext(prev[level], level, node);
+        }
+        return usedBytes() - before;
+    }
+
+    // full chunks count with their capacity, the space left at their end is lost
+    private long usedBytes() {
+        ByteBuffer[] current = chunks;
+        long used = chunkUsed;
+        for (int i = 0; i < current.length - 1; i++) {
+            used += current[i].capacity();
+        }
+        return used;
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        // each level holds a quarter of the nodes of the one below
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * @param prev if not null, filled with the last node before {@code key} on each level
+     * @return the first node {@code >= key}, {@link #HEAD} if there is none
+     */
+    private long findGreaterOrEqual(TaggedKey key, long[] prev) {
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; ; ) {
+            long next = next(node, level);
+            if (next != HEAD && compare(next, key) < 0) {
+                node = next;
+                continue;
+            }
+            if (prev != null) {
+                prev[level] = node;
+            }
+            if (level == 0) {
+                return next;
+            }
+            level--;
+        }
+    }
+
+    // the last node < key, HEAD if there is none
+    private long findLessThan(TaggedKey key) {
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; ; ) {
+            long next = next(node, level);
+            if (next != HEAD && compare(next, key) < 0) {
+                node = next;
+            } else if (level == 0) {
+                return node;
+            } else {
+                level--;
+            }
+        }
+    }
+
+    private Row row(long node) {
+        if (node == HEAD) {
+            return null;
+        }
+        ByteBuffer c = chunk(node);
+        int o = offset(node);
+        byte[] key = new byte[c.getInt(o + KEY_LENGTH)];
+        c.get(o + NEXT + c.getInt(o + HEIGHT) * Long.BYTES, key);
+        long value = (long) LONGS.getAcquire(c, o + VALUE);
+        ByteBuffer vc = chunk(value);
+        int length = vc.getInt(offset(value));
+        ValueHolder holder;
+        if (length == TOMBSTONE) {
+            holder = ValueHolder.tombstone();
+        } else {
+            byte[] bytes = new byte[length];
+            vc.get(offset(value) + Integer.BYTES, bytes);
+            holder = new ValueHolder(bytes);
+        }
+        return new Row(new TaggedKey(key, c.getLong(o + SNAPSHOT_ID)), holder);
+    }
+
+    @Override
+    public Row floor(TaggedKey key) {
+        long ge = findGreaterOrEqual(key, null);
+        return row(ge != HEAD && compare(ge, key) == 0 ? ge : findLessThan(key));
+    }
+
+    @Override
+    public Row ceiling(TaggedKey key) {
+        return row(findGreaterOrEqual(key, null));
+    }
+
+    @Override
+    public Row higher(TaggedKey key) {
+        long ge = findGreaterOrEqual(key, null);
+        return row(ge != HEAD && compare(ge, key) == 0 ? next(ge, 0) : ge);
+    }
+
+    @Override
+    public Row lower(TaggedKey key) {
+        return row(findLessThan(key));
+    }
+
+    @Override
+    public Row first() {
+        return row(next(HEAD, 0));
+    }
+
+    @Override
+    public Row last() {
+        long node = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; ) {
+            long next = next(node, level);
+            if (next != HEAD) {
+                node = next;
+            } else {
+                level--;
+            }
+        }
+        return row(node);
+    }
+
+    @Override
+    public Iterator<Row> iterator(TaggedKey from, TaggedKey to) {
+        long start = from == null ? next(HEAD, 0) : findGreaterOrEqual(from, null);
+        return new Iterator<>() {
+            private long node = start;
+
+            @Override
+            public boolean hasNext() {
+                return node != HEAD && (to == null || compare(node, to) <= 0);
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Row row = row(node);
+                node = ArenaRep.this.next(node, 0);
+                return row;
+            }
+        };
+    }
+}
@@ -1,37 +1,111 @@
 package konputer.kvdb.memory;
 
+import konputer.kvdb.DbOptions;
+import konputer.kvdb.RowCursor;
 import konputer.kvdb.SnapshotManager;
+import konputer.kvdb.compaction.WriteController;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.metrics.PerfContext;
+import konputer.kvdb.wal.LogManager;
 import org.jspecify.annotations.NonNull;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
 
 public class MemStore implements AutoCloseable {
-    public static final int MAX_MEMTABLE_SIZE = 1024 * 1024;
-
-    private MemTable activeMemTable;
+    private volatile MemTable activeMemTable;
     private final MemTablePersistor persistor;
     private final SnapshotManager snapshotManager;
+    private final LogManager logManager;
+    private final WriteController writeController;
+    private final WriteBufferManager writeBufferManager;
+    private final boolean offHeap;
+    private final long writeBufferSize;
+    // set by the writer that rotates the full table, the others keep writing into it meanwhile
+    private final AtomicBoolean rotating = new AtomicBoolean();
 
-    public MemStore(MemTablePersistor persistor, SnapshotManager snapshotManager) {
-        this.activeMemTable = new MemTable(snapshotManager);
+    public MemStore(MemTablePersistor persistor, SnapshotManager snapshotManager, LogManager logManager,
+                    WriteController writeController, DbOptions options) {
+        this.offHeap = options.offHeapMemTable();
+        this.writeBufferSize = options.writeBufferSize();
         this.snapshotManager = snapshotManager;
+        this.writeController = writeController;
+        this.writeBufferManager = new WriteBufferManager(options.writeBufferBudget(), () -> activeMemTable.size());
         this.persistor = persistor;
+        this.logManager = logManager;
+        this.activeMemTable = newMemTable();
+    }
+
+    private MemTable newMemTable() {
+        try {
+            return new MemTable(snapshotManager, logManager.newLog(), offHeap);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create write-ahead log", e);
+        }
+    }
+
+    public WriteBufferManager getWriteBufferManager() {
+        return writeBufferManager;
+    }
+
+    public long activeMemTableSize() {
+        return activeMemTable.size();
+    }
+
+    public int frozenMemTableCount() {
+        return persistor.nonCompletedCount();
     }
 
     public void set(TaggedKey key, ValueHolder value) {
         // Implementation for setting a key-value pair in the database
-        activeMemTable.set(key, value);
-        if (activeMemTable.size() >= MAX_MEMTABLE_SIZE) {
-            synchronized (this) {
-                if (activeMemTable.size() >= MAX_MEMTABLE_SIZE) {
-                    flush();
-                }
+        writeController.throttle();
+        writeBufferManager.throttle();
+        // a failed set means we raced with flush, the new table is already installed
+        while (!activeMemTable.set(key, value)) {
+            Thread.onSpinWait();
+        }
+        maybeRotate();
+    }
+
+    /**
+     * Applies a batch to one memtable, throttled and checked for a flush once for all of its rows. The rows are
+     * tagged with an id reserved after the throttling, snapshots see either all of them or none.
+     *
+     * @param batch the rows of the batch tagged with the given snapshot id
+     */
+    public void write(LongFunction<List<Row>> batch) {
+        writeController.throttle();
+        writeBufferManager.throttle();
+        long batchId = snapshotManager.reserveBatchId();
+        try {
+            List<Row> rows = batch.apply(batchId);
+            while (!activeMemTable.write(rows)) {
+                Thread.onSpinWait();
             }
+        } finally {
+            snapshotManager.publish(batchId);
         }
+        maybeRotate();
+    }
 
+    private void maybeRotate() {
+        MemTable full = activeMemTable;
+        // rotations are serialized so tables are persisted in the order they were frozen
+        if (full.size() >= writeBufferSize && rotating.compareAndSet(false, true)) {
+            try {
+                if (activeMemTable == full) {
+                    rotate(full);
+                }
+            } finally {
+                rotating.set(false);
+            }
+        }
     }
 
     public Iterator<Row> getRawRange(@NonNull TaggedKey from, @NonNull TaggedKey to) {
@@ -39,33 +113,81 @@ public class MemStore implements AutoCloseable {
         return activeMemTable.getRawRange(from, to);
     }
 
-    private void flush() {
-        // Implementation for flushing the current memtable to persistent storage
-        persistor.schedulePersist(activeMemTable);
-        activeMemTable = new MemTable(snapshotManager);
+    /**
+     * @return cursors over the active and the frozen memtables
+     */
+    public List<RowCursor> cursors() {
+        List<RowCursor> cursors = new ArrayList<>();
+        cursors.add(activeMemTable.cursor());
+        for (Iterator<MemTable> it = persistor.getNonCompleted(); it.hasNext(); ) {
+            cursors.add(it.next().cursor());
+        }
+        return cursors;
+    }
+
+    private void rotate(MemTable full) {
+        MemTable next = newMemTable();
+        long size = full.size();
+        writeBufferManager.frozen(size);
+        // among the frozen tables before it stops being the active one, so readers never miss its rows
+        persistor.schedulePersist(full, () -> writeBufferManager.flushed(size), writeBufferManager::fail);
+        activeMemTable = next;
     }
 
-    public ValueHolder get(String key) throws Exception {
-        // Implementation for getting a value by key from the database
-        ValueHolder value = activeMemTable.get(key);
-        if (value != null) {
-            return value;
+    public ValueHolder get(byte[] key) throws Exception {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the newest version of the key at or before the snapshot in the active or the frozen memtables
+     */
+    public ValueHolder get(byte[] key, long snapshotId) {
+        int probed = 1;
+        ValueHolder value = activeMemTable.get(key, snapshotId);
+        for (Iterator<MemTable> it = persistor.getNonCompleted(); value == null && it.hasNext(); probed++) {
+            value = it.next().get(key, snapshotId);
         }
-        for (Iterator<MemTable> it = persistor.getNonCompleted(); it.hasNext(); ) {
-            MemTable frozen = it.next();
-            value = frozen.get(key);
-            if (value != null) {
-                return value;
+        PerfContext perf = PerfContext.current();
+        if (perf != null) {
+            perf.memTablesProbed(probed);
+        }
+        return value;
+    }
+
+    /**
+     * Fills in the keys still missing in {@code found} from the active and the frozen memtables.
+     */
+    public void multiGet(byte[][] keys, ValueHolder[] found) {
+        int probed = 1;
+        lookupMissing(activeMemTable, keys, found);
+        for (Iterator<MemTable> it = persistor.getNonCompleted(); it.hasNext(); probed++) {
+            lookupMissing(it.next(), keys, found);
+        }
+        PerfContext perf = PerfContext.current();
+        if (perf != null) {
+            perf.memTablesProbed(probed);
+        }
+    }
+
+    private static void lookupMissing(MemTable table, byte[][] keys, ValueHolder[] found) {
+        for (int i = 0; i < keys.length; i++) {
+            if (found[i] == null) {
+                found[i] = table.get(keys[i]);
             }
         }
-        return null;
     }
 
 
     @Override
     public void close() {
-        persistor.close();
-
+        writeBufferManager.close();
+        try {
+            persistor.close();
+        } finally {
+            // unflushed data stays in the log of the active table
+            activeMemTable.freeze();
+            logManager.close();
+        }
     }
 
 }
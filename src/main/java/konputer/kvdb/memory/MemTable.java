@@ -1,80 +1,189 @@
 package konputer.kvdb.memory;
 
+import konputer.kvdb.RowCursor;
 import konputer.kvdb.SnapshotManager;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
 import konputer.kvdb.persistent.SSTableContentBuilder;
+import konputer.kvdb.wal.WriteAheadLog;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.List;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemTable {
-    private final ConcurrentSkipListMap<TaggedKey, ValueHolder> store = new ConcurrentSkipListMap<>();
+    private final MemTableRep store;
     private final LongAdder sizeBytes = new LongAdder();
     private final ReadWriteLock sizeLock = new ReentrantReadWriteLock();
 
     private final SnapshotManager snapshotManager;
+    private final WriteAheadLog log;
+    // guarded by sizeLock, once set no write may reach this table or its log anymore
+    private boolean frozen = false;
 
-    public MemTable(SnapshotManager manager) {
+    /**
+     * @param offHeap keep the rows in an off-heap arena instead of as objects on the heap
+     */
+    public MemTable(SnapshotManager manager, WriteAheadLog log, boolean offHeap) {
         this.snapshotManager = manager;
+        this.log = log;
+        this.store = offHeap ? new ArenaRep() : new SkipListRep();
     }
 
-    public void set(TaggedKey key, ValueHolder value) {
+    /**
+     * @return false if the table was frozen in the meantime, the caller has to retry on the new active table
+     */
+    public boolean set(TaggedKey key, ValueHolder value) {
         sizeLock.readLock().lock();
         try {
-            sizeBytes.add(value.length() + Integer.BYTES); // +4 for the length of the value
-            ValueHolder old = store.put(key, value);
-            if (old != null) {
-                sizeBytes.add(-old.length() - Integer.BYTES); // -4 for the length of the value
-            } else {
-                // If the key was not present, we need to account for the key length as well
-                sizeBytes.add(key.key().length() + Integer.BYTES);
+            if (frozen) {
+                return false;
             }
+            // log before the skip list so a reader never sees a value that could be lost
+            log.append(key, value);
+            sizeBytes.add(store.put(key, value));
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to write-ahead log", e);
         } finally {
             sizeLock.readLock().unlock();
         }
     }
 
-    public ValueHolder get(String key) {
+    /**
+     * Logs {@code rows} as one record and inserts them, a freeze can't split them between two tables.
+     *
+     * @return false if the table was frozen in the meantime, the caller has to retry on the new active table
+     */
+    public boolean write(List<Row> rows) {
+        sizeLock.readLock().lock();
+        try {
+            if (frozen) {
+                return false;
+            }
+            log.append(rows);
+            long added = 0;
+            for (Row row : rows) {
+                added += store.put(row.key(), row.value());
+            }
+            sizeBytes.add(added);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to write-ahead log", e);
+        } finally {
+            sizeLock.readLock().unlock();
+        }
+    }
 
-        var value = store.floorEntry(new TaggedKey(key, Long.MAX_VALUE));
+    public ValueHolder get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the newest version of the key written at or before the snapshot
+     */
+    public ValueHolder get(byte[] key, long snapshotId) {
+        Row row = store.floor(new TaggedKey(key, snapshotId));
 
-        if (value == null) {
+        if (row == null) {
             return null;
         }
 
-        if (value.getKey().key().equals(key)) {
-            return value.getValue();
+        if (row.key().hasKey(key)) {
+            return row.value();
         }
 
         return null;
     }
 
     public Iterator<Row> getRawRange(TaggedKey from, TaggedKey to) {
-        return store.subMap(from, true, to, true).entrySet()
-                .stream()
-                .map(e -> new Row(e.getKey(), e.getValue()))
-                .iterator();
+        return store.iterator(from, to);
+    }
+
+    /**
+     * @return a cursor over the table as it changes, rows added meanwhile show up once the cursor moves to them
+     */
+    public RowCursor cursor() {
+        return new RowCursor() {
+            private Row current;
+
+            @Override
+            public boolean isValid() {
+                return current != null;
+            }
+
+            @Override
+            public void seek(TaggedKey key) {
+                current = store.ceiling(key);
+            }
+
+            @Override
+            public void seekForPrev(TaggedKey key) {
+                current = store.floor(key);
+            }
+
+            @Override
+            public void seekToFirst() {
+                current = store.first();
+            }
+
+            @Override
+            public void seekToLast() {
+                current = store.last();
+            }
+
+            @Override
+            public void next() {
+                current = store.higher(current.key());
+            }
+
+            @Override
+            public void prev() {
+                current = store.lower(current.key());
+            }
+
+            @Override
+            public Row row() {
+                return current;
+            }
+        };
     }
 
     public long size() {
+        return sizeBytes.sum();
+    }
+
+    /**
+     * Waits for in-flight writes and closes the log, after this the table is immutable.
+     */
+    public void freeze() {
         sizeLock.writeLock().lock();
         try {
-            return sizeBytes.sum();
+            frozen = true;
+            log.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close write-ahead log", e);
         } finally {
             sizeLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Called once the table is installed as an SSTable, its log is not needed for recovery anymore.
+     */
+    public void discardLog() throws IOException {
+        log.delete();
+    }
+
     public void serialize(SSTableContentBuilder b) throws IOException {
         //write number of records for future use
-        for (var entry : store.entrySet()) {
-            b.writeKv(entry.getKey(), entry.getValue());
+        for (Iterator<Row> it = store.iterator(null, null); it.hasNext(); ) {
+            Row row = it.next();
+            b.writeKv(row.key(), row.value());
         }
     }
 }
@@ -7,59 +7,131 @@ import konputer.kvdb.persistent.SSTableHandle;
 import org.jooq.lambda.Seq;
 import org.jspecify.annotations.NonNull;
 
-import java.io.File;
 import java.io.IOException;
-import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkState;
 
 public class MemTablePersistor implements AutoCloseable {
-    ExecutorService executor = Executors.newSingleThreadExecutor();
-    private final ConcurrentLinkedQueue<MemTable> nonCompleted = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
+    // frozen tables oldest first, a table leaves once it is installed
+    private final ConcurrentLinkedDeque<MemTable> nonCompleted = new ConcurrentLinkedDeque<>();
+    // same order, guarded by this
+    private final ArrayDeque<Flush> flushes = new ArrayDeque<>();
 
     private final PersistentStore persistentStore;
+    // first flush failure, later tables are not written and nothing is installed after it
+    private volatile Throwable backgroundError;
+
+    private static final class Flush {
+        private final MemTable memTable;
+        private final Runnable onInstalled;
+        private final Consumer<Throwable> onFailed;
+        private SSTableHandle table; // guarded by the persistor, set once written
+
+        Flush(MemTable memTable, Runnable onInstalled, Consumer<Throwable> onFailed) {
+            this.memTable = memTable;
+            this.onInstalled = onInstalled;
+            this.onFailed = onFailed;
+        }
+    }
 
-    public MemTablePersistor(@NonNull PersistentStore persistentStore) {
+    /**
+     * @param threads tables written at the same time, they are still installed in the order they were frozen
+     */
+    public MemTablePersistor(@NonNull PersistentStore persistentStore, int threads) {
         this.persistentStore = persistentStore;
+        this.executor = Executors.newFixedThreadPool(threads);
     }
 
-    public void schedulePersist(@NonNull MemTable memTable) {
-        nonCompleted.add(memTable);
+    /**
+     * Freezes the table on a flush thread and writes it. May be called while the table is still the active
+     * one, writers racing with the freeze have to retry on the next table. Must be called in rotation order.
+     *
+     * @param onInstalled run once the table is installed and dropped from the frozen tables
+     * @param onFailed    run with the error if the table can't be installed, it stays frozen and in its log
+     */
+    public void schedulePersist(@NonNull MemTable memTable, @NonNull Runnable onInstalled,
+                                @NonNull Consumer<Throwable> onFailed) {
+        Flush flush = new Flush(memTable, onInstalled, onFailed);
+        synchronized (this) {
+            flushes.add(flush);
+            nonCompleted.add(memTable);
+        }
         final int tblId = persistentStore.nextTblId();
-        executor.submit(() -> {
-            //is exactly the same as memTable in function parameter due to single thread executor
-            MemTable toHandle = nonCompleted.peek();
-            checkState(toHandle != null);
-            try {
-                SSTableHandle h = SSTableHandle.writeMemTable(toHandle, new File("tbl_" + tblId + ".sstable"), tblId);
-
-                persistentStore.addSSTable(h);
-                // could be reordered somehow CPU or JVM optimizations probably won't reorder this, but it's better to be safe
-                // synchronization is overkill as having both SSTable and MemTable doesn't produce wrong results
-                VarHandle.acquireFence();
-                nonCompleted.remove();
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to persist memtable", e);
+        executor.execute(() -> {
+            Throwable error = backgroundError;
+            if (error == null) {
+                try {
+                    // waits for writers still inside the table so its log and content match
+                    memTable.freeze();
+                    SSTableHandle h = SSTableHandle.writeMemTable(memTable, persistentStore.tableFile(tblId), tblId,
+                            persistentStore.tableOptions(0, false));
+                    synchronized (this) {
+                        flush.table = h;
+                        installWritten();
+                    }
+                    return;
+                } catch (Throwable t) {
+                    error = new RuntimeException("Failed to persist memtable", t);
+                    synchronized (this) {
+                        if (backgroundError == null) {
+                            backgroundError = error;
+                        }
+                    }
+                }
             }
+            flush.onFailed.accept(error);
         });
     }
 
+    /**
+     * @return the first flush failure, null while all flushes succeeded
+     */
+    public Throwable backgroundError() {
+        return backgroundError;
+    }
+
+    // a newer table must not reach L0 before an older one, lookups take the first version they find there
+    private void installWritten() throws IOException {
+        while (backgroundError == null && !flushes.isEmpty() && flushes.peek().table != null) {
+            Flush flush = flushes.poll();
+            persistentStore.addSSTable(flush.table);
+            // table is durable on disk now, the log is redundant
+            flush.memTable.discardLog();
+            // in the version before it leaves the frozen tables, readers find the rows in at least one of them
+            checkState(nonCompleted.poll() == flush.memTable);
+            flush.onInstalled.run();
+        }
+    }
+
 
     public List<Iterator<Row>> getRawRange(TaggedKey from, TaggedKey to) {
         // This method is used to get a range of rows from the non-completed memtables
-        return Seq.seq(nonCompleted)
+        return Seq.seq(nonCompleted.descendingIterator())
                 .map(memTable -> memTable.getRawRange(from, to))
                 .toUnmodifiableList();
     }
 
 
+    /**
+     * @return the frozen tables not installed yet, newest first
+     */
     public Iterator<MemTable> getNonCompleted() {
-        return nonCompleted.iterator();
+        return nonCompleted.descendingIterator();
+    }
+
+    /**
+     * @return frozen tables not installed yet, in flight or waiting for an older one
+     */
+    public int nonCompletedCount() {
+        return nonCompleted.size();
     }
 
     public void shutdown() {
@@ -77,7 +149,8 @@ public class MemTablePersistor implements AutoCloseable {
             executor.shutdownNow();
         }
         if (!nonCompleted.isEmpty()) {
-            throw new RuntimeException("Failed to persist memtable, " + Thread.currentThread().isInterrupted());
+            throw new RuntimeException("Failed to persist memtable, " + Thread.currentThread().isInterrupted(),
+                    backgroundError);
         }
     }
 
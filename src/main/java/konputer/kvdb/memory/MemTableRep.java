@@ -0,0 +1,39 @@
+package konputer.kvdb.memory;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.util.Iterator;
+
+/**
+ * Sorted rows of a memtable, one per tagged key. Puts may run concurrently with each other and with reads.
+ * The positioning methods return null if there is no such row.
+ */
+interface MemTableRep {
+
+    /**
+     * Adds the row, replacing the value of an equal key.
+     *
+     * @return change of the bytes the rows take
+     */
+    long put(TaggedKey key, ValueHolder value);
+
+    Row floor(TaggedKey key);
+
+    Row ceiling(TaggedKey key);
+
+    Row higher(TaggedKey key);
+
+    Row lower(TaggedKey key);
+
+    Row first();
+
+    Row last();
+
+    /**
+     * @param from first key, inclusive, null to start at the first row
+     * @param to   last key, inclusive, null to run to the last row
+     */
+    Iterator<Row> iterator(TaggedKey from, TaggedKey to);
+}
@@ -0,0 +1,77 @@
+package konputer.kvdb.memory;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Rows as objects on the heap in a {@link ConcurrentSkipListMap}. Sizes count key and value bytes plus their
+ * length prefixes, not the objects around them.
+ */
+final class SkipListRep implements MemTableRep {
+    private final ConcurrentSkipListMap<TaggedKey, ValueHolder> store = new ConcurrentSkipListMap<>();
+
+    @Override
+    public long put(TaggedKey key, ValueHolder value) {
+        long added = value.length() + Integer.BYTES; // +4 for the length of the value
+        ValueHolder old = store.put(key, value);
+        if (old != null) {
+            added -= old.length() + Integer.BYTES; // -4 for the length of the value
+        } else {
+            // If the key was not present, we need to account for the key length as well
+            added += key.bytes().length + Integer.BYTES;
+        }
+        return added;
+    }
+
+    private static Row row(Map.Entry<TaggedKey, ValueHolder> entry) {
+        return entry == null ? null : new Row(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public Row floor(TaggedKey key) {
+        return row(store.floorEntry(key));
+    }
+
+    @Override
+    public Row ceiling(TaggedKey key) {
+        return row(store.ceilingEntry(key));
+    }
+
+    @Override
+    public Row higher(TaggedKey key) {
+        return row(store.higherEntry(key));
+    }
+
+    @Override
+    public Row lower(TaggedKey key) {
+        return row(store.lowerEntry(key));
+    }
+
+    @Override
+    public Row first() {
+        return row(store.firstEntry());
+    }
+
+    @Override
+    public Row last() {
+        return row(store.lastEntry());
+    }
+
+    @Override
+    public Iterator<Row> iterator(TaggedKey from, TaggedKey to) {
+        NavigableMap<TaggedKey, ValueHolder> range = store;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (to != null) {
+            range = range.headMap(to, true);
+        }
+        return range.entrySet().stream().map(SkipListRep::row).iterator();
+    }
+}
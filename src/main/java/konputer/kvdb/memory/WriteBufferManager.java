@@ -0,0 +1,139 @@
+package konputer.kvdb.memory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounds the memory of the active memtable and the frozen ones waiting for their flush together.
+ * <p>
+ * While a flush is pending and usage is past {@link #SLOWDOWN_PERCENT} of the budget every write is delayed,
+ * growing towards {@link #MAX_DELAY_NANOS} close to the budget. At the budget writers block until a flush
+ * installs. Without a pending flush nothing would free memory, so writers pass. After a failed flush nothing
+ * frees memory anymore either, writes are refused.
+ */
+public class WriteBufferManager implements AutoCloseable {
+    static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    static final int SLOWDOWN_PERCENT = 75;
+
+    private final long budget;
+    private final long slowdown;
+    private final LongSupplier activeBytes;
+    private final AtomicLong frozenBytes = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private volatile Throwable backgroundError;
+    private volatile boolean closed = false;
+
+    private final LongAdder delayedWrites = new LongAdder();
+    private final LongAdder stalledWrites = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    /**
+     * @param activeBytes size of the active memtable, read on every write
+     */
+    public WriteBufferManager(long budget, LongSupplier activeBytes) {
+        this.budget = budget;
+        this.slowdown = budget * SLOWDOWN_PERCENT / 100;
+        this.activeBytes = activeBytes;
+    }
+
+    /**
+     * Called with the size of a table when it is rotated out, it counts until {@link #flushed(long)}.
+     */
+    public void frozen(long bytes) {
+        frozenBytes.addAndGet(bytes);
+    }
+
+    public void flushed(long bytes) {
+        frozenBytes.addAndGet(-bytes);
+        signalAll();
+    }
+
+    /**
+     * A frozen table could not be flushed, its memory will not be freed so writes are refused.
+     */
+    public void fail(Throwable error) {
+        backgroundError = error;
+        signalAll();
+    }
+
+    private void signalAll() {
+        lock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long memoryUsage() {
+        return frozenBytes.get() + activeBytes.getAsLong();
+    }
+
+    public long frozenBytes() {
+        return frozenBytes.get();
+    }
+
+    /**
+     * Called by every writer before it touches the memtable.
+     */
+    public void throttle() {
+        checkError();
+        long used = memoryUsage();
+        if (used < slowdown || frozenBytes.get() == 0) {
+            return;
+        }
+        if (used < budget) {
+            delayedWrites.increment();
+            long start = System.nanoTime();
+            LockSupport.parkNanos(Math.max(1, MAX_DELAY_NANOS * (used - slowdown) / (budget - slowdown)));
+            stallNanos.add(System.nanoTime() - start);
+            return;
+        }
+        stalledWrites.increment();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            while (frozenBytes.get() > 0 && memoryUsage() >= budget && backgroundError == null && !closed) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+            stallNanos.add(System.nanoTime() - start);
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        Throwable error = backgroundError;
+        if (error != null) {
+            throw new IllegalStateException("Memtable flush failed, writes are disabled", error);
+        }
+    }
+
+    public long delayedWrites() {
+        return delayedWrites.sum();
+    }
+
+    public long stalledWrites() {
+        return stalledWrites.sum();
+    }
+
+    /**
+     * @return time writers spent delayed or blocked here
+     */
+    public long stallNanos() {
+        return stallNanos.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        signalAll();
+    }
+}
@@ -0,0 +1,109 @@
+package konputer.kvdb.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Non-negative values bucketed log-linearly like an HDR histogram: values below {@code 2 << subBucketBits}
+ * are exact, above that every power of two is split into {@code 1 << subBucketBits} buckets, so a reported
+ * percentile is within {@code 1 / (1 << subBucketBits)} of the recorded value. Not thread safe, threads record
+ * into their own histograms and {@link #add} them up, or share a {@link Histogram}.
+ */
+public final class LogLinearHistogram {
+    private final int subBucketBits;
+    private final long[] counts;
+    private long total = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * @param subBucketBits 4 keeps percentiles within about 6%, 7 within 1%
+     */
+    public LogLinearHistogram(int subBucketBits) {
+        this.subBucketBits = subBucketBits;
+        this.counts = new long[bucketCount(subBucketBits)];
+    }
+
+    static int bucketCount(int subBucketBits) {
+        checkArgument(subBucketBits > 0 && subBucketBits <= 16, "subBucketBits must be in [1, 16]");
+        // covers Long.MAX_VALUE, its shift is 63 - subBucketBits
+        return (Long.SIZE - subBucketBits + 1) << subBucketBits;
+    }
+
+    static int index(long value, int subBucketBits) {
+        int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - (subBucketBits + 1));
+        return (shift << subBucketBits) + (int) (value >>> shift);
+    }
+
+    // the largest value that falls into the bucket
+    private static long highestValue(int index, int subBucketBits) {
+        if (index < 2 << subBucketBits) {
+            return index;
+        }
+        int shift = (index >> subBucketBits) - 1;
+        long lowest = (long) (index - (shift << subBucketBits)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts[index(v, subBucketBits)]++;
+        total++;
+        sum += v;
+        max = Math.max(max, v);
+    }
+
+    public void add(LogLinearHistogram other) {
+        checkArgument(other.subBucketBits == subBucketBits, "Histograms differ in precision");
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Adds counts bucketed with the same precision, see {@link Histogram}.
+     */
+    void add(AtomicLongArray otherCounts, long otherSum, long otherMax) {
+        for (int i = 0; i < counts.length; i++) {
+            long count = otherCounts.get(i);
+            counts[i] += count;
+            total += count;
+        }
+        sum += otherSum;
+        max = Math.max(max, otherMax);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /**
+     * @return the value {@code percentile} percent of the recorded values are at or below, 0 if there are none
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i, subBucketBits), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,73 @@
+package konputer.kvdb.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Read-only MBean with one attribute per metric. The metrics are collected again for every request, so the
+ * attributes are whatever the engine counted at that moment.
+ */
+public final class MetricsBean implements DynamicMBean {
+    private final Supplier<Map<String, Number>> metrics;
+
+    /**
+     * @param metrics returns the same names on every call, their values decide the attribute types
+     */
+    public MetricsBean(Supplier<Map<String, Number>> metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = metrics.get().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("Unknown metric " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> current = metrics.get();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = current.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = metrics.get().entrySet().stream()
+                .map(e -> new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(),
+                        true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+        return new MBeanInfo(getClass().getName(), "Database metrics", attributes, null,
+                new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,185 @@
+package konputer.kvdb.metrics;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the reads of one thread did, to explain a single slow get or scan. Opt-in per thread: after
+ * {@link #enable()} the lookups of the calling thread count into its context until {@link #disable()}.
+ * <p>
+ * While no thread has a context the read path only checks a counter, there is no thread local lookup. A
+ * context is only touched by its own thread, so its counters are plain fields.
+ * <pre>{@code
+ * PerfContext perf = PerfContext.enable();
+ * db.get(key);
+ * if (perf.totalNanos() > threshold) log(perf);
+ * perf.reset();
+ * }</pre>
+ */
+public final class PerfContext {
+    private static final ThreadLocal<PerfContext> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger ENABLED_THREADS = new AtomicInteger();
+
+    private long memTablesProbed;
+    private long tablesChecked;
+    private long bloomPassed;
+    private long bloomSkipped;
+    private long blockCacheHits;
+    private long blocksRead;
+    private long rowsDecoded;
+    private long memTableNanos;
+    private long tableNanos;
+    private long blockReadNanos;
+
+    private PerfContext() {
+    }
+
+    /**
+     * Starts counting the reads of the calling thread, from zero if it already had a context.
+     */
+    public static PerfContext enable() {
+        PerfContext perf = CURRENT.get();
+        if (perf == null) {
+            perf = new PerfContext();
+            CURRENT.set(perf);
+            ENABLED_THREADS.incrementAndGet();
+        }
+        perf.reset();
+        return perf;
+    }
+
+    public static void disable() {
+        if (CURRENT.get() != null) {
+            CURRENT.remove();
+            ENABLED_THREADS.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the context of the calling thread, null if it has none
+     */
+    public static @Nullable PerfContext current() {
+        return ENABLED_THREADS.get() == 0 ? null : CURRENT.get();
+    }
+
+    public void reset() {
+        memTablesProbed = 0;
+        tablesChecked = 0;
+        bloomPassed = 0;
+        bloomSkipped = 0;
+        blockCacheHits = 0;
+        blocksRead = 0;
+        rowsDecoded = 0;
+        memTableNanos = 0;
+        tableNanos = 0;
+        blockReadNanos = 0;
+    }
+
+    public void memTablesProbed(int tables) {
+        memTablesProbed += tables;
+    }
+
+    public void tableChecked() {
+        tablesChecked++;
+    }
+
+    public void bloomProbe(boolean passed) {
+        if (passed) {
+            bloomPassed++;
+        } else {
+            bloomSkipped++;
+        }
+    }
+
+    public void blockCacheHit() {
+        blockCacheHits++;
+    }
+
+    /**
+     * A block sliced out of its table file and decompressed, the cache didn't have it.
+     */
+    public void blockRead(long nanos) {
+        blocksRead++;
+        blockReadNanos += nanos;
+    }
+
+    public void rowDecoded() {
+        rowsDecoded++;
+    }
+
+    public void memTableNanos(long nanos) {
+        memTableNanos += nanos;
+    }
+
+    public void tableNanos(long nanos) {
+        tableNanos += nanos;
+    }
+
+    /**
+     * @return memtables a get looked into, or that a cursor merges
+     */
+    public long memTablesProbed() {
+        return memTablesProbed;
+    }
+
+    /**
+     * @return tables a get looked up the key in, Bloom filter included, or that a cursor positioned
+     */
+    public long tablesChecked() {
+        return tablesChecked;
+    }
+
+    public long bloomPassed() {
+        return bloomPassed;
+    }
+
+    /**
+     * @return table lookups the Bloom filter answered without reading a block
+     */
+    public long bloomSkipped() {
+        return bloomSkipped;
+    }
+
+    public long blockCacheHits() {
+        return blockCacheHits;
+    }
+
+    public long blocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * @return block entries whose key was rebuilt, also those only compared and skipped
+     */
+    public long rowsDecoded() {
+        return rowsDecoded;
+    }
+
+    public long memTableNanos() {
+        return memTableNanos;
+    }
+
+    /**
+     * @return time gets spent in the tables, the block reads included
+     */
+    public long tableNanos() {
+        return tableNanos;
+    }
+
+    public long blockReadNanos() {
+        return blockReadNanos;
+    }
+
+    public long totalNanos() {
+        return memTableNanos + tableNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "memtables " + memTablesProbed + " (" + memTableNanos / 1000 + "us), tables " + tablesChecked
+                + " (" + tableNanos / 1000 + "us), bloom passed " + bloomPassed + " skipped " + bloomSkipped
+                + ", block cache hits " + blockCacheHits + ", blocks read " + blocksRead
+                + " (" + blockReadNanos / 1000 + "us), rows decoded " + rowsDecoded;
+    }
+}
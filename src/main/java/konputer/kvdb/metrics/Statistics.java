@@ -0,0 +1,73 @@
+package konputer.kvdb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies recorded on the read and write paths of one database. Counters are striped
+ * {@link LongAdder}s, they only count since the database was opened.
+ */
+public final class Statistics {
+    private final Histogram getLatency = new Histogram();
+    private final Histogram multiGetLatency = new Histogram();
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram seekLatency = new Histogram();
+
+    private final LongAdder bloomChecked = new LongAdder();
+    private final LongAdder bloomUseful = new LongAdder();
+    private final LongAdder bloomFalsePositive = new LongAdder();
+
+    public Histogram getLatency() {
+        return getLatency;
+    }
+
+    public Histogram multiGetLatency() {
+        return multiGetLatency;
+    }
+
+    /**
+     * Sets, removes and write batches until they are in the memtable, stalls included.
+     */
+    public Histogram writeLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Positioning a cursor, every source it merges seeks once.
+     */
+    public Histogram seekLatency() {
+        return seekLatency;
+    }
+
+    /**
+     * Records the outcome of one table lookup guarded by a Bloom filter.
+     *
+     * @param passed whether the filter let the lookup through
+     * @param found  whether the table held the key, only meaningful if the filter passed
+     */
+    public void bloomProbe(boolean passed, boolean found) {
+        bloomChecked.increment();
+        if (!passed) {
+            bloomUseful.increment();
+        } else if (!found) {
+            bloomFalsePositive.increment();
+        }
+    }
+
+    public long bloomChecked() {
+        return bloomChecked.sum();
+    }
+
+    /**
+     * @return lookups the filter saved from reading a block
+     */
+    public long bloomUseful() {
+        return bloomUseful.sum();
+    }
+
+    /**
+     * @return lookups the filter let through although the table didn't hold the key
+     */
+    public long bloomFalsePositive() {
+        return bloomFalsePositive.sum();
+    }
+}
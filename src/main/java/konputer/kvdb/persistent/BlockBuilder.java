@@ -0,0 +1,102 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.dtos.ValuePointer;
+import konputer.kvdb.utils.VarInts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds the uncompressed content of one data block.
+ * <p>
+ * Keys are stored as the length of the prefix they share with the key before them plus the rest. Every
+ * {@link #RESTART_INTERVAL} entries a key is stored in full and its offset recorded, readers binary search
+ * these restart points and decode forward from the closest one. Layout, varints are unsigned LEB128:
+ * <pre>
+ * entries   [varint shared][varint unshared][varint value tag][unshared key bytes][varint snapshotId][value]
+ *           tag 0 is a tombstone without value, tag 1 a value log pointer stored as
+ *           [varint fileId][varint offset][varint length], larger tags are inline values of tag - 2 bytes
+ * restarts  restartCount x [int entry offset]
+ * trailer   [int restartCount]
+ * </pre>
+ */
+final class BlockBuilder {
+    static final int RESTART_INTERVAL = 16;
+    static final int TOMBSTONE_TAG = 0;
+    static final int POINTER_TAG = 1;
+    static final int INLINE_TAG = 2;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(2 * SSTableHandle.BLOCK_SIZE);
+    private final DataOutputStream os = new DataOutputStream(buffer);
+    private int[] restarts = new int[8];
+    private int restartCount = 0;
+    private int sinceRestart = 0;
+    private byte[] lastKey = new byte[0];
+
+    void add(TaggedKey key, ValueHolder value) throws IOException {
+        byte[] bytes = key.bytes();
+        int shared = 0;
+        if (sinceRestart == RESTART_INTERVAL || restartCount == 0) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = buffer.size();
+            sinceRestart = 0;
+        } else {
+            int mismatch = Arrays.mismatch(lastKey, bytes);
+            shared = mismatch < 0 ? bytes.length : mismatch;
+        }
+        byte[] v = value.value();
+        VarInts.write(os, shared);
+        VarInts.write(os, bytes.length - shared);
+        if (value.isPointer()) {
+            VarInts.write(os, POINTER_TAG);
+        } else {
+            VarInts.write(os, v == null ? TOMBSTONE_TAG : v.length + (long) INLINE_TAG);
+        }
+        os.write(bytes, shared, bytes.length - shared);
+        VarInts.write(os, key.snapshotId());
+        if (value.isPointer()) {
+            ValuePointer pointer = value.pointer();
+            VarInts.write(os, pointer.fileId());
+            VarInts.write(os, pointer.offset());
+            VarInts.write(os, pointer.length());
+        } else if (v != null) {
+            os.write(v);
+        }
+        lastKey = bytes;
+        sinceRestart++;
+    }
+
+    boolean isEmpty() {
+        return restartCount == 0;
+    }
+
+    /**
+     * @return size of the block if it was finished now
+     */
+    int estimatedSize() {
+        return buffer.size() + (restartCount + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Appends the restart points and returns the block, the builder is empty again afterwards.
+     */
+    byte[] finish() throws IOException {
+        for (int i = 0; i < restartCount; i++) {
+            os.writeInt(restarts[i]);
+        }
+        os.writeInt(restartCount);
+        os.flush();
+        byte[] block = buffer.toByteArray();
+        buffer.reset();
+        restartCount = 0;
+        sinceRestart = 0;
+        lastKey = new byte[0];
+        return block;
+    }
+}
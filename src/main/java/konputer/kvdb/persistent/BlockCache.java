@@ -0,0 +1,211 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.dtos.Row;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Capacity bounded LRU cache of decompressed SSTable blocks shared by all tables of a database.
+ * <p>
+ * Entries are keyed by (table id, block offset) and spread over independently locked shards, each
+ * shard evicts its least recently used blocks once it is over its share of the capacity.
+ */
+public class BlockCache {
+    // rough per entry cost of the map node, the key and the buffer object
+    private static final int ENTRY_OVERHEAD = 96;
+    // rough cost of a decoded row on top of its key and value bytes
+    private static final int ROW_OVERHEAD = 64;
+
+    private final Shard[] shards;
+    private final long shardCapacity;
+    private final boolean cacheDecodedRows;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BlockCache(long capacityBytes, int shardCount, boolean cacheDecodedRows) {
+        if (shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("shardCount must be a positive power of two");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        this.shardCapacity = capacityBytes / shardCount;
+        this.cacheDecodedRows = cacheDecodedRows;
+    }
+
+    public static BlockCache disabled() {
+        return new BlockCache(0, 1, false);
+    }
+
+    public boolean enabled() {
+        return shardCapacity > 0;
+    }
+
+    public boolean cachesDecodedRows() {
+        return cacheDecodedRows && enabled();
+    }
+
+    private record BlockKey(int tableId, long offset) {
+    }
+
+    private Shard shardFor(BlockKey key) {
+        // offsets are block aligned only loosely, mix before picking the shard
+        long h = (key.offset() + ((long) key.tableId() << 32)) * 0x9E3779B97F4A7C15L;
+        return shards[(int) (h >>> 32) & (shards.length - 1)];
+    }
+
+    public CachedBlock get(int tableId, long offset) {
+        if (!enabled()) {
+            return null;
+        }
+        BlockKey key = new BlockKey(tableId, offset);
+        CachedBlock block = shardFor(key).get(key);
+        if (block == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return block;
+    }
+
+    public CachedBlock put(int tableId, long offset, ByteBuffer data) {
+        CachedBlock block = new CachedBlock(data);
+        if (!enabled()) {
+            return block;
+        }
+        BlockKey key = new BlockKey(tableId, offset);
+        shardFor(key).put(key, block, shardCapacity);
+        return block;
+    }
+
+    // accounts for rows decoded after the block was inserted
+    private void chargeRows(int tableId, long offset, CachedBlock block, long bytes) {
+        BlockKey key = new BlockKey(tableId, offset);
+        shardFor(key).charge(key, block, bytes, shardCapacity);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        long h = hits();
+        long total = h + misses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long usage() {
+        long sum = 0;
+        for (Shard shard : shards) {
+            sum += shard.usage();
+        }
+        return sum;
+    }
+
+    public class CachedBlock {
+        private final ByteBuffer data;
+        private volatile Row[] rows;
+        // guarded by the owning shard
+        private long rowsCharge = 0;
+
+        CachedBlock(ByteBuffer data) {
+            this.data = data;
+        }
+
+        /**
+         * @return an independent view of the decompressed block
+         */
+        public ByteBuffer data() {
+            return data.duplicate();
+        }
+
+        long charge() {
+            // direct buffers are slices of the mapped table file, their bytes live in the page cache
+            return ENTRY_OVERHEAD + (data.isDirect() ? 0 : data.capacity()) + rowsCharge;
+        }
+
+        /**
+         * Rows of the block, decoded once and kept if the cache is configured to hold decoded blocks.
+         */
+        public Row[] rows(int tableId, long offset) {
+            Row[] decoded = rows;
+            if (decoded != null) {
+                return decoded;
+            }
+            decoded = decode(data());
+            if (!cachesDecodedRows()) {
+                return decoded;
+            }
+            synchronized (this) {
+                if (rows != null) {
+                    return rows; // lost the race, keep the charge single
+                }
+                rows = decoded;
+            }
+            long size = 0;
+            for (Row row : decoded) {
+                size += ROW_OVERHEAD + row.key().bytes().length + row.value().length();
+            }
+            chargeRows(tableId, offset, this, size);
+            return decoded;
+        }
+
+        private static Row[] decode(ByteBuffer buf) {
+            List<Row> out = new ArrayList<>();
+            new SSTableHandle.RowAwareBlock(buf).rowIterator().forEachRemaining(out::add);
+            return out.toArray(new Row[0]);
+        }
+    }
+
+    private static final class Shard {
+        private final LinkedHashMap<BlockKey, CachedBlock> map = new LinkedHashMap<>(64, 0.75f, true);
+        private long usage = 0;
+
+        synchronized CachedBlock get(BlockKey key) {
+            return map.get(key);
+        }
+
+        synchronized void put(BlockKey key, CachedBlock block, long capacity) {
+            CachedBlock old = map.put(key, block);
+            if (old != null) {
+                usage -= old.charge();
+            }
+            usage += block.charge();
+            evict(capacity);
+        }
+
+        synchronized void charge(BlockKey key, CachedBlock block, long bytes, long capacity) {
+            // the block may have been evicted while its rows were decoded
+            if (map.get(key) != block) {
+                return;
+            }
+            block.rowsCharge += bytes;
+            usage += bytes;
+            evict(capacity);
+        }
+
+        private void evict(long capacity) {
+            Iterator<Map.Entry<BlockKey, CachedBlock>> it = map.entrySet().iterator();
+            while (usage > capacity && it.hasNext()) {
+                CachedBlock victim = it.next().getValue();
+                it.remove();
+                usage -= victim.charge();
+            }
+        }
+
+        synchronized long usage() {
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package konputer.kvdb.persistent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of {@link VersionEdit}s describing which tables form which level.
+ * <p>
+ * Records use the write-ahead log framing {@code [int payloadLength][int crc32c][payload]}. The {@code CURRENT}
+ * file names the live manifest, it is switched atomically whenever the manifest is checkpointed into a new file
+ * starting with a single edit holding the whole state.
+ */
+public final class Manifest implements Closeable {
+    private static final String CURRENT = "CURRENT";
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    // edits appended before the log is rewritten as a single edit
+    static final int CHECKPOINT_EDITS = 1000;
+
+    private final Path directory;
+    private final long number;
+    private final FileChannel channel;
+    private int edits = 0;
+
+    private Manifest(Path directory, long number, FileChannel channel) {
+        this.directory = directory;
+        this.number = number;
+        this.channel = channel;
+    }
+
+    public static File manifestFile(Path directory, long number) {
+        return directory.resolve("manifest_" + number + ".log").toFile();
+    }
+
+    /**
+     * Starts a new manifest holding {@code state} and makes it the current one.
+     */
+    public static Manifest create(Path directory, long number, State state) throws IOException {
+        File file = manifestFile(directory, number);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        Manifest manifest = new Manifest(directory, number, channel);
+        try {
+            manifest.write(state.toEdit());
+            setCurrent(directory, file.getName());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return manifest;
+    }
+
+    private static void setCurrent(Path directory, String name) throws IOException {
+        Path tmp = directory.resolve(CURRENT + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap((name + "\n").getBytes(StandardCharsets.UTF_8)));
+            ch.force(true);
+        }
+        Files.move(tmp, directory.resolve(CURRENT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel ch = FileChannel.open(directory, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // not supported on every platform, the rename itself is still atomic
+        }
+    }
+
+    public void append(VersionEdit edit) throws IOException {
+        write(edit);
+        edits++;
+    }
+
+    private void write(VersionEdit edit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        edit.serialize(new DataOutputStream(bytes));
+        byte[] payload = bytes.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(false);
+    }
+
+    public boolean needsCheckpoint() {
+        return edits >= CHECKPOINT_EDITS;
+    }
+
+    /**
+     * Rewrites the manifest as a single edit holding {@code state}, this manifest is closed and deleted.
+     */
+    public Manifest checkpoint(State state) throws IOException {
+        Manifest next = create(directory, number + 1, state);
+        close();
+        Files.deleteIfExists(manifestFile(directory, number).toPath());
+        return next;
+    }
+
+    public long number() {
+        return number;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return whether the directory has a current manifest, that is holds a database
+     */
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(CURRENT));
+    }
+
+    /**
+     * Replays the current manifest of the directory.
+     *
+     * @return the recorded state, null if the directory has no manifest
+     */
+    public static State recover(Path directory) throws IOException {
+        Path current = directory.resolve(CURRENT);
+        if (!Files.exists(current)) {
+            return null;
+        }
+        String name = Files.readString(current, StandardCharsets.UTF_8).trim();
+        File file = directory.resolve(name).toFile();
+        if (!file.exists()) {
+            throw new IllegalStateException("CURRENT points to missing manifest " + name);
+        }
+        long number = Long.parseLong(name.substring("manifest_".length(), name.length() - ".log".length()));
+
+        State state = new State(number);
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        while (buf.remaining() >= RECORD_HEADER_SIZE) {
+            int payloadLength = buf.getInt();
+            int checksum = buf.getInt();
+            if (payloadLength < 0 || payloadLength > buf.remaining()) {
+                break; // torn write at the tail, the edit was never applied
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buf.array(), buf.position(), payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            state.apply(VersionEdit.deserialize(buf.slice(buf.position(), payloadLength)));
+            buf.position(buf.position() + payloadLength);
+        }
+        return state;
+    }
+
+    /**
+     * Table structure obtained by applying edits in order.
+     */
+    public static final class State {
+        private final long manifestNumber;
+        // table id -> level
+        private final TreeMap<Integer, Integer> tables = new TreeMap<>();
+        private int nextTableId = 0;
+        private long lastSnapshotId = 0;
+        private int nextValueLogFileId = 0;
+        // value log file id -> bytes compactions dropped or moved out of it
+        private final TreeMap<Integer, Long> valueLogDiscards = new TreeMap<>();
+
+        public State(long manifestNumber) {
+            this.manifestNumber = manifestNumber;
+        }
+
+        public void apply(VersionEdit edit) {
+            for (int id : edit.removed()) {
+                tables.remove(id);
+            }
+            for (VersionEdit.TableEntry e : edit.added()) {
+                tables.put(e.tableId(), e.level());
+            }
+            nextTableId = Math.max(nextTableId, edit.nextTableId());
+            lastSnapshotId = Math.max(lastSnapshotId, edit.lastSnapshotId());
+            nextValueLogFileId = Math.max(nextValueLogFileId, edit.nextValueLogFileId());
+            valueLogDiscards.putAll(edit.valueLogDiscards());
+        }
+
+        /**
+         * Forgets the discard counts of deleted value log files.
+         */
+        public void retainValueLogFiles(Set<Integer> fileIds) {
+            valueLogDiscards.keySet().retainAll(fileIds);
+        }
+
+        VersionEdit toEdit() {
+            List<VersionEdit.TableEntry> added = new ArrayList<>(tables.size());
+            for (Map.Entry<Integer, Integer> e : tables.entrySet()) {
+                added.add(new VersionEdit.TableEntry(e.getKey(), e.getValue()));
+            }
+            return new VersionEdit(added, List.of(), nextTableId, lastSnapshotId, nextValueLogFileId,
+                    new TreeMap<>(valueLogDiscards));
+        }
+
+        public long manifestNumber() {
+            return manifestNumber;
+        }
+
+        /**
+         * @return live table ids in ascending order mapped to their level
+         */
+        public Map<Integer, Integer> tables() {
+            return tables;
+        }
+
+        public int nextTableId() {
+            return nextTableId;
+        }
+
+        public long lastSnapshotId() {
+            return lastSnapshotId;
+        }
+
+        public int nextValueLogFileId() {
+            return nextValueLogFileId;
+        }
+
+        public Map<Integer, Long> valueLogDiscards() {
+            return valueLogDiscards;
+        }
+    }
+}
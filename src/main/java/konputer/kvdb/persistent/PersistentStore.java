@@ -1,38 +1,267 @@
 package konputer.kvdb.persistent;
 
-import konputer.kvdb.memory.LayerManager;
+import com.google.common.collect.Iterators;
+import konputer.kvdb.DbOptions;
 import konputer.kvdb.Lookup;
+import konputer.kvdb.SnapshotManager;
+import konputer.kvdb.compaction.CompactionScheduler;
+import konputer.kvdb.compaction.CompactionStats;
 import konputer.kvdb.compaction.CompactionStrategy;
 import konputer.kvdb.compaction.LevelingCompaction;
+import konputer.kvdb.compaction.SubcompactionMerger;
+import konputer.kvdb.compaction.TieredCompaction;
+import konputer.kvdb.compaction.ValueLogCollection;
+import konputer.kvdb.compaction.WriteController;
+import konputer.kvdb.metrics.Statistics;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
-import konputer.kvdb.compaction.CompactableLookup;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.utils.RowTransformingIterable;
+import konputer.kvdb.vlog.ValueLog;
+import konputer.kvdb.wal.LogManager;
+import konputer.kvdb.wal.WriteAheadLog;
+import org.jooq.lambda.Seq;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-public class PersistentStore implements AutoCloseable, Lookup {
+import static com.google.common.base.Preconditions.checkState;
 
+public class PersistentStore implements AutoCloseable, Lookup {
+    private static final Pattern TABLE_FILE = Pattern.compile("tbl_(\\d+)\\.sstable(\\.index)?");
+    private static final Pattern MANIFEST_FILE = Pattern.compile("manifest_(\\d+)\\.log");
+    // releases versions pinned by range iterators that were dropped before reaching their end
+    private static final Cleaner ITERATOR_CLEANER = Cleaner.create();
 
     private final AtomicInteger currentTblId = new AtomicInteger(0);
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+    private final AtomicLong compactionReadBytes = new AtomicLong();
+    private final Statistics statistics = new Statistics();
+    private final DbOptions options;
+    private final BlockCache blockCache;
+    private final ValueLog valueLog;
+
+
 
+    // L0 holds overlapping tables and every other layer is a SortedRun, newer data sits in lower layers.
+    // Replaced under the lock of this, read without it
+    private volatile Version current = Version.empty();
+    private final ExecutorService subcompactionExecutor;
+    // null if multiGet probes the sorted runs on the calling thread
+    private final ExecutorService multiGetExecutor;
 
+    private final CompactionStrategy compactionStrategy;
+    private final WriteController writeController;
+    private final CompactionScheduler compactionScheduler;
+
+    // guarded by this, every change of the layers is recorded in the manifest before it is applied
+    private final Manifest.State state;
+    private Manifest manifest;
+    private volatile SnapshotManager snapshots;
+
+    /**
+     * Starts an empty store. A directory that already holds tables, logs, value logs or a manifest is refused,
+     * an existing database is loaded with {@link #open(DbOptions)}.
+     */
+    public PersistentStore(DbOptions options) {
+        this(requireEmptyDirectory(options), new Manifest.State(0));
+        try {
+            startManifest();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create manifest", e);
+        }
+    }
+
+    // checked before any thread is started, a later open would recover the old files alongside the new ones
+    private static DbOptions requireEmptyDirectory(DbOptions options) {
+        Path directory = options.directory();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create directory " + directory, e);
+        }
+        String[] tables = directory.toFile().list((dir, name) -> TABLE_FILE.matcher(name).matches());
+        boolean hasData = Manifest.exists(directory) || (tables != null && tables.length > 0)
+                || !LogManager.existingLogIds(directory).isEmpty() || ValueLog.hasFiles(directory);
+        checkState(!hasData, "%s already holds a database, open it with Db.open", directory);
+        return options;
+    }
+
+    private PersistentStore(DbOptions options, Manifest.State state) {
+        this.options = options;
+        this.state = state;
+        this.blockCache = new BlockCache(options.blockCacheCapacity(), options.blockCacheShards(), options.cacheDecodedBlocks());
+        this.valueLog = new ValueLog(options.directory(), options.valueLogThreshold(), options.valueLogGcThreshold(),
+                options.valueLogFileSize());
+        AtomicInteger threadId = new AtomicInteger();
+        this.subcompactionExecutor = Executors.newFixedThreadPool(options.maxSubcompactions(), r -> {
+            Thread t = new Thread(r, "subcompaction-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger multiGetThreadId = new AtomicInteger();
+        this.multiGetExecutor = options.multiGetThreads() == 0 ? null : Executors.newFixedThreadPool(options.multiGetThreads(), r -> {
+            Thread t = new Thread(r, "multiget-" + multiGetThreadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        SubcompactionMerger merger = new SubcompactionMerger(this, options, subcompactionExecutor);
+        CompactionStrategy strategy = switch (options.compactionStyle()) {
+            case LEVELED -> new LevelingCompaction(this, options, merger);
+            case TIERED -> new TieredCompaction(this, options, merger);
+        };
+        this.compactionStrategy = new ValueLogCollection(strategy, this, merger);
+        this.writeController = new WriteController(options.l0SlowdownWritesTrigger(), options.l0StopWritesTrigger());
+        this.compactionScheduler = new CompactionScheduler(compactionStrategy, options.compactionThreads(), writeController);
+    }
 
-    // uses leveling approach
+    /**
+     * Loads the tables recorded in the manifest of the options directory back into their layers.
+     */
+    public static PersistentStore open(DbOptions options) throws IOException {
+        Manifest.State state = Manifest.recover(options.directory());
+        if (state == null) {
+            // logs of a directory without manifest are still replayed by the caller
+            PersistentStore store = new PersistentStore(options, new Manifest.State(0));
+            store.startManifest();
+            return store;
+        }
+        PersistentStore store = new PersistentStore(options, state);
+        store.recoverTables();
+        store.startManifest();
+        store.writeController.l0TablesChanged(store.current.l0().size());
+        store.compactionScheduler.maybeSchedule();
+        return store;
+    }
+
+    // a fresh manifest per run, so a torn tail of the previous one is never appended to
+    private void startManifest() throws IOException {
+        manifest = Manifest.create(options.directory(), state.manifestNumber() + 1, state);
+        File[] stale = options.directory().toFile().listFiles((dir, name) -> MANIFEST_FILE.matcher(name).matches());
+        File current = Manifest.manifestFile(options.directory(), manifest.number());
+        for (File f : stale == null ? new File[0] : stale) {
+            if (!f.equals(current)) {
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+    }
+
+    private void recoverTables() throws IOException {
+        Map<Integer, Integer> live = state.tables();
+        File[] files = options.directory().toFile().listFiles((dir, name) -> TABLE_FILE.matcher(name).matches());
+        for (File f : files == null ? new File[0] : files) {
+            Matcher m = TABLE_FILE.matcher(f.getName());
+            checkState(m.matches());
+            if (!live.containsKey(Integer.parseInt(m.group(1)))) {
+                // unfinished flush or compaction output, or an input whose deletion didn't complete
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+        currentTblId.set(state.nextTableId());
+
+        valueLog.recover(state.nextValueLogFileId(), state.valueLogDiscards());
+        List<File> tableFiles = Seq.seq(live.keySet()).map(this::tableFile).toList();
+        List<SSTableHandle> tables = new ArrayList<>(openTables(tableFiles));
+        valueLog.deleteUnreferenced();
+        state.retainValueLogFiles(valueLog.fileIds());
+        tables.sort(Comparator.comparingInt(t -> t.getHeader().table_id()));
+        Map<Integer, List<SSTableHandle>> byLevel = tables.stream()
+                .collect(Collectors.groupingBy(t -> live.get(t.getHeader().table_id()), TreeMap::new, Collectors.toList()));
+        synchronized (this) {
+            install(current.apply(byLevel, Set.of()));
+        }
+    }
 
-    private final LayerManager l0;
-    private final ArrayList<CompactableLookup> layers;
+    private List<SSTableHandle> openTables(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            return List.of();
+        }
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SSTableHandle>> futures = new ArrayList<>();
+            for (File f : files) {
+                futures.add(pool.submit(() -> SSTableHandle.open(f, blockCache, valueLog, statistics)));
+            }
+            List<SSTableHandle> opened = new ArrayList<>();
+            IOException failure = null;
+            for (Future<SSTableHandle> future : futures) {
+                try {
+                    opened.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IOException("Failed to open table", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while opening tables", e);
+                }
+            }
+            if (failure != null) {
+                for (SSTableHandle h : opened) {
+                    h.close();
+                }
+                throw failure;
+            }
+            return opened;
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-    private final CompactionStrategy compactionStrategy = new LevelingCompaction(this);
+    /**
+     * Writes the rows of a write-ahead log left by an earlier run into a new level 0 table.
+     *
+     * @return the highest snapshot id found in the log
+     */
+    public long recoverLog(File log) throws IOException {
+        // later records of the same key and snapshot overwrite earlier ones, as they did in the memtable
+        TreeMap<TaggedKey, ValueHolder> rows = new TreeMap<>();
+        WriteAheadLog.replay(log, row -> rows.put(row.key(), row.value()));
+        long maxSnapshot = 0;
+        if (!rows.isEmpty()) {
+            int tblId = nextTblId();
+            try (SSTableContentBuilder builder = new SSTableContentBuilder(tableFile(tblId), tblId, tableOptions(0, false))) {
+                for (var e : rows.entrySet()) {
+                    builder.writeKv(e.getKey(), e.getValue());
+                    maxSnapshot = Math.max(maxSnapshot, e.getKey().snapshotId());
+                }
+                addSSTable(builder.build());
+            }
+        }
+        Files.delete(log.toPath());
+        return maxSnapshot;
+    }
 
-    public PersistentStore() {
-        this.l0 = new LayerManager();
-        this.layers = new ArrayList<>();
-        this.layers.add(l0);
+    /**
+     * @return the highest snapshot id stored in any of the tables, new writes have to be tagged above it
+     */
+    public synchronized long getMaxSnapshotId() {
+        return state.lastSnapshotId();
     }
 
     public int getCurrentTblId() {
@@ -43,46 +272,292 @@ public class PersistentStore implements AutoCloseable, Lookup {
         return currentTblId.getAndIncrement();
     }
 
+    public TableOptions tableOptions(int level, boolean bottommost) {
+        return new TableOptions(options.compression(level, bottommost), blockCache, options.bloomBitsPerKey(), valueLog,
+                statistics);
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public ValueLog getValueLog() {
+        return valueLog;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Lets compactions drop the versions no snapshot of {@code snapshots} reads anymore. Until it is set they
+     * keep only the newest version of each key, there are no snapshots before the database is up.
+     */
+    public void setSnapshotManager(SnapshotManager snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @return ids of the live snapshots, ascending
+     */
+    public long[] liveSnapshots() {
+        SnapshotManager s = snapshots;
+        return s == null ? new long[0] : s.liveSnapshots();
+    }
+
+    public File tableFile(int tblId) {
+        return options.directory().resolve("tbl_" + tblId + ".sstable").toFile();
+    }
+
 
     public void addSSTable(SSTableHandle sstable) {
         if (sstable == null) {
             throw new IllegalArgumentException("SSTableHandle cannot be null");
         }
-        l0.addSSTable(sstable);
-        compactionStrategy.ensureCompacted();
+        logAndApply(Map.of(0, List.of(sstable)), List.of());
+        flushedBytes.addAndGet(sstable.getSize());
+        compactionScheduler.maybeSchedule();
+    }
+
+    /**
+     * Replaces the {@code inputs} with the merged {@code outputs} placed at {@code level}.
+     */
+    public void installCompaction(List<SSTableHandle> outputs, int level, List<SSTableHandle> inputs) {
+        logAndApply(Map.of(level, outputs), inputs);
+        compactedBytes.addAndGet(outputs.stream().mapToLong(SSTableHandle::getSize).sum());
+        compactionReadBytes.addAndGet(inputs.stream().mapToLong(SSTableHandle::getSize).sum());
+        compactionScheduler.maybeSchedule();
     }
 
-    public List<CompactableLookup> getCompactables() {
-        return layers;
+    /**
+     * Moves a table one level down without rewriting it, for tables nothing in the next level overlaps.
+     */
+    public void installMove(SSTableHandle table, int level) {
+        logAndApply(Map.of(level, List.of(table)), List.of(table));
+        compactionScheduler.maybeSchedule();
     }
 
+    /**
+     * Moves the runs of levels {@code from} to {@code to - 1} one level down without rewriting them, freeing
+     * level {@code from}. Level {@code to} must be empty.
+     */
+    public void pushDownLevels(int from, int to) {
+        checkState(from > 0 && from <= to, "Expected 0 < from <= to");
+        Map<Integer, List<SSTableHandle>> moved = new TreeMap<>();
+        List<SSTableHandle> removed = new ArrayList<>();
+        synchronized (this) {
+            checkState(current.level(to).getTables().isEmpty(), "Level %s is not empty", to);
+            for (int level = from; level < to; level++) {
+                List<SSTableHandle> tables = current.level(level).getTables();
+                moved.put(level + 1, tables);
+                removed.addAll(tables);
+            }
+            logAndApply(moved, removed);
+        }
+    }
+
+    private void logAndApply(Map<Integer, List<SSTableHandle>> added, List<SSTableHandle> removed) {
+        List<VersionEdit.TableEntry> entries = new ArrayList<>();
+        added.forEach((level, tables) -> tables.forEach(t -> entries.add(new VersionEdit.TableEntry(t.getHeader().table_id(), level))));
+        List<SSTableHandle> addedTables = added.values().stream().flatMap(List::stream).toList();
+        Set<SSTableHandle> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        gone.addAll(removed);
+        synchronized (this) {
+            // discards of compactions still running are recorded early, they are counted in memory already
+            VersionEdit edit = new VersionEdit(
+                    entries,
+                    Seq.seq(removed).map(t -> t.getHeader().table_id()).toList(),
+                    currentTblId.get(),
+                    Seq.seq(addedTables).mapToLong(SSTableHandle::maxSnapshotId).max().orElse(0),
+                    valueLog.nextFileId(),
+                    valueLog.takeChangedDiscards());
+            try {
+                manifest.append(edit);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write manifest", e);
+            }
+            state.apply(edit);
+            install(current.apply(added, gone));
+            writeController.l0TablesChanged(current.l0().size());
+
+            if (manifest.needsCheckpoint()) {
+                state.retainValueLogFiles(valueLog.fileIds());
+                try {
+                    manifest = manifest.checkpoint(state);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to checkpoint manifest", e);
+                }
+            }
+        }
+        // the edit is durable, the files go once readers of older versions are done with them
+        gone.removeAll(addedTables);
+        for (SSTableHandle t : gone) {
+            t.supersededNotification();
+        }
+    }
+
+    // guarded by this
+    private void install(Version next) {
+        Version previous = current;
+        current = next;
+        previous.unref();
+    }
+
+    /**
+     * @return the current version without pinning it, only for looking at table metadata or at tables that
+     * can't be removed meanwhile, like the inputs of a running compaction
+     */
+    public Version currentVersion() {
+        return current;
+    }
+
+    /**
+     * @return the current version, pinned until the caller calls {@link Version#unref()}
+     */
+    public Version acquireVersion() {
+        while (true) {
+            Version v = current;
+            if (v.tryRef()) {
+                return v;
+            }
+            // v was replaced and released since we read it, unless the store is closed
+            checkState(v != current, "Store is closed");
+        }
+    }
+
+    public CompactionStats getCompactionStats() {
+        Version v = current;
+        int runs = v.l0().size();
+        for (int i = 1; i < v.levelCount(); i++) {
+            runs += v.level(i).getTables().isEmpty() ? 0 : 1;
+        }
+        return new CompactionStats(flushedBytes.get(), compactedBytes.get(), runs);
+    }
+
+    /**
+     * @return bytes of the tables compactions merged since the store was opened, trivial moves read nothing
+     */
+    public long compactionReadBytes() {
+        return compactionReadBytes.get();
+    }
+
+    public WriteController getWriteController() {
+        return writeController;
+    }
+
+    /**
+     * @return rows of all tables in {@code [from, to]} with separated values read back, the tables and value
+     * log files stay readable until the iterator is exhausted or unreachable
+     */
     public Iterator<Row> getRawRange(TaggedKey from, TaggedKey to) {
-        RowTransformingIterable transformer = new RowTransformingIterable(
-                layers.stream().flatMap(l -> l.getRawBlocks(from, to).stream()).toList()
-        );
-        return transformer.iterator();
+        Version v = acquireVersion();
+        try {
+            Iterator<Row> rows = Iterators.transform(new RowTransformingIterable(v.getRawBlocks(from, to)).iterator(),
+                    row -> row.value().isPointer() ? new Row(row.key(), valueLog.resolve(row.value())) : row);
+            return new PinnedIterator(rows, v);
+        } catch (RuntimeException e) {
+            v.unref();
+            throw e;
+        }
+    }
 
+    @Override
+    public ValueHolder get(byte[] key, long snapshotId) throws Exception {
+        Version v = acquireVersion();
+        try {
+            // resolved while pinned, the value log file can't be deleted meanwhile
+            return valueLog.resolve(v.get(key, snapshotId));
+        } finally {
+            v.unref();
+        }
     }
 
     @Override
-    public synchronized ValueHolder get(String key) throws Exception {
-        for (Lookup handle : layers) {
-            var vh = handle.get(key);
-            if (vh != null) {
-                return vh;
+    public void multiGet(byte[][] keys, ValueHolder[] found) throws Exception {
+        Version v = acquireVersion();
+        try {
+            List<Lookup> runs = v.sortedRuns();
+            if (multiGetExecutor == null || runs.size() < 2) {
+                v.multiGet(keys, found);
+            } else {
+                multiGetParallel(runs, keys, found);
+            }
+            for (int i = 0; i < found.length; i++) {
+                found[i] = valueLog.resolve(found[i]);
+            }
+        } finally {
+            v.unref();
+        }
+    }
+
+    // every run probes all keys still missing, so a key found in a newer run is read from older ones as well
+    private void multiGetParallel(List<Lookup> runs, byte[][] keys, ValueHolder[] found) throws Exception {
+        List<Future<ValueHolder[]>> parts = new ArrayList<>(runs.size());
+        for (Lookup run : runs) {
+            ValueHolder[] part = found.clone();
+            parts.add(multiGetExecutor.submit(() -> {
+                run.multiGet(keys, part);
+                return part;
+            }));
+        }
+        for (Future<ValueHolder[]> part : parts) {
+            ValueHolder[] values;
+            try {
+                values = part.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to look up keys", e.getCause());
+            }
+            // newest run first, so the first value found for a key is its newest version
+            for (int i = 0; i < found.length; i++) {
+                if (found[i] == null) {
+                    found[i] = values[i];
+                }
+            }
+        }
+    }
+
+    private static final class PinnedIterator implements Iterator<Row> {
+        private final Iterator<Row> inner;
+        private final Cleaner.Cleanable release;
+
+        PinnedIterator(Iterator<Row> inner, Version version) {
+            this.inner = inner;
+            // must not capture this, or the iterator never becomes unreachable
+            this.release = ITERATOR_CLEANER.register(this, version::unref);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (inner.hasNext()) {
+                return true;
             }
+            release.clean(); // runs at most once
+            return false;
+        }
+
+        @Override
+        public Row next() {
+            return inner.next();
         }
-        return null;
     }
 
     @Override
     public void close() {
-        for (AutoCloseable handle : layers) {
+        // a running compaction still needs the manifest and its input tables
+        compactionScheduler.close();
+        subcompactionExecutor.shutdown();
+        if (multiGetExecutor != null) {
+            multiGetExecutor.shutdown();
+        }
+        writeController.close();
+        synchronized (this) {
             try {
-                handle.close();
-            } catch (Throwable e) {
-                throw new RuntimeException("Error closing handle", e);
+                manifest.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Error closing manifest", e);
             }
+            // tables close now, or when the last open range iterator lets go of them
+            current.unref();
         }
     }
 
@@ -1,65 +1,183 @@
 package konputer.kvdb.persistent;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import konputer.kvdb.compression.Compression;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.metrics.Statistics;
+import konputer.kvdb.vlog.ValueLog;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 
 public class SSTableContentBuilder implements Closeable {
-    private final SSTableHeader header;
+    private final int tableId;
     private final DataOutputStream os;
     private final File file;
     private final FileOutputStream fos;
-
-    TreeMap<TaggedKey, Long> keyOffsets = new TreeMap<>();
-    BloomFilter<String> bloomFilter;
-
-    public SSTableContentBuilder(File f, SSTableHeader header) throws IOException {
-        this.header = header;
+    private final Compression compression;
+    private final BlockCache blockCache;
+    private final int bloomBitsPerKey;
+    private final ValueLog valueLog;
+    private final Statistics statistics;
+    // opened with the first separated value
+    private ValueLog.Writer valueLogWriter;
+    private final Set<Integer> valueLogFiles = new TreeSet<>();
+
+    // rows of the block being built, compressed and written out as a whole once full
+    private final BlockBuilder block = new BlockBuilder();
+    private TaggedKey blockFirstKey;
+    private long position = 0;
+    private long rawSize = 0;
+
+    private final List<TaggedKey> fenceKeys = new ArrayList<>();
+    private final List<Long> blockOffsets = new ArrayList<>();
+    // filter hashes of the distinct user keys, the filter is sized from their count once the table is built
+    private long[] keyHashes = new long[1024];
+    private int keyCount = 0;
+    private TaggedKey lastKey;
+    private long entryCount = 0;
+    private long maxSnapshotId = 0;
+
+    public SSTableContentBuilder(File f, int tableId, TableOptions options) throws IOException {
+        this.tableId = tableId;
         this.file = f;
+        this.compression = options.compression();
+        this.blockCache = options.blockCache();
+        this.bloomBitsPerKey = options.bloomBitsPerKey();
+        this.valueLog = options.valueLog();
+        this.statistics = options.statistics();
         fos = new FileOutputStream(this.file, false);
         this.os = new DataOutputStream(new BufferedOutputStream(fos));
-        bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), 10000);
         writeHeader();
     }
 
-    private long currentBlockSize = Long.MAX_VALUE;
-
     public void writeKv(TaggedKey key, ValueHolder value) throws IOException {
-        this.bloomFilter.put(key.key());
-        if (currentBlockSize >= SSTableHandle.BLOCK_SIZE) {
-            os.flush();
-            keyOffsets.put(key, fos.getChannel().position());
-            currentBlockSize = 0;
+        if (lastKey == null || !lastKey.hasKey(key.bytes())) {
+            if (keyCount == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, keyCount * 2);
+            }
+            keyHashes[keyCount++] = KeyFilter.hash(key.bytes());
+        }
+        if (block.estimatedSize() >= SSTableHandle.BLOCK_SIZE) {
+            finishBlock();
+        }
+        if (blockFirstKey == null) {
+            blockFirstKey = key;
+        }
+        ValueHolder stored = value;
+        if (value.isPointer() && valueLog.needsCollection(value.pointer().fileId())) {
+            // most of the file is garbage, move the value so the file can go once no other table points into it
+            byte[] moved = valueLog.read(value.pointer());
+            valueLog.discard(value.pointer());
+            stored = ValueHolder.ofPointer(valueLogWriter().append(key, moved));
+        } else if (valueLog.separates(value.value())) {
+            stored = ValueHolder.ofPointer(valueLogWriter().append(key, value.value()));
+        }
+        if (stored.isPointer()) {
+            valueLogFiles.add(stored.pointer().fileId());
+        }
+        block.add(key, stored);
+        lastKey = key;
+        entryCount++;
+        maxSnapshotId = Math.max(maxSnapshotId, key.snapshotId());
+    }
+
+    private ValueLog.Writer valueLogWriter() throws IOException {
+        if (valueLogWriter == null) {
+            valueLogWriter = valueLog.newWriter();
+        }
+        return valueLogWriter;
+    }
+
+    // block framing: [byte compression id][int raw length][int stored length][stored bytes]
+    private void finishBlock() throws IOException {
+        if (blockFirstKey == null) {
+            return;
+        }
+        byte[] raw = block.finish();
+        int rawLength = raw.length;
+        Compression used = compression;
+        byte[] stored = compression.compress(raw, rawLength);
+        if (stored.length >= rawLength) {
+            // incompressible, don't pay for decompression on every read
+            used = Compression.NONE;
+            stored = raw;
         }
-        long keyLen = key.serialize(os);
-        long valLen = value.serialize(os);
 
+        fenceKeys.add(blockFirstKey);
+        blockOffsets.add(position);
+        rawSize += rawLength;
+        os.writeByte(used.id());
+        os.writeInt(rawLength);
+        os.writeInt(stored.length);
+        os.write(stored);
+        position += SSTableHandle.BLOCK_FRAME_HEADER_SIZE + stored.length;
 
-        currentBlockSize += keyLen + valLen;
+        blockFirstKey = null;
     }
 
+    // the size is only known in build(), which writes the header again
     private void writeHeader() throws IOException {
-        this.header.serialize(this.os);
+        new SSTableHeader(tableId, 0).serialize(this.os);
+        position += SSTableHeader.SIZE;
+    }
+
+    /**
+     * @return bytes written to the table so far, including the block being built
+     */
+    public long estimatedSize() {
+        return position + block.estimatedSize();
+    }
+
+    /**
+     * @return bytes of values the build appended to value log files, moved ones included
+     */
+    public long valueLogBytes() {
+        return valueLogWriter == null ? 0 : valueLogWriter.appendedBytes();
     }
 
     public SSTableHandle build() throws IOException {
+        finishBlock();
+        if (valueLogWriter != null) {
+            valueLogWriter.finish();
+        }
         os.flush();
-        File indexf = new File(file.getAbsolutePath() + ".index");
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(indexf))) {
-            oos.writeObject(keyOffsets);
-            oos.writeObject(bloomFilter);
+        SSTableHeader header = new SSTableHeader(tableId, rawSize);
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(SSTableHeader.SIZE);
+        header.serialize(new DataOutputStream(headerBytes));
+        fos.getChannel().write(ByteBuffer.wrap(headerBytes.toByteArray()), 0);
+        // the table replaces write-ahead log segments, so it has to be on disk before we return
+        fos.getChannel().force(true);
+        KeyFilter filter = KeyFilter.create(keyCount, bloomBitsPerKey);
+        for (int i = 0; i < keyCount; i++) {
+            filter.put(keyHashes[i]);
         }
+        File indexf = SSTableHandle.indexFile(file);
+        SSTableIndex.write(indexf, fenceKeys, blockOffsets, lastKey, entryCount, maxSnapshotId, filter,
+                valueLogFiles.stream().mapToInt(Integer::intValue).toArray());
 
-        return SSTableHandle.create(file, header, keyOffsets, bloomFilter);
+        return SSTableHandle.create(file, header, SSTableIndex.open(indexf), blockCache, valueLog, statistics);
     }
 
 
+    /**
+     * Closes and deletes a table that won't be built.
+     */
+    public void abandon() throws IOException {
+        close();
+        if (valueLogWriter != null) {
+            valueLogWriter.abandon();
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
     @Override
     public void close() throws IOException {
         this.os.close();
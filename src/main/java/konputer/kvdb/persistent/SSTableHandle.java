@@ -1,14 +1,20 @@
 package konputer.kvdb.persistent;
 
-import com.google.common.hash.BloomFilter;
 import konputer.kvdb.*;
+import konputer.kvdb.compression.Compression;
 import konputer.kvdb.compaction.Compactable;
 import konputer.kvdb.compaction.CompactableLookup;
+import konputer.kvdb.dtos.Keys;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.dtos.ValuePointer;
 import konputer.kvdb.memory.MemTable;
+import konputer.kvdb.metrics.PerfContext;
+import konputer.kvdb.metrics.Statistics;
 import konputer.kvdb.utils.RowTransformingIterable;
+import konputer.kvdb.utils.VarInts;
+import konputer.kvdb.vlog.ValueLog;
 import org.jooq.lambda.Seq;
 
 import java.io.Closeable;
@@ -18,73 +24,126 @@ import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableMap;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class SSTableHandle implements Closeable, CompactableLookup, Compactable, Lookup {
 
     public static final int BLOCK_SIZE = 1024;
+    public static final int BLOCK_FRAME_HEADER_SIZE = 1 + 2 * Integer.BYTES;
     private final File file;
     private final SSTableHeader header;
     private final FileChannel is;
     private final MappedByteBuffer isMap;
-    private final NavigableMap<TaggedKey, Long> keyOffsets;
+    private final SSTableIndex index;
     private final long fileEnd;
-    private final BloomFilter<String> bloomFilter;
-
-    public SSTableHandle(File file, FileChannel raf, SSTableHeader header, NavigableMap<TaggedKey, Long> keyOffsets, BloomFilter<String> bloomFilter) throws IOException {
+    private final BlockCache blockCache;
+    private final ValueLog valueLog;
+    private final Statistics statistics;
+    private final int[] valueLogFiles;
+    private boolean valueLogsReleased = false; // guarded by this
+    // versions holding the table, it is closed once the last of them is released
+    private final AtomicInteger refs = new AtomicInteger();
+    private volatile boolean superseded = false;
+
+    public SSTableHandle(File file, FileChannel raf, SSTableHeader header, SSTableIndex index, BlockCache blockCache,
+                         ValueLog valueLog, Statistics statistics) throws IOException {
         this.file = file;
+        this.blockCache = blockCache;
+        this.valueLog = valueLog;
+        this.statistics = statistics;
         fileEnd = file.length();
         this.is = raf;
-        this.bloomFilter = bloomFilter;
         this.isMap = this.is.map(FileChannel.MapMode.READ_ONLY, 0, fileEnd);
         this.header = header;
-        this.keyOffsets = keyOffsets;
+        this.index = index;
+        this.valueLogFiles = index.valueLogFiles();
+        valueLog.retain(valueLogFiles);
+    }
+
+    public static SSTableHandle create(File file, SSTableHeader header, SSTableIndex index, BlockCache blockCache,
+                                       ValueLog valueLog, Statistics statistics) throws IOException {
+        return new SSTableHandle(file, FileChannel.open(file.toPath(), StandardOpenOption.READ), header, index, blockCache,
+                valueLog, statistics);
+    }
+
+    /**
+     * Opens a table written by an earlier run, the header is read back from the start of the data file.
+     */
+    public static SSTableHandle open(File file, BlockCache blockCache, ValueLog valueLog, Statistics statistics)
+            throws IOException {
+        SSTableIndex index = SSTableIndex.open(indexFile(file));
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(SSTableHeader.SIZE);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, buf.position()) < 0) {
+                    throw new IOException("Truncated SSTable header: " + file);
+                }
+            }
+            return new SSTableHandle(file, ch, SSTableHeader.deserialize(buf.flip()), index, blockCache, valueLog,
+                    statistics);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
     }
 
-    public static SSTableHandle create(File file, SSTableHeader header, NavigableMap<TaggedKey, Long> ketOffsets, BloomFilter<String> bloomFilter) throws IOException {
-        return new SSTableHandle(file, FileChannel.open(file.toPath(), StandardOpenOption.READ), header, ketOffsets, bloomFilter);
+    public static File indexFile(File tableFile) {
+        return new File(tableFile.getPath() + ".index");
     }
 
-    public static SSTableHandle writeMemTable(MemTable memtable, File file, int tblId) throws IOException {
+    public static SSTableHandle writeMemTable(MemTable memtable, File file, int tblId, TableOptions options) throws IOException {
         //TODO: use something like Apache Avro for better serialization that supports schema evolution
-        try (SSTableContentBuilder builder = new SSTableContentBuilder(file, new SSTableHeader(tblId, memtable.size()))) {
+        try (SSTableContentBuilder builder = new SSTableContentBuilder(file, tblId, options)) {
             memtable.serialize(builder);
             return builder.build();
         }
     }
 
-    private long beginSearchOffset(TaggedKey key) {
-        // This method is used to find the offset of the key in the SSTable
-        // It uses binary search on the keyOffsets map to find the closest key
-        var entry = keyOffsets.floorEntry(key);
-        if (entry != null) {
-            return entry.getValue();
-        }
-        return -1;
+    ByteBuffer getBlockAt(long offset) {
+        return getCachedBlock(offset, true).data();
     }
 
-    private long endSearchOffset(TaggedKey key) {
-        // This method is used to find the end offset of the key in the SSTable
-        // It uses binary search on the keyOffsets map to find the next key
-        var entry = keyOffsets.higherEntry(key);
-        if (entry != null) {
-            return entry.getValue();
+    // fillCache is false for compaction reads, a one-off full scan would only flush the hot blocks and skew the
+    // hit rate. Uncompressed blocks are slices of the mapped file, only their decoded rows are worth an entry
+    private BlockCache.CachedBlock getCachedBlock(long offset, boolean fillCache) {
+        boolean cache = fillCache && (blockCompression(offset) != Compression.NONE || blockCache.cachesDecodedRows());
+        PerfContext perf = PerfContext.current();
+        if (cache) {
+            BlockCache.CachedBlock cached = blockCache.get(header.table_id(), offset);
+            if (cached != null) {
+                if (perf != null) {
+                    perf.blockCacheHit();
+                }
+                return cached;
+            }
         }
-        return -1;
-
-
+        long start = perf == null ? 0 : System.nanoTime();
+        ByteBuffer data = readBlock(offset);
+        if (perf != null) {
+            perf.blockRead(System.nanoTime() - start);
+        }
+        return cache ? blockCache.put(header.table_id(), offset, data) : blockCache.new CachedBlock(data);
     }
 
-    ByteBuffer getBlockAt(long beginOffset, long endOffset) {
-        if (beginOffset < 0 || endOffset > fileEnd || beginOffset >= endOffset) {
-            throw new IllegalArgumentException("Invalid offsets: beginOffset=" + beginOffset + ", endOffset=" + endOffset);
+    private Compression blockCompression(long offset) {
+        if (offset < 0 || offset + BLOCK_FRAME_HEADER_SIZE > fileEnd) {
+            throw new IllegalArgumentException("Invalid block offset: " + offset);
         }
-        return isMap.slice((int) beginOffset, (int) (endOffset - beginOffset));
+        return Compression.fromId(isMap.get((int) offset));
+    }
+
+    private ByteBuffer readBlock(long offset) {
+        Compression compression = blockCompression(offset);
+        int pos = (int) offset;
+        int rawLength = isMap.getInt(pos + 1);
+        int storedLength = isMap.getInt(pos + 1 + Integer.BYTES);
+        return compression.decompress(isMap.slice(pos + BLOCK_FRAME_HEADER_SIZE, storedLength), rawLength);
     }
 
     public Iterator<Row> getRawRange(TaggedKey from, TaggedKey to) {
@@ -105,27 +164,154 @@ public final class SSTableHandle implements Closeable, CompactableLookup, Compac
             throw new IllegalArgumentException("from key must be less than or equal to to key");
         }
 
-        return Seq.seq(keyOffsets.subMap(from, true, to, true).values()).window(0, 1).map(window -> getBlockAt(window.nthValue(0).orElseThrow(), window.nthValue(1).orElse(fileEnd))).iterator();
+        // the block holding `from` starts at or before it
+        int first = Math.max(index.floorBlock(from), 0);
+        int last = index.floorBlock(to);
+        return Seq.range(first, last + 1).map(i -> getBlockAt(index.blockOffset(i))).iterator();
 
     }
 
     @Override
     public List<Iterator<ByteBuffer>> getBlocks() {
-        return List.of(Seq.seq(keyOffsets.values()).window(0, 1).map(window -> getBlockAt(window.nthValue(0).orElseThrow(), window.nthValue(1).orElse(fileEnd))).iterator());
+        return List.of(Seq.range(0, index.blockCount()).map(i -> getCachedBlock(index.blockOffset(i), false).data()).iterator());
+    }
+
+    /**
+     * Blocks that may hold user keys in {@code [from, to)}, null bounds are open. Bypasses the block cache.
+     */
+    public Iterator<ByteBuffer> compactionBlocks(byte[] from, byte[] to) {
+        int first = from == null ? 0 : Math.max(index.floorBlock(new TaggedKey(from, 0)), 0);
+        int last = to == null ? index.blockCount() - 1 : index.floorBlock(new TaggedKey(to, 0));
+        return Seq.range(first, last + 1).map(i -> getCachedBlock(index.blockOffset(i), false).data()).iterator();
     }
 
+    /**
+     * Reads the rows of a block laid out by {@link BlockBuilder}, front to back.
+     */
     public static class RowAwareBlock {
 
         private final ByteBuffer block;
+        private final PerfContext perf = PerfContext.current();
+        private final int restartsPos;
+        private final int restartCount;
+        // key of the current entry, rebuilt from the shared prefix of the one before it
+        private byte[] key = new byte[64];
+        private int keyLength = 0;
+        private long snapshotId;
+        private int valueTag;
+        private int entryStart;
         boolean valueNext = false;
 
         public RowAwareBlock(ByteBuffer block) {
             this.block = block;
+            this.restartCount = block.getInt(block.limit() - Integer.BYTES);
+            this.restartsPos = block.limit() - (restartCount + 1) * Integer.BYTES;
             block.position(0);
         }
 
         boolean hasMore() {
-            return block.hasRemaining();
+            return block.position() < restartsPos;
+        }
+
+        /**
+         * Positions the block at the last restart point whose key is not after {@code key}, the start if there
+         * is none. Restart keys are stored in full and compared where they lie.
+         */
+        public void seek(byte[] key) {
+            if (valueNext) {
+                throw new IllegalStateException("seek() must be called before nextKey()");
+            }
+            int lo = 0;
+            int hi = restartCount - 1;
+            int found = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                block.position(restartOffset(mid));
+                VarInts.readInt(block); // shared, always 0 at a restart
+                int unshared = VarInts.readInt(block);
+                VarInts.readInt(block);
+                if (Keys.compare(block, block.position(), unshared, key) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            block.position(restartCount == 0 ? 0 : restartOffset(found));
+            keyLength = 0;
+        }
+
+        /**
+         * Like {@link #seek(byte[])} for a {@code key} not before the entries read so far, never moves back.
+         */
+        void seekForward(byte[] key) {
+            if (valueNext) {
+                throw new IllegalStateException("seekForward() must be called before nextKey()");
+            }
+            int lo = 0;
+            int hi = restartCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (restartOffset(mid) <= block.position()) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            // lo is the first restart point ahead of the position
+            int from = block.position();
+            hi = restartCount - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                block.position(restartOffset(mid));
+                VarInts.readInt(block);
+                int unshared = VarInts.readInt(block);
+                VarInts.readInt(block);
+                if (Keys.compare(block, block.position(), unshared, key) <= 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            block.position(found < 0 ? from : restartOffset(found));
+        }
+
+        /**
+         * Steps back over the key just read, so the next {@link #nextKey()} reads it again.
+         */
+        void unread() {
+            if (!valueNext) {
+                throw new IllegalStateException("nextKey() must be called before unread()");
+            }
+            // the entry only rewrote the key past its shared prefix, which reading it again restores
+            block.position(entryStart);
+            valueNext = false;
+        }
+
+        private int restartOffset(int restart) {
+            return block.getInt(restartsPos + restart * Integer.BYTES);
+        }
+
+        private void readEntryHeader() {
+            if (valueNext) {
+                throw new IllegalStateException("nextKey() must be called before nextValue() or skipValue()");
+            }
+            valueNext = true;
+            if (perf != null) {
+                perf.rowDecoded();
+            }
+            entryStart = block.position();
+            int shared = VarInts.readInt(block);
+            int unshared = VarInts.readInt(block);
+            valueTag = VarInts.readInt(block);
+            keyLength = shared + unshared;
+            if (keyLength > key.length) {
+                key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+            }
+            block.get(key, shared, unshared);
+            snapshotId = VarInts.readLong(block);
         }
 
         public Iterator<Row> rowIterator() {
@@ -145,12 +331,25 @@ public final class SSTableHandle implements Closeable, CompactableLookup, Compac
             };
         }
 
+        /**
+         * Steps over the next key like {@link #nextKey()}, comparing its user key with {@code key} instead of
+         * copying it out.
+         */
+        public int compareNextKey(byte[] key) {
+            readEntryHeader();
+            return Arrays.compareUnsigned(this.key, 0, keyLength, key, 0, key.length);
+        }
+
+        /**
+         * @return snapshot id of the key read last
+         */
+        long snapshotId() {
+            return snapshotId;
+        }
+
         public TaggedKey nextKey() {
-            if (valueNext) {
-                throw new IllegalStateException("nextKey() must be called before nextValue() or skipValue()");
-            }
-            valueNext = true;
-            return TaggedKey.deserialize(block);
+            readEntryHeader();
+            return new TaggedKey(Arrays.copyOf(key, keyLength), snapshotId);
         }
 
         public long skipValue() {
@@ -158,51 +357,263 @@ public final class SSTableHandle implements Closeable, CompactableLookup, Compac
                 throw new IllegalStateException("nextKey() must be called before skipValue()");
             }
 
-            int valueLength = block.getInt();
-            int currentOffset = block.position() + Integer.max(valueLength, 0);
-            block.position(currentOffset);
+            if (valueTag == BlockBuilder.POINTER_TAG) {
+                readPointer();
+            } else if (valueTag >= BlockBuilder.INLINE_TAG) {
+                block.position(block.position() + valueTag - BlockBuilder.INLINE_TAG);
+            }
             valueNext = false;
-            return currentOffset;
+            return block.position();
         }
 
         public ValueHolder nextValue() {
             if (!valueNext) {
                 throw new IllegalStateException("nextKey() must be called before nextValue()");
             }
+            valueNext = false;
+            if (valueTag == BlockBuilder.TOMBSTONE_TAG) {
+                return ValueHolder.tombstone();
+            }
+            if (valueTag == BlockBuilder.POINTER_TAG) {
+                return ValueHolder.ofPointer(readPointer());
+            }
+            byte[] value = new byte[valueTag - BlockBuilder.INLINE_TAG];
+            block.get(value);
+            return new ValueHolder(value);
+        }
 
-            return ValueHolder.deserialize(block);
+        private ValuePointer readPointer() {
+            return new ValuePointer(VarInts.readInt(block), VarInts.readLong(block), VarInts.readInt(block));
         }
 
     }
 
-    @Override
-    public ValueHolder get(String key) throws Exception {
+    // where the last lookup of a multiGet stopped, keys are looked up in order so the next one starts there
+    private final class BlockCursor {
+        private int block = -1;
+        private BlockCache.CachedBlock cached;
+        private RowAwareBlock rows;
+
+        BlockCache.CachedBlock cachedBlock(int block) {
+            if (block != this.block) {
+                cached = getCachedBlock(index.blockOffset(block), true);
+                rows = null;
+                this.block = block;
+            }
+            return cached;
+        }
 
-        if (!bloomFilter.mightContain(key)) {
+        RowAwareBlock rowsAt(int block, byte[] key) {
+            if (block == this.block && rows != null) {
+                rows.seekForward(key);
+            } else {
+                rows = new RowAwareBlock(cachedBlock(block).data());
+                rows.seek(key);
+            }
+            return rows;
+        }
+    }
+
+    @Override
+    public ValueHolder get(byte[] key, long snapshotId) {
+        PerfContext perf = PerfContext.current();
+        boolean passed = index.mightContain(key);
+        if (perf != null) {
+            perf.tableChecked();
+            perf.bloomProbe(passed);
+        }
+        if (!passed) {
+            statistics.bloomProbe(false, false);
             return null;
         }
+        ValueHolder found = get(key, snapshotId, new BlockCursor());
+        statistics.bloomProbe(true, found != null);
+        return found;
+    }
+
+    @Override
+    public void multiGet(byte[][] keys, ValueHolder[] found) {
+        multiGet(keys, 0, keys.length, found);
+    }
+
+    /**
+     * Like {@link #multiGet(byte[][], ValueHolder[])} for the keys in {@code [from, to)}.
+     */
+    void multiGet(byte[][] keys, int from, int to, ValueHolder[] found) {
+        BlockCursor cursor = new BlockCursor();
+        PerfContext perf = PerfContext.current();
+        for (int i = from; i < to; i++) {
+            if (found[i] != null) {
+                continue;
+            }
+            boolean passed = index.mightContain(keys[i]);
+            if (perf != null) {
+                perf.tableChecked();
+                perf.bloomProbe(passed);
+            }
+            if (passed) {
+                found[i] = get(keys[i], Long.MAX_VALUE, cursor);
+            }
+            statistics.bloomProbe(passed, found[i] != null);
+        }
+    }
+
+    private ValueHolder get(byte[] key, long snapshotId, BlockCursor cursor) {
+        // versions of a key may spill over several blocks, the newest one is the last in the table
+        int firstBlock = Math.max(index.floorBlock(new TaggedKey(key, 0), cursor.block), 0);
+        if (blockCache.cachesDecodedRows()) {
+            return getFromDecodedRows(key, snapshotId, firstBlock, cursor);
+        }
+        ValueHolder found = null;
+        for (int block = firstBlock; block < index.blockCount(); block++) {
+            RowAwareBlock rowAwareBlock = cursor.rowsAt(block, key);
+            while (rowAwareBlock.hasMore()) {
+                int cmp = rowAwareBlock.compareNextKey(key);
+                if (cmp > 0) {
+                    rowAwareBlock.unread(); // may be the next key looked up
+                    return found;
+                }
+                if (cmp == 0 && rowAwareBlock.snapshotId() <= snapshotId) {
+                    found = rowAwareBlock.nextValue();
+                } else {
+                    rowAwareBlock.skipValue(); // another key or a version newer than the snapshot
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private ValueHolder getFromDecodedRows(byte[] key, long snapshotId, int firstBlock, BlockCursor cursor) {
+        ValueHolder found = null;
+        TaggedKey newest = new TaggedKey(key, snapshotId);
+        for (int block = firstBlock; block < index.blockCount(); block++) {
+            Row[] rows = cursor.cachedBlock(block).rows(header.table_id(), index.blockOffset(block));
+            // index of the last row <= (key, snapshot), the newest visible version of key in this block if present
+            int idx = Arrays.binarySearch(rows, new Row(newest, null));
+            int last = idx >= 0 ? idx : -idx - 2;
+            if (last >= 0 && rows[last].key().hasKey(key)) {
+                found = rows[last].value();
+            }
+            if (last < rows.length - 1) {
+                return found; // the block has keys past ours, later blocks can't hold it
+            }
+        }
+        return found;
+    }
+
+    public RowCursor cursor() {
+        return new TableCursor();
+    }
+
+    // walks the decoded rows of one block at a time, keeps the block it is on until it moves off it
+    private final class TableCursor implements RowCursor {
+        private final PerfContext perf = PerfContext.current();
+        private int block = -1;
+        private Row[] rows = new Row[0];
+        private int pos = -1;
+
+        private void load(int block) {
+            if (this.block == -1 && perf != null) {
+                perf.tableChecked();
+            }
+            if (block != this.block) {
+                long offset = index.blockOffset(block);
+                rows = getCachedBlock(offset, true).rows(header.table_id(), offset);
+                this.block = block;
+            }
+        }
 
+        // steps onto the next block while past the end of this one, invalid past the last block
+        private void forward() {
+            while (pos >= rows.length) {
+                if (block + 1 >= index.blockCount()) {
+                    pos = -1;
+                    return;
+                }
+                load(block + 1);
+                pos = 0;
+            }
+        }
 
-        long endOffsetRaw = endSearchOffset(new TaggedKey(key, Long.MAX_VALUE));
-        long endOffset = endOffsetRaw == -1 ? (fileEnd) : endOffsetRaw;
-        long beginOffset = beginSearchOffset(new TaggedKey(key, 0));
-        if (beginOffset == -1) {
-            return null; // empty or not found
+        private void backward() {
+            while (pos < 0) {
+                if (block <= 0) {
+                    return;
+                }
+                load(block - 1);
+                pos = rows.length - 1;
+            }
         }
 
-        ByteBuffer buf = getBlockAt(beginOffset, endOffset);
-        RowAwareBlock rowAwareBlock = new RowAwareBlock(buf);
+        @Override
+        public boolean isValid() {
+            return pos >= 0 && pos < rows.length;
+        }
 
-        while (rowAwareBlock.hasMore()) {
-            TaggedKey currentKey = rowAwareBlock.nextKey();
-            if (currentKey.key().equals(key)) {
-                return rowAwareBlock.nextValue();
-            } else {
-                rowAwareBlock.skipValue(); // Skip the value if the key does not match
+        @Override
+        public void seek(TaggedKey key) {
+            if (index.blockCount() == 0) {
+                pos = -1;
+                return;
             }
+            load(Math.max(index.floorBlock(key), 0));
+            int idx = Arrays.binarySearch(rows, new Row(key, null));
+            pos = idx >= 0 ? idx : -idx - 1;
+            forward();
         }
 
-        return null;
+        @Override
+        public void seekForPrev(TaggedKey key) {
+            int first = index.floorBlock(key);
+            if (first < 0) {
+                pos = -1;
+                return;
+            }
+            load(first);
+            int idx = Arrays.binarySearch(rows, new Row(key, null));
+            pos = idx >= 0 ? idx : -idx - 2;
+            backward();
+        }
+
+        @Override
+        public void seekToFirst() {
+            if (index.blockCount() == 0) {
+                pos = -1;
+                return;
+            }
+            load(0);
+            pos = 0;
+            forward();
+        }
+
+        @Override
+        public void seekToLast() {
+            if (index.blockCount() == 0) {
+                pos = -1;
+                return;
+            }
+            load(index.blockCount() - 1);
+            pos = rows.length - 1;
+            backward();
+        }
+
+        @Override
+        public void next() {
+            pos++;
+            forward();
+        }
+
+        @Override
+        public void prev() {
+            pos--;
+            backward();
+        }
+
+        @Override
+        public Row row() {
+            return rows[pos];
+        }
     }
 
     @Override
@@ -210,12 +621,39 @@ public final class SSTableHandle implements Closeable, CompactableLookup, Compac
         is.close();
     }
 
+    void ref() {
+        refs.incrementAndGet();
+    }
+
+    void unref() {
+        if (refs.decrementAndGet() == 0) {
+            release();
+        }
+    }
+
+    /**
+     * Deletes the table once no version holds it anymore, right away if none ever did.
+     */
     @Override
     public void supersededNotification() {
+        superseded = true;
+        if (refs.get() == 0) {
+            release();
+        }
+    }
+
+    // may run twice when the last unref races with supersededNotification, both steps are idempotent
+    private synchronized void release() {
         try {
             close();
-            Files.deleteIfExists(file.toPath());
-            Files.deleteIfExists(Path.of(file.toPath() + ".index"));
+            if (superseded) {
+                Files.deleteIfExists(file.toPath());
+                Files.deleteIfExists(indexFile(file).toPath());
+                if (!valueLogsReleased) {
+                    valueLogsReleased = true;
+                    valueLog.release(valueLogFiles);
+                }
+            }
         } catch (Throwable e) {
             throw new RuntimeException("Error deleting SSTableHandle", e);
         }
@@ -225,4 +663,31 @@ public final class SSTableHandle implements Closeable, CompactableLookup, Compac
     public long getSize() {
         return header.size();
     }
+
+    public TaggedKey firstKey() {
+        return index.blockCount() == 0 ? null : index.fenceKey(0);
+    }
+
+    public TaggedKey lastKey() {
+        return index.lastKey();
+    }
+
+    public SSTableIndex getIndex() {
+        return index;
+    }
+
+    public SSTableHeader getHeader() {
+        return header;
+    }
+
+    public long maxSnapshotId() {
+        return index.maxSnapshotId();
+    }
+
+    /**
+     * @return ids of the value log files the table points into
+     */
+    public int[] valueLogFiles() {
+        return valueLogFiles.clone();
+    }
 }
@@ -2,13 +2,21 @@ package konputer.kvdb.persistent;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public record SSTableHeader(
         int table_id,
         long size
 ) {
+    // a table's level lives in the manifest only, trivial moves change it without rewriting the table
+    public static final int SIZE = Integer.BYTES + Long.BYTES;
+
     public void serialize(DataOutputStream os) throws IOException {
         os.writeInt(table_id);
         os.writeLong(size);
     }
+
+    public static SSTableHeader deserialize(ByteBuffer buf) {
+        return new SSTableHeader(buf.getInt(), buf.getLong());
+    }
 }
@@ -0,0 +1,199 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.dtos.TaggedKey;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Block index and key filter of an SSTable, stored next to it as {@code <table>.index} and read in place
+ * from a memory mapping.
+ * <p>
+ * Layout, all integers big endian:
+ * <pre>
+ * fence keys   blockCount x [int keyLength][key utf8][long snapshotId][long blockOffset]
+ * last key     [int keyLength][key utf8][long snapshotId]
+ * fence table  blockCount x [int position of the fence key entry]
+ * padding      zeros up to the next multiple of 64 bytes
+ * filter       filterWords x [long], {@link KeyFilter} blocks starting on a cache line boundary
+ * value logs   valueLogCount x [int fileId], the value log files the table points into
+ * footer       [long fenceTablePos][int blockCount][long filterPos][int filterWords][int filterHashes]
+ *              [long lastKeyPos][long entryCount][long maxSnapshotId][long valueLogsPos][int valueLogCount]
+ *              [int version][int magic]
+ * </pre>
+ */
+public final class SSTableIndex {
+    public static final int MAGIC = 0x4B564958; // "KVIX"
+    public static final int VERSION = 5; // tables of older versions have other block layouts
+    static final int FOOTER_SIZE = 6 * Long.BYTES + 6 * Integer.BYTES;
+
+    private final ByteBuffer map;
+    private final int fenceTablePos;
+    private final int blockCount;
+    private final KeyFilter filter;
+    private final TaggedKey lastKey;
+    private final long entryCount;
+    private final long maxSnapshotId;
+    private final int[] valueLogFiles;
+
+    private SSTableIndex(ByteBuffer map) {
+        this.map = map;
+        int footer = map.capacity() - FOOTER_SIZE;
+        if (footer < 0 || map.getInt(map.capacity() - Integer.BYTES) != MAGIC) {
+            throw new IllegalStateException("Not an SSTable index");
+        }
+        int version = map.getInt(map.capacity() - 2 * Integer.BYTES);
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported SSTable index version " + version);
+        }
+        this.fenceTablePos = (int) map.getLong(footer);
+        this.blockCount = map.getInt(footer + Long.BYTES);
+        int filterPos = (int) map.getLong(footer + Long.BYTES + Integer.BYTES);
+        int filterWords = map.getInt(footer + 2 * Long.BYTES + Integer.BYTES);
+        int filterHashes = map.getInt(footer + 2 * Long.BYTES + 2 * Integer.BYTES);
+        int lastKeyPos = (int) map.getLong(footer + 2 * Long.BYTES + 3 * Integer.BYTES);
+        this.entryCount = map.getLong(footer + 3 * Long.BYTES + 3 * Integer.BYTES);
+        this.maxSnapshotId = map.getLong(footer + 4 * Long.BYTES + 3 * Integer.BYTES);
+        int valueLogsPos = (int) map.getLong(footer + 5 * Long.BYTES + 3 * Integer.BYTES);
+        this.valueLogFiles = new int[map.getInt(footer + 6 * Long.BYTES + 3 * Integer.BYTES)];
+        map.slice(valueLogsPos, valueLogFiles.length * Integer.BYTES).asIntBuffer().get(valueLogFiles);
+        this.filter = KeyFilter.wrap(map.slice(filterPos, filterWords * Long.BYTES).asLongBuffer(), filterHashes);
+        this.lastKey = blockCount == 0 ? null : TaggedKey.deserialize(map.slice(lastKeyPos, map.capacity() - lastKeyPos));
+    }
+
+    public static SSTableIndex open(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new SSTableIndex(map);
+        }
+    }
+
+    public static void write(File file, List<TaggedKey> fenceKeys, List<Long> blockOffsets, TaggedKey lastKey,
+                             long entryCount, long maxSnapshotId, KeyFilter filter, int[] valueLogFiles) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file, false);
+             DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos))) {
+            long pos = 0;
+            int[] fencePositions = new int[fenceKeys.size()];
+            for (int i = 0; i < fenceKeys.size(); i++) {
+                fencePositions[i] = (int) pos;
+                pos += fenceKeys.get(i).serialize(os);
+                os.writeLong(blockOffsets.get(i));
+                pos += Long.BYTES;
+            }
+            long lastKeyPos = pos;
+            if (lastKey != null) {
+                pos += lastKey.serialize(os);
+            }
+            long fenceTablePos = pos;
+            for (int p : fencePositions) {
+                os.writeInt(p);
+                pos += Integer.BYTES;
+            }
+            // the mapping is page aligned, so each filter block lands on one cache line
+            while (pos % (KeyFilter.BLOCK_WORDS * Long.BYTES) != 0) {
+                os.writeByte(0);
+                pos++;
+            }
+            long filterPos = pos;
+            filter.writeTo(os);
+            pos += (long) filter.words() * Long.BYTES;
+            long valueLogsPos = pos;
+            for (int id : valueLogFiles) {
+                os.writeInt(id);
+            }
+
+            os.writeLong(fenceTablePos);
+            os.writeInt(fenceKeys.size());
+            os.writeLong(filterPos);
+            os.writeInt(filter.words());
+            os.writeInt(filter.hashCount());
+            os.writeLong(lastKeyPos);
+            os.writeLong(entryCount);
+            os.writeLong(maxSnapshotId);
+            os.writeLong(valueLogsPos);
+            os.writeInt(valueLogFiles.length);
+            os.writeInt(VERSION);
+            os.writeInt(MAGIC);
+            os.flush();
+            fos.getChannel().force(true);
+        }
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public long entryCount() {
+        return entryCount;
+    }
+
+    public long maxSnapshotId() {
+        return maxSnapshotId;
+    }
+
+    public TaggedKey lastKey() {
+        return lastKey;
+    }
+
+    public int[] valueLogFiles() {
+        return valueLogFiles.clone();
+    }
+
+    public boolean mightContain(byte[] key) {
+        return filter.mightContain(key);
+    }
+
+    private int entryPos(int block) {
+        return map.getInt(fenceTablePos + block * Integer.BYTES);
+    }
+
+    public TaggedKey fenceKey(int block) {
+        int pos = entryPos(block);
+        return TaggedKey.deserialize(map.slice(pos, map.capacity() - pos));
+    }
+
+    public long blockOffset(int block) {
+        int pos = entryPos(block);
+        int keyLength = map.getInt(pos);
+        return map.getLong(pos + Integer.BYTES + keyLength + Long.BYTES);
+    }
+
+    /**
+     * @return the last block whose first key is {@code <= key}, -1 if key sorts before the whole table
+     */
+    public int floorBlock(TaggedKey key) {
+        return floorBlock(key, -1);
+    }
+
+    /**
+     * Like {@link #floorBlock(TaggedKey)} when the result is known to be {@code >= from}, for keys looked up in
+     * order. Checks the block after {@code from} first, so keys close to each other cost one comparison.
+     */
+    public int floorBlock(TaggedKey key, int from) {
+        if (from + 1 >= blockCount || TaggedKey.compareSerialized(map, entryPos(from + 1), key) > 0) {
+            return from;
+        }
+        int lo = from + 2;
+        int hi = blockCount - 1;
+        int found = from + 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TaggedKey.compareSerialized(map, entryPos(mid), key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+}
@@ -1,36 +1,166 @@
 package konputer.kvdb.persistent;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import konputer.kvdb.utils.RowTransformingIterable;
-import konputer.kvdb.compaction.Compactable;
+import konputer.kvdb.dtos.Keys;
 import konputer.kvdb.dtos.Row;
+import konputer.kvdb.vlog.ValueLog;
 import org.jooq.lambda.Seq;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
 public class SSTableMerger {
 
-    public static SSTableHandle merge(List<? extends Compactable> compactables, SSTableContentBuilder builder) throws IOException {
-        Iterable<Row> iterable = new RowTransformingIterable(
-                Seq.seq(compactables)
-                        .flatMap(c -> c.getBlocks().stream())
-                        .toList()
-        );
+    @FunctionalInterface
+    public interface OutputFactory {
+        SSTableContentBuilder newOutput() throws IOException;
+    }
+
+    /**
+     * Merges the rows of {@code inputs} with user keys in {@code [from, to)} into tables of about
+     * {@code targetFileSize} bytes. Null bounds are open.
+     * <p>
+     * Of the versions of a key only the newest one and the newest one each snapshot reads are kept. Tombstones
+     * left as the oldest version of a key are dropped in the bottommost level, there is nothing left to hide.
+     *
+     * @param inputs     newest first, of equal keys only the row of the first input holding it is kept
+     * @param valueLog   told about the separated values of dropped rows
+     * @param snapshots  ids of the live snapshots, ascending
+     * @param bottommost whether no older version of a key can be in a level below the output
+     */
+    public static List<SSTableHandle> merge(List<SSTableHandle> inputs, byte[] from, byte[] to,
+                                            OutputFactory outputs, long targetFileSize, ValueLog valueLog,
+                                            long[] snapshots, boolean bottommost) throws IOException {
+        Iterator<Row> merged = new RowTransformingIterable(
+                Seq.seq(inputs).map(t -> t.compactionBlocks(from, to)).toList()
+        ).iterator();
+        Iterator<Row> rows = new VersionFilter(merged, from, to, valueLog, snapshots, bottommost);
+
+        List<SSTableHandle> built = new ArrayList<>();
+        SSTableContentBuilder builder = null;
+        try {
+            Row lastRow = null;
+            while (rows.hasNext()) {
+                Row cur = rows.next();
+                byte[] key = cur.key().bytes();
+                // only cut between user keys, all versions of a key stay in one table. Values the output copies
+                // into value logs count too, so one output never moves an unbounded amount of them
+                if (builder != null && builder.estimatedSize() + builder.valueLogBytes() >= targetFileSize
+                        && !lastRow.key().hasKey(key)) {
+                    built.add(builder.build());
+                    builder.close();
+                    builder = null;
+                }
+                if (builder == null) {
+                    builder = outputs.newOutput();
+                }
+                builder.writeKv(cur.key(), cur.value());
+                lastRow = cur;
+            }
+            if (builder != null) {
+                built.add(builder.build());
+                builder.close();
+            }
+            return built;
+        } catch (IOException | RuntimeException e) {
+            if (builder != null) {
+                builder.abandon();
+            }
+            for (SSTableHandle h : built) {
+                h.supersededNotification();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Passes on the versions of each key in {@code [from, to)} that are still read, in the order of the merged
+     * rows. Versions of a key come oldest first, so they are collected until the key changes.
+     */
+    private static final class VersionFilter extends AbstractIterator<Row> {
+        private final PeekingIterator<Row> rows;
+        private final byte[] from;
+        private final byte[] to;
+        private final ValueLog valueLog;
+        private final long[] snapshots;
+        private final boolean bottommost;
+        private final List<Row> versions = new ArrayList<>();
+        private final Deque<Row> kept = new ArrayDeque<>();
 
-        Iterator<Row> it = iterable.iterator();
+        VersionFilter(Iterator<Row> rows, byte[] from, byte[] to, ValueLog valueLog, long[] snapshots, boolean bottommost) {
+            this.rows = Iterators.peekingIterator(rows);
+            this.from = from;
+            this.to = to;
+            this.valueLog = valueLog;
+            this.snapshots = snapshots;
+            this.bottommost = bottommost;
+        }
 
+        @Override
+        protected Row computeNext() {
+            while (kept.isEmpty()) {
+                if (!rows.hasNext()) {
+                    return endOfData();
+                }
+                // the blocks at the bounds hold keys of the neighbouring subcompactions too
+                byte[] key = rows.peek().key().bytes();
+                if (from != null && Keys.compare(key, from) < 0) {
+                    rows.next();
+                    continue;
+                }
+                if (to != null && Keys.compare(key, to) >= 0) {
+                    return endOfData();
+                }
+                collectKey();
+            }
+            return kept.poll();
+        }
 
-        Row lastRow = null;
-        for (Row cur : iterable) {
-            if (lastRow != null && lastRow.key().equals(cur.key())) {
-                continue;
+        private void collectKey() {
+            versions.clear();
+            byte[] key = rows.peek().key().bytes();
+            while (rows.hasNext() && rows.peek().key().hasKey(key)) {
+                Row row = rows.next();
+                Row last = versions.isEmpty() ? null : versions.get(versions.size() - 1);
+                if (last != null && last.key().equals(row.key())) {
+                    drop(row); // an older input's copy of the same write
+                } else {
+                    versions.add(row);
+                }
+            }
+            // from the newest down, a version is read by the latest readers or by a snapshot before the next one
+            for (int i = versions.size() - 1; i >= 0; i--) {
+                Row row = versions.get(i);
+                if (i == versions.size() - 1 || readBySnapshot(row.key().snapshotId(), versions.get(i + 1).key().snapshotId())) {
+                    kept.addFirst(row);
+                } else {
+                    drop(row);
+                }
+            }
+            while (bottommost && !kept.isEmpty() && kept.peekFirst().value().isTombstone()) {
+                kept.pollFirst();
             }
-            builder.writeKv(cur.key(), cur.value());
-            lastRow = cur;
         }
 
-        return builder.build();
-    }
+        // whether a snapshot in [version, newer) exists
+        private boolean readBySnapshot(long version, long newer) {
+            int i = Arrays.binarySearch(snapshots, version);
+            int ceiling = i >= 0 ? i : -i - 1;
+            return ceiling < snapshots.length && snapshots[ceiling] < newer;
+        }
 
+        private void drop(Row row) {
+            if (row.value().isPointer()) {
+                valueLog.discard(row.value().pointer());
+            }
+        }
+    }
 }
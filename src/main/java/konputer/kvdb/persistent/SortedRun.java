@@ -0,0 +1,246 @@
+package konputer.kvdb.persistent;
+
+import com.google.common.collect.Iterators;
+import konputer.kvdb.RowCursor;
+import konputer.kvdb.compaction.CompactableLookup;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Immutable set of tables with disjoint user key ranges, ordered by key, forming one level below L0.
+ * <p>
+ * All versions of a key live in the same table, so a lookup reads at most one table.
+ */
+public final class SortedRun implements CompactableLookup {
+    public static final SortedRun EMPTY = new SortedRun(List.of());
+
+    private final List<SSTableHandle> tables;
+    private final long size;
+
+    private SortedRun(List<SSTableHandle> tables) {
+        this.tables = tables;
+        this.size = tables.stream().mapToLong(SSTableHandle::getSize).sum();
+    }
+
+    public static SortedRun of(List<SSTableHandle> tables) {
+        List<SSTableHandle> sorted = new ArrayList<>(tables);
+        sorted.sort(Comparator.comparing(SSTableHandle::firstKey));
+        for (int i = 1; i < sorted.size(); i++) {
+            checkState(Keys.compare(sorted.get(i - 1).lastKey().bytes(), sorted.get(i).firstKey().bytes()) < 0,
+                    "Tables of a level must not overlap");
+        }
+        return new SortedRun(List.copyOf(sorted));
+    }
+
+    /**
+     * @return a run without {@code removed} and with {@code added}
+     */
+    public SortedRun with(Set<SSTableHandle> removed, List<SSTableHandle> added) {
+        List<SSTableHandle> next = new ArrayList<>(tables.size() + added.size());
+        for (SSTableHandle t : tables) {
+            if (!removed.contains(t)) {
+                next.add(t);
+            }
+        }
+        next.addAll(added);
+        return of(next);
+    }
+
+    public List<SSTableHandle> getTables() {
+        return tables;
+    }
+
+    // index of the first table whose last key is >= key
+    private int ceilingTable(byte[] key) {
+        int lo = 0;
+        int hi = tables.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Keys.compare(tables.get(mid).lastKey().bytes(), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return tables holding user keys in {@code [from, to]}
+     */
+    public List<SSTableHandle> overlapping(byte[] from, byte[] to) {
+        List<SSTableHandle> out = new ArrayList<>();
+        for (int i = ceilingTable(from); i < tables.size() && Keys.compare(tables.get(i).firstKey().bytes(), to) <= 0; i++) {
+            out.add(tables.get(i));
+        }
+        return out;
+    }
+
+    @Override
+    public ValueHolder get(byte[] key, long snapshotId) {
+        int i = ceilingTable(key);
+        if (i == tables.size() || Keys.compare(tables.get(i).firstKey().bytes(), key) > 0) {
+            return null;
+        }
+        return tables.get(i).get(key, snapshotId);
+    }
+
+    @Override
+    public void multiGet(byte[][] keys, ValueHolder[] found) {
+        int i = 0;
+        while (i < keys.length) {
+            int t = ceilingTable(keys[i]);
+            if (t == tables.size()) {
+                return; // the remaining keys are past the last table
+            }
+            // the keys up to the last key of the table, those before its first key just miss
+            SSTableHandle table = tables.get(t);
+            int end = i + 1;
+            while (end < keys.length && Keys.compare(keys[end], table.lastKey().bytes()) <= 0) {
+                end++;
+            }
+            table.multiGet(keys, i, end, found);
+            i = end;
+        }
+    }
+
+    /**
+     * @return a cursor over the tables one after another, each table cursor is created once and kept for re-seeks
+     */
+    public RowCursor cursor() {
+        return new RowCursor() {
+            private final RowCursor[] cursors = new RowCursor[tables.size()];
+            private int table = -1;
+
+            private RowCursor at(int table) {
+                if (cursors[table] == null) {
+                    cursors[table] = tables.get(table).cursor();
+                }
+                this.table = table;
+                return cursors[table];
+            }
+
+            private void forward() {
+                while (!cursors[table].isValid() && table + 1 < tables.size()) {
+                    at(table + 1).seekToFirst();
+                }
+            }
+
+            private void backward() {
+                while (!cursors[table].isValid() && table > 0) {
+                    at(table - 1).seekToLast();
+                }
+            }
+
+            @Override
+            public boolean isValid() {
+                return table >= 0 && cursors[table].isValid();
+            }
+
+            @Override
+            public void seek(TaggedKey key) {
+                int t = ceilingTable(key.bytes());
+                if (t == tables.size()) {
+                    table = -1;
+                    return;
+                }
+                at(t).seek(key);
+                forward();
+            }
+
+            @Override
+            public void seekForPrev(TaggedKey key) {
+                // the last table starting at or before the key
+                int t = ceilingTable(key.bytes());
+                if (t == tables.size() || Keys.compare(tables.get(t).firstKey().bytes(), key.bytes()) > 0) {
+                    t--;
+                }
+                if (t < 0) {
+                    table = -1;
+                    return;
+                }
+                at(t).seekForPrev(key);
+                backward();
+            }
+
+            @Override
+            public void seekToFirst() {
+                if (tables.isEmpty()) {
+                    table = -1;
+                    return;
+                }
+                at(0).seekToFirst();
+                forward();
+            }
+
+            @Override
+            public void seekToLast() {
+                if (tables.isEmpty()) {
+                    table = -1;
+                    return;
+                }
+                at(tables.size() - 1).seekToLast();
+                backward();
+            }
+
+            @Override
+            public void next() {
+                cursors[table].next();
+                forward();
+            }
+
+            @Override
+            public void prev() {
+                cursors[table].prev();
+                backward();
+            }
+
+            @Override
+            public Row row() {
+                return cursors[table].row();
+            }
+        };
+    }
+
+    @Override
+    public List<Iterator<ByteBuffer>> getRawBlocks(TaggedKey from, TaggedKey to) {
+        // disjoint and ordered, so concatenating the tables keeps the rows sorted
+        List<SSTableHandle> covered = overlapping(from.bytes(), to.bytes());
+        return List.of(Iterators.concat(Iterators.transform(covered.iterator(), t -> t.blockRangeIterator(from, to))));
+    }
+
+    @Override
+    public List<Iterator<ByteBuffer>> getBlocks() {
+        return List.of(Iterators.concat(Iterators.transform(tables.iterator(), t -> t.getBlocks().get(0))));
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void supersededNotification() {
+        for (SSTableHandle t : tables) {
+            t.supersededNotification();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (SSTableHandle t : tables) {
+            t.close();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.metrics.Statistics;
+import konputer.kvdb.vlog.ValueLog;
+
+public record TableOptions(
+        Compression compression,
+        BlockCache blockCache,
+        int bloomBitsPerKey,
+        ValueLog valueLog,
+        Statistics statistics
+) {
+    public TableOptions(Compression compression, BlockCache blockCache, int bloomBitsPerKey) {
+        this(compression, blockCache, bloomBitsPerKey, ValueLog.disabled(), new Statistics());
+    }
+}
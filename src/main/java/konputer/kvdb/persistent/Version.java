@@ -0,0 +1,184 @@
+package konputer.kvdb.persistent;
+
+import com.google.common.collect.Lists;
+import konputer.kvdb.Lookup;
+import konputer.kvdb.RowCursor;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Immutable set of tables per level. Flushes and compactions never change a version, they install a new one.
+ * <p>
+ * The store holds a reference to its current version and readers pin the version they started on, so
+ * neither waits for the other. Every version holds a reference to each of its tables, a table is closed,
+ * and deleted if it was superseded meanwhile, once the last version holding it is released.
+ */
+public final class Version implements Lookup {
+    private final List<SSTableHandle> l0; // newest first
+    private final List<SortedRun> levels; // L1 onwards
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private Version(List<SSTableHandle> l0, List<SortedRun> levels) {
+        this.l0 = l0;
+        this.levels = levels;
+        forEachTable(SSTableHandle::ref);
+    }
+
+    /**
+     * @return an empty version, referenced once by the caller
+     */
+    public static Version empty() {
+        return new Version(List.of(), List.of());
+    }
+
+    /**
+     * @param added    tables per level, L0 tables oldest first
+     * @param removed  tables to drop from any level, a table both added and removed moves
+     * @return a new version referenced once by the caller, this one is not released
+     */
+    Version apply(Map<Integer, List<SSTableHandle>> added, Set<SSTableHandle> removed) {
+        List<SSTableHandle> nextL0 = new ArrayList<>(Lists.reverse(added.getOrDefault(0, List.of())));
+        for (SSTableHandle t : l0) {
+            if (!removed.contains(t)) {
+                nextL0.add(t);
+            }
+        }
+        int levelCount = Math.max(levelCount(), added.keySet().stream().mapToInt(l -> l + 1).max().orElse(0));
+        List<SortedRun> nextLevels = new ArrayList<>(levelCount - 1);
+        for (int level = 1; level < levelCount; level++) {
+            SortedRun run = level(level);
+            List<SSTableHandle> addedHere = added.getOrDefault(level, List.of());
+            if (!addedHere.isEmpty() || run.getTables().stream().anyMatch(removed::contains)) {
+                run = run.with(removed, addedHere);
+            }
+            nextLevels.add(run);
+        }
+        return new Version(List.copyOf(nextL0), List.copyOf(nextLevels));
+    }
+
+    /**
+     * Pins the version, fails once it was released for good.
+     */
+    boolean tryRef() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void unref() {
+        int left = refs.decrementAndGet();
+        checkState(left >= 0, "Version released more often than referenced");
+        if (left == 0) {
+            forEachTable(SSTableHandle::unref);
+        }
+    }
+
+    private void forEachTable(Consumer<SSTableHandle> action) {
+        l0.forEach(action);
+        for (SortedRun run : levels) {
+            run.getTables().forEach(action);
+        }
+    }
+
+    /**
+     * @return L0 tables, newest first
+     */
+    public List<SSTableHandle> l0() {
+        return l0;
+    }
+
+    public long l0Size() {
+        return l0.stream().mapToLong(SSTableHandle::getSize).sum();
+    }
+
+    /**
+     * @return the tables of a level below L0, empty past the last level
+     */
+    public SortedRun level(int level) {
+        checkState(level > 0, "L0 is not a sorted run");
+        return level <= levels.size() ? levels.get(level - 1) : SortedRun.EMPTY;
+    }
+
+    public int levelCount() {
+        return levels.size() + 1;
+    }
+
+    /**
+     * @return one block iterator per sorted run, newest first
+     */
+    public List<Iterator<ByteBuffer>> getRawBlocks(TaggedKey from, TaggedKey to) {
+        List<Iterator<ByteBuffer>> blocks = new ArrayList<>(l0.size() + levels.size());
+        for (SSTableHandle t : l0) {
+            blocks.add(t.blockRangeIterator(from, to));
+        }
+        for (SortedRun run : levels) {
+            blocks.addAll(run.getRawBlocks(from, to));
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the L0 tables and the levels below, newest first, the first one holding a key has its newest version
+     */
+    public List<Lookup> sortedRuns() {
+        List<Lookup> runs = new ArrayList<>(l0.size() + levels.size());
+        runs.addAll(l0);
+        runs.addAll(levels);
+        return runs;
+    }
+
+    /**
+     * @return a cursor per L0 table and level, valid as long as the version is pinned
+     */
+    public List<RowCursor> cursors() {
+        List<RowCursor> cursors = new ArrayList<>(l0.size() + levels.size());
+        for (SSTableHandle t : l0) {
+            cursors.add(t.cursor());
+        }
+        for (SortedRun run : levels) {
+            cursors.add(run.cursor());
+        }
+        return cursors;
+    }
+
+    @Override
+    public void multiGet(byte[][] keys, ValueHolder[] found) throws Exception {
+        for (Lookup run : sortedRuns()) {
+            run.multiGet(keys, found);
+        }
+    }
+
+    @Override
+    public ValueHolder get(byte[] key, long snapshotId) {
+        for (SSTableHandle t : l0) {
+            ValueHolder value = t.get(key, snapshotId);
+            if (value != null) {
+                return value;
+            }
+        }
+        for (SortedRun run : levels) {
+            ValueHolder value = run.get(key, snapshotId);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
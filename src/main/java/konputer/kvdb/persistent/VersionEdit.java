@@ -0,0 +1,76 @@
+package konputer.kvdb.persistent;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One atomic change of the table structure as recorded in the {@link Manifest}.
+ *
+ * @param valueLogDiscards bytes compactions dropped or moved out of value log files so far, for the files whose
+ *                         count changed since the previous edit
+ */
+public record VersionEdit(
+        List<TableEntry> added,
+        List<Integer> removed,
+        int nextTableId,
+        long lastSnapshotId,
+        int nextValueLogFileId,
+        Map<Integer, Long> valueLogDiscards
+) {
+    public record TableEntry(int tableId, int level) {
+    }
+
+    public VersionEdit(List<TableEntry> added, List<Integer> removed, int nextTableId, long lastSnapshotId) {
+        this(added, removed, nextTableId, lastSnapshotId, 0, Map.of());
+    }
+
+    public void serialize(DataOutputStream os) throws IOException {
+        os.writeInt(nextTableId);
+        os.writeLong(lastSnapshotId);
+        os.writeInt(added.size());
+        for (TableEntry e : added) {
+            os.writeInt(e.tableId());
+            os.writeInt(e.level());
+        }
+        os.writeInt(removed.size());
+        for (int id : removed) {
+            os.writeInt(id);
+        }
+        os.writeInt(nextValueLogFileId);
+        os.writeInt(valueLogDiscards.size());
+        for (Map.Entry<Integer, Long> e : valueLogDiscards.entrySet()) {
+            os.writeInt(e.getKey());
+            os.writeLong(e.getValue());
+        }
+    }
+
+    public static VersionEdit deserialize(ByteBuffer buf) {
+        int nextTableId = buf.getInt();
+        long lastSnapshotId = buf.getLong();
+        int addedCount = buf.getInt();
+        List<TableEntry> added = new ArrayList<>(addedCount);
+        for (int i = 0; i < addedCount; i++) {
+            added.add(new TableEntry(buf.getInt(), buf.getInt()));
+        }
+        int removedCount = buf.getInt();
+        List<Integer> removed = new ArrayList<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.add(buf.getInt());
+        }
+        if (!buf.hasRemaining()) {
+            return new VersionEdit(added, removed, nextTableId, lastSnapshotId); // written before value log files
+        }
+        int nextValueLogFileId = buf.getInt();
+        int discardCount = buf.getInt();
+        Map<Integer, Long> discards = new TreeMap<>();
+        for (int i = 0; i < discardCount; i++) {
+            discards.put(buf.getInt(), buf.getLong());
+        }
+        return new VersionEdit(added, removed, nextTableId, lastSnapshotId, nextValueLogFileId, discards);
+    }
+}
@@ -1,15 +1,17 @@
 package konputer.kvdb.utils;
 
 import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import konputer.kvdb.dtos.Row;
 import konputer.kvdb.persistent.SSTableHandle;
 import org.jooq.lambda.Seq;
-import org.jspecify.annotations.NonNull;
 
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 public class RowTransformingIterable implements Iterable<Row> {
 
@@ -23,22 +25,52 @@ public class RowTransformingIterable implements Iterable<Row> {
     public Iterator<Row> iterator() {
 
         //Order is from newest to oldest, needed for correct deduplication
-        Iterator<Iterator<Row>> toMerge = Seq.seq(source)
-                .map(ib ->
+        List<PeekingIterator<Row>> toMerge = Seq.seq(source)
+                .map(ib -> Iterators.peekingIterator(
                         Seq.seq(ib)
                                 .map(b -> new SSTableHandle.RowAwareBlock(b).rowIterator())
                                 .flatMap(Seq::seq)
                                 .iterator()
-                ).iterator();
-        return Iterators.mergeSorted(
-                new Iterable<Iterator<Row>>() {
-                    @Override
-                    @NonNull
-                    public Iterator<Iterator<Row>> iterator() {
-                        return toMerge;
-                    }
+                )).toList();
+        return new StableMergingIterator(toMerge);
+    }
+
+    /**
+     * Merges sorted iterators, equal rows come out in the order of their sources so the newest one is first.
+     */
+    private static final class StableMergingIterator implements Iterator<Row> {
+        private final List<PeekingIterator<Row>> sources;
+        private final PriorityQueue<Integer> queue;
+
+        StableMergingIterator(List<PeekingIterator<Row>> sources) {
+            this.sources = sources;
+            Comparator<Integer> byRow = Comparator.comparing(i -> sources.get(i).peek());
+            this.queue = new PriorityQueue<>(Math.max(sources.size(), 1), byRow.thenComparing(Comparator.naturalOrder()));
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i).hasNext()) {
+                    queue.add(i);
                 }
-                , Comparator.naturalOrder());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Row next() {
+            Integer i = queue.poll();
+            if (i == null) {
+                throw new NoSuchElementException();
+            }
+            PeekingIterator<Row> it = sources.get(i);
+            Row row = it.next();
+            if (it.hasNext()) {
+                queue.add(i);
+            }
+            return row;
+        }
     }
 
 }
@@ -0,0 +1,48 @@
+package konputer.kvdb.utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 integers, 7 bits per byte with the high bit set on all but the last byte.
+ */
+public final class VarInts {
+
+    private VarInts() {
+    }
+
+    /**
+     * @return bytes written
+     */
+    public static int write(DataOutput out, long value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+            written++;
+        }
+        out.writeByte((int) value);
+        return written;
+    }
+
+    public static long readLong(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    public static int readInt(ByteBuffer buf) {
+        long value = readLong(buf);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Varint out of int range: " + value);
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,312 @@
+package konputer.kvdb.vlog;
+
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.dtos.ValuePointer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Values of at least {@code threshold} bytes are kept in value log files and tables only store a
+ * {@link ValuePointer} to them, so compactions move pointers around instead of the values.
+ * <p>
+ * Each table build that separates values writes append-only files {@code vlog_<file id>.vlog} of
+ * {@code [int keyLength][key][long snapshotId][int valueLength][value]} records, starting a new one once a file
+ * reaches {@code maxFileSize}. File ids are handed out by the value log, independent of table ids. A file lives as
+ * long as a table points into it. Compactions report the values they drop, once that is {@code gcThreshold} percent of a file,
+ * compactions copy the values still referenced out of it, and it is deleted with the last table pointing into it.
+ */
+public class ValueLog {
+    private static final Pattern LOG_FILE = Pattern.compile("vlog_(\\d+)\\.vlog");
+
+    private final Path directory;
+    private final int threshold;
+    private final int gcThreshold;
+    private final long maxFileSize;
+    private final Map<Integer, LogFile> files = new ConcurrentHashMap<>();
+    private final AtomicInteger nextFileId = new AtomicInteger();
+    // files whose discard count changed since it was last recorded in the manifest
+    private final Set<Integer> changedDiscards = ConcurrentHashMap.newKeySet();
+
+    private static final class LogFile {
+        private final File file;
+        private final ByteBuffer map;
+        private final AtomicLong discarded = new AtomicLong();
+        private int refs = 0; // tables pointing into the file, guarded by the value log
+
+        LogFile(File file) throws IOException {
+            this.file = file;
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                this.map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+        }
+    }
+
+    /**
+     * @param threshold   smallest value written to the value log, 0 keeps all values in the tables
+     * @param gcThreshold percentage of a file dropped by compactions after which its live values are moved
+     * @param maxFileSize size after which a build continues in a new file, at most {@link Integer#MAX_VALUE}
+     */
+    public ValueLog(Path directory, int threshold, int gcThreshold, long maxFileSize) {
+        checkArgument(maxFileSize > 0 && maxFileSize <= Integer.MAX_VALUE, "Invalid value log file size %s", maxFileSize);
+        this.directory = directory;
+        this.threshold = threshold;
+        this.gcThreshold = gcThreshold;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * @return a value log that never separates values, for tables outside of a store
+     */
+    public static ValueLog disabled() {
+        return new ValueLog(null, 0, 100, Integer.MAX_VALUE);
+    }
+
+    public File logFile(int fileId) {
+        return directory.resolve("vlog_" + fileId + ".vlog").toFile();
+    }
+
+    /**
+     * Maps the files left by an earlier run, must be called before the tables pointing into them are opened.
+     *
+     * @param firstFileId lowest id new files may get, ids of deleted files are not handed out again
+     * @param discards    discard counts recorded by the earlier run
+     */
+    public void recover(int firstFileId, Map<Integer, Long> discards) throws IOException {
+        nextFileId.set(firstFileId);
+        File[] existing = directory.toFile().listFiles((dir, name) -> LOG_FILE.matcher(name).matches());
+        for (File f : existing == null ? new File[0] : existing) {
+            Matcher m = LOG_FILE.matcher(f.getName());
+            checkState(m.matches());
+            int fileId = Integer.parseInt(m.group(1));
+            LogFile file = new LogFile(f);
+            file.discarded.set(discards.getOrDefault(fileId, 0L));
+            files.put(fileId, file);
+            nextFileId.accumulateAndGet(fileId + 1, Math::max);
+        }
+    }
+
+    /**
+     * @return ids of the readable files
+     */
+    public Set<Integer> fileIds() {
+        return Set.copyOf(files.keySet());
+    }
+
+    public int nextFileId() {
+        return nextFileId.get();
+    }
+
+    /**
+     * @return the discard count of every file whose count changed since the last call, to be recorded
+     */
+    public Map<Integer, Long> takeChangedDiscards() {
+        Map<Integer, Long> changed = new TreeMap<>();
+        for (Iterator<Integer> it = changedDiscards.iterator(); it.hasNext(); ) {
+            int id = it.next();
+            it.remove();
+            LogFile f = files.get(id);
+            if (f != null) {
+                changed.put(id, f.discarded.get());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return whether the directory holds value log files
+     */
+    public static boolean hasFiles(Path directory) {
+        String[] names = directory.toFile().list((dir, name) -> LOG_FILE.matcher(name).matches());
+        return names != null && names.length > 0;
+    }
+
+    /**
+     * Deletes files no table points into, output of unfinished table builds or files whose deletion didn't
+     * complete.
+     */
+    public synchronized void deleteUnreferenced() throws IOException {
+        for (var it = files.entrySet().iterator(); it.hasNext(); ) {
+            LogFile f = it.next().getValue();
+            if (f.refs == 0) {
+                it.remove();
+                Files.deleteIfExists(f.file.toPath());
+            }
+        }
+    }
+
+    public boolean separates(byte[] value) {
+        return threshold > 0 && value != null && value.length >= threshold;
+    }
+
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    public byte[] read(ValuePointer pointer) {
+        LogFile f = files.get(pointer.fileId());
+        checkState(f != null, "Value log file %s is gone", pointer.fileId());
+        byte[] value = new byte[pointer.length()];
+        f.map.get((int) pointer.offset(), value);
+        return value;
+    }
+
+    /**
+     * @return the value itself, read from the value log if {@code holder} points there
+     */
+    public ValueHolder resolve(ValueHolder holder) {
+        if (holder == null || !holder.isPointer()) {
+            return holder;
+        }
+        return new ValueHolder(read(holder.pointer()));
+    }
+
+    /**
+     * Records that a compaction dropped or moved the value {@code pointer} points to.
+     */
+    public void discard(ValuePointer pointer) {
+        LogFile f = files.get(pointer.fileId());
+        if (f != null) {
+            f.discarded.addAndGet(pointer.length());
+            changedDiscards.add(pointer.fileId());
+        }
+    }
+
+    /**
+     * @return whether compactions should move the values still read from the file out of it
+     */
+    public boolean needsCollection(int fileId) {
+        LogFile f = files.get(fileId);
+        return f != null && f.map.capacity() > 0 && f.discarded.get() * 100 >= (long) f.map.capacity() * gcThreshold;
+    }
+
+    /**
+     * @return bytes of the file compactions dropped or moved, also in earlier runs
+     */
+    public long discardedBytes(int fileId) {
+        LogFile f = files.get(fileId);
+        return f == null ? 0 : f.discarded.get();
+    }
+
+    public synchronized void retain(int[] fileIds) {
+        for (int id : fileIds) {
+            LogFile f = files.get(id);
+            checkState(f != null, "Value log file %s is missing", id);
+            f.refs++;
+        }
+    }
+
+    /**
+     * Called once a table pointing into the files was deleted, deletes the files no table points into anymore.
+     */
+    public synchronized void release(int[] fileIds) throws IOException {
+        for (int id : fileIds) {
+            LogFile f = files.get(id);
+            checkState(f != null && f.refs > 0, "Value log file %s released more often than retained", id);
+            if (--f.refs == 0) {
+                files.remove(id);
+                Files.deleteIfExists(f.file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Appends the values separated while building one table, to as many files as {@code maxFileSize} requires.
+     * A file becomes readable once it is finished, the build finishes the last one.
+     */
+    public final class Writer {
+        // files filled up and finished before the current one
+        private final List<Integer> finished = new ArrayList<>();
+        private int fileId = -1;
+        private File file;
+        private FileOutputStream fos;
+        private DataOutputStream os;
+        private long position = 0;
+        private long appended = 0;
+
+        private Writer() {
+        }
+
+        public ValuePointer append(TaggedKey key, byte[] value) throws IOException {
+            long recordSize = Integer.BYTES + key.bytes().length + Long.BYTES + Integer.BYTES + value.length;
+            if (os != null && position + recordSize > maxFileSize) {
+                finishFile();
+            }
+            if (os == null) {
+                fileId = nextFileId.getAndIncrement();
+                file = logFile(fileId);
+                fos = new FileOutputStream(file, false);
+                os = new DataOutputStream(new BufferedOutputStream(fos));
+                position = 0;
+            }
+            position += key.serialize(os);
+            os.writeInt(value.length);
+            os.write(value);
+            ValuePointer pointer = new ValuePointer(fileId, position + Integer.BYTES, value.length);
+            position += Integer.BYTES + value.length;
+            appended += recordSize;
+            return pointer;
+        }
+
+        /**
+         * @return bytes appended to all files of the build
+         */
+        public long appendedBytes() {
+            return appended;
+        }
+
+        private void finishFile() throws IOException {
+            os.flush();
+            fos.getChannel().force(true);
+            os.close();
+            os = null;
+            files.put(fileId, new LogFile(file));
+            finished.add(fileId);
+        }
+
+        /**
+         * Syncs the files, they have to be on disk before the table pointing into them.
+         */
+        public void finish() throws IOException {
+            if (os != null) {
+                finishFile();
+            }
+        }
+
+        public void abandon() throws IOException {
+            if (os != null) {
+                os.close();
+                os = null;
+                Files.deleteIfExists(file.toPath());
+            }
+            for (int id : finished) {
+                LogFile f = files.remove(id);
+                Files.deleteIfExists(f.file.toPath());
+            }
+        }
+    }
+}
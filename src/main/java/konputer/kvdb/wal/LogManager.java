@@ -0,0 +1,89 @@
+package konputer.kvdb.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hands out one {@link WriteAheadLog} per memtable and keeps the periodic syncer running.
+ */
+public class LogManager implements AutoCloseable {
+    private static final Pattern LOG_FILE = Pattern.compile("wal_(\\d+)\\.log");
+    private final Path directory;
+    private final SyncMode syncMode;
+    private final AtomicLong nextLogId;
+    private final ScheduledExecutorService syncer;
+    private volatile WriteAheadLog current;
+
+    public LogManager(Path directory, SyncMode syncMode, long syncIntervalMillis, long firstLogId) {
+        this.directory = directory;
+        this.syncMode = syncMode;
+        this.nextLogId = new AtomicLong(firstLogId);
+        if (syncMode == SyncMode.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-syncer");
+                t.setDaemon(true);
+                return t;
+            });
+            this.syncer.scheduleWithFixedDelay(this::syncCurrent, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    public static File logFile(Path directory, long logId) {
+        return directory.resolve("wal_" + logId + ".log").toFile();
+    }
+
+    /**
+     * @return ids of the logs present in the directory, oldest first
+     */
+    public static List<Long> existingLogIds(Path directory) {
+        String[] names = directory.toFile().list();
+        if (names == null) {
+            return List.of();
+        }
+        List<Long> ids = new ArrayList<>();
+        for (String name : names) {
+            Matcher m = LOG_FILE.matcher(name);
+            if (m.matches()) {
+                ids.add(Long.parseLong(m.group(1)));
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    public WriteAheadLog newLog() throws IOException {
+        WriteAheadLog log = WriteAheadLog.create(logFile(directory, nextLogId.getAndIncrement()), syncMode);
+        current = log;
+        return log;
+    }
+
+    private void syncCurrent() {
+        WriteAheadLog log = current;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.sync();
+        } catch (IOException e) {
+            // next append surfaces the broken log to the writer
+        }
+    }
+
+    @Override
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+    }
+}
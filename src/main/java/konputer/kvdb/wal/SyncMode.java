@@ -0,0 +1,12 @@
+package konputer.kvdb.wal;
+
+public enum SyncMode {
+    // every append is forced to disk on its own before returning
+    PER_WRITE,
+    // concurrent appends are batched by a leader into one write and one force
+    GROUP,
+    // appends only reach the OS, a background thread forces the log at a fixed interval
+    PERIODIC,
+    // appends only reach the OS, durability is left to the OS
+    NONE
+}
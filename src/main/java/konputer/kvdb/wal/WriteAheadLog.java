@@ -0,0 +1,254 @@
+package konputer.kvdb.wal;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only redo log backing a single memtable.
+ * <p>
+ * Record layout: {@code [int payloadLength][int crc32c][payload]}, where the payload is a sequence of
+ * serialized {@link TaggedKey}/{@link ValueHolder} pairs. A torn or corrupted tail is ignored on replay.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final SyncMode syncMode;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    // records queued for the next leader, swapped with spare so the leader can write without holding the lock
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedSeq = 0;
+    private long writtenSeq = 0;
+    private boolean leaderActive = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    private WriteAheadLog(File file, FileChannel channel, SyncMode syncMode) {
+        this.file = file;
+        this.channel = channel;
+        this.syncMode = syncMode;
+    }
+
+    public static WriteAheadLog create(File file, SyncMode syncMode) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new WriteAheadLog(file, channel, syncMode);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void append(TaggedKey key, ValueHolder value) throws IOException {
+        append(encode(List.of(new Row(key, value))));
+    }
+
+    public void append(List<Row> rows) throws IOException {
+        append(encode(rows));
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (syncMode == SyncMode.PER_WRITE) {
+            appendForced(record);
+            return;
+        }
+
+        lock.lock();
+        try {
+            checkWritable();
+            enqueue(record);
+            long seq = ++appendedSeq;
+            while (writtenSeq < seq) {
+                if (failure != null) {
+                    throw new IOException("Write-ahead log " + file + " failed", failure);
+                }
+                if (leaderActive) {
+                    // follower: the current leader or the next one will write our record
+                    written.awaitUninterruptibly();
+                } else {
+                    lead();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // writes everything queued so far as one batch, must be called with the lock held
+    private void lead() {
+        leaderActive = true;
+        ByteBuffer batch = pending;
+        pending = spare;
+        spare = null;
+        long batchSeq = appendedSeq;
+        lock.unlock();
+
+        IOException error = null;
+        try {
+            batch.flip();
+            writeFully(batch);
+            if (syncMode == SyncMode.GROUP) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+
+        batch.clear();
+        spare = batch;
+        leaderActive = false;
+        if (error != null) {
+            failure = error;
+        } else {
+            writtenSeq = batchSeq;
+        }
+        written.signalAll();
+    }
+
+    private void appendForced(byte[] record) throws IOException {
+        lock.lock();
+        try {
+            checkWritable();
+            writeFully(ByteBuffer.wrap(record));
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(byte[] record) {
+        if (pending.remaining() < record.length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(record);
+    }
+
+    private void checkWritable() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (failure != null) {
+            throw new IOException("Write-ahead log " + file + " failed", failure);
+        }
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Forces everything written so far to disk, used by {@link SyncMode#PERIODIC}.
+     */
+    public void sync() throws IOException {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // log was rotated and closed in the meantime, close() already forced it
+        }
+    }
+
+    static byte[] encode(List<Row> rows) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeInt(0); // payload length, patched below
+        os.writeInt(0); // checksum, patched below
+        for (Row row : rows) {
+            row.key().serialize(os);
+            row.value().serialize(os);
+        }
+        os.flush();
+
+        byte[] record = bos.toByteArray();
+        int payloadLength = record.length - RECORD_HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        crc.update(record, RECORD_HEADER_SIZE, payloadLength);
+        ByteBuffer.wrap(record).putInt(payloadLength).putInt((int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Reads every intact record of the log, stops at the first torn or corrupted record.
+     *
+     * @return number of rows replayed
+     */
+    public static long replay(File file, Consumer<Row> consumer) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        long rows = 0;
+        while (buf.remaining() >= RECORD_HEADER_SIZE) {
+            int payloadLength = buf.getInt();
+            int checksum = buf.getInt();
+            if (payloadLength < 0 || payloadLength > buf.remaining()) {
+                break; // torn write at the tail
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buf.array(), buf.position(), payloadLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            ByteBuffer payload = buf.slice(buf.position(), payloadLength);
+            buf.position(buf.position() + payloadLength);
+            while (payload.hasRemaining()) {
+                consumer.accept(new Row(TaggedKey.deserialize(payload), ValueHolder.deserialize(payload)));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // appends are done at this point, leave nothing buffered by the OS behind
+            if (channel.isOpen()) {
+                channel.force(false);
+            }
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the log once everything in it is persisted elsewhere.
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+}
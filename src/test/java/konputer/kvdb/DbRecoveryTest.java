@@ -0,0 +1,214 @@
+package konputer.kvdb;
+
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.persistent.PersistentStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DbRecoveryTest {
+
+    @TempDir
+    Path dir;
+
+    private static String value(int i, String suffix) {
+        byte[] padding = new byte[200];
+        Arrays.fill(padding, (byte) 'x');
+        return i + suffix + new String(padding);
+    }
+
+    private static byte[] largeValue(int i) {
+        byte[] value = new byte[4096];
+        Arrays.fill(value, (byte) i);
+        return value;
+    }
+
+    @Test
+    void testReopenRestoresTablesAndLog() {
+        // enough data for several flushes and a compaction, the tail stays in the log of the active memtable
+        int count = 60_000;
+        try (Db db = Db.open(dir)) {
+            for (int i = 0; i < count; i++) {
+                db.set("key" + i, value(i, "").getBytes());
+            }
+            for (int i = 0; i < count; i += 7) {
+                db.remove("key" + i);
+            }
+        }
+
+        try (Db db = Db.open(dir)) {
+            for (int i = 0; i < count; i++) {
+                ValueHolder holder = db.get("key" + i);
+                if (i % 7 == 0) {
+                    assertTrue(holder == null || holder.isTombstone(), "removed key" + i + " came back");
+                } else {
+                    assertNotNull(holder, "missing key" + i);
+                    assertEquals(value(i, ""), new String(holder.value()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testWritesAfterReopenShadowRecoveredVersions() {
+        try (Db db = Db.open(dir)) {
+            for (int i = 0; i < 20_000; i++) {
+                db.set("key" + i, value(i, "old").getBytes());
+            }
+        }
+        try (Db db = Db.open(dir)) {
+            // pushes the new versions through flushes and compactions alongside the recovered ones
+            for (int i = 0; i < 20_000; i++) {
+                db.set("key" + i, value(i, "new").getBytes());
+            }
+        }
+        try (Db db = Db.open(dir)) {
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals(value(i, "new"), new String(db.getSimple("key" + i)), "stale key" + i);
+            }
+        }
+    }
+
+    @Test
+    void testNewDatabaseRefusesExistingDirectory() {
+        DbOptions options = new DbOptions().directory(dir).valueLogThreshold(1024);
+        try (Db db = Db.open(options)) {
+            // flushed tables, separated values and a log tail with the active memtable
+            for (int i = 0; i < 20_000; i++) {
+                db.set("key" + i, value(i, "old").getBytes());
+            }
+            db.set("large", largeValue(1));
+        }
+        assertThrows(IllegalStateException.class, () -> new Db(options));
+        try (Db db = Db.open(options)) {
+            assertEquals(value(1, "old"), new String(db.getSimple("key1")));
+            assertArrayEquals(largeValue(1), db.getSimple("large"));
+        }
+    }
+
+    @Test
+    void testSeparatedValuesSurviveReopen() throws Exception {
+        DbOptions options = new DbOptions().directory(dir).valueLogThreshold(1024);
+        int count = 3_000;
+        try (Db db = Db.open(options)) {
+            for (int i = 0; i < count; i++) {
+                db.set("key" + i, i % 2 == 0 ? largeValue(i) : value(i, "").getBytes());
+            }
+            for (int i = 0; i < count; i += 7) {
+                db.remove("key" + i);
+            }
+        }
+        File[] logs = dir.toFile().listFiles((d, name) -> name.endsWith(".vlog"));
+        assertTrue(logs != null && logs.length > 0, "large values should be in value log files");
+        // left by a crash before the table pointing into it was written
+        File orphan = dir.resolve("vlog_100000.vlog").toFile();
+        Files.write(orphan.toPath(), new byte[]{1, 2, 3});
+
+        try (Db db = Db.open(options)) {
+            for (int i = 0; i < count; i++) {
+                byte[] value = db.getSimple("key" + i);
+                if (i % 7 == 0) {
+                    assertNull(value, "removed key" + i + " came back");
+                } else if (i % 2 == 0) {
+                    assertArrayEquals(largeValue(i), value, "key" + i);
+                } else {
+                    assertEquals(value(i, ""), new String(value));
+                }
+            }
+        }
+        assertFalse(orphan.exists());
+    }
+
+    @Test
+    void testWriteBatchesSurviveReopen() {
+        // the batches are large enough to fill several memtables, the last ones only reach the log
+        int batches = 40;
+        int perBatch = 1_000;
+        try (Db db = Db.open(dir)) {
+            for (int b = 0; b < batches; b++) {
+                WriteBatch batch = new WriteBatch();
+                for (int i = 0; i < perBatch; i++) {
+                    batch.put("key" + (b * perBatch + i), value(i, "batch" + b).getBytes());
+                }
+                if (b > 0) {
+                    batch.remove("key" + ((b - 1) * perBatch));
+                }
+                db.write(batch);
+            }
+        }
+        try (Db db = Db.open(dir)) {
+            for (int b = 0; b < batches; b++) {
+                for (int i = 0; i < perBatch; i++) {
+                    byte[] value = db.getSimple("key" + (b * perBatch + i));
+                    if (i == 0 && b < batches - 1) {
+                        assertNull(value, "removed by the next batch");
+                    } else {
+                        assertEquals(value(i, "batch" + b), new String(value));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testUnfinishedTableIsDropped() throws Exception {
+        try (Db db = Db.open(dir)) {
+            db.set("a", "1".getBytes());
+        }
+        // a table whose index was never written, as left by a crash during a flush
+        File partial = dir.resolve("tbl_1000.sstable").toFile();
+        Files.write(partial.toPath(), new byte[]{1, 2, 3});
+
+        try (Db db = Db.open(dir)) {
+            assertArrayEquals("1".getBytes(), db.getSimple("a"));
+            db.set("b", "2".getBytes());
+        }
+        assertFalse(partial.exists());
+    }
+
+    @Test
+    void testFailedFlushReachesWriters() throws Exception {
+        DbOptions options = new DbOptions().directory(dir).writeBuffer(16 * 1024, 64 * 1024);
+        byte[] value = new byte[1024];
+        Db db = Db.open(options);
+        // a directory where a table file should go makes every flush fail
+        PersistentStore store = db.persistentStore();
+        List<Path> blocked = new ArrayList<>();
+        for (int id = store.getCurrentTblId(); blocked.size() < 100; id++) {
+            blocked.add(Files.createDirectory(store.tableFile(id).toPath()));
+        }
+        int written = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int i = 0;
+            try {
+                for (; ; i++) {
+                    db.set("key" + i, value);
+                }
+            } catch (IllegalStateException e) {
+                assertInstanceOf(IOException.class, e.getCause().getCause());
+            }
+            return i;
+        });
+        assertThrows(IllegalStateException.class, () -> db.set("more", value));
+        assertThrows(RuntimeException.class, db::close);
+
+        // the tables that failed are still in their logs
+        for (Path path : blocked) {
+            Files.delete(path);
+        }
+        try (Db reopened = Db.open(options)) {
+            for (int i = 0; i < written; i++) {
+                assertArrayEquals(value, reopened.getSimple("key" + i), "key" + i);
+            }
+        }
+    }
+}
@@ -1,13 +1,31 @@
 package konputer.kvdb;
 
+import konputer.kvdb.compaction.CompactionStats;
+import konputer.kvdb.compaction.CompactionStyle;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
 import konputer.kvdb.dtos.TaggedKey;
 import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.metrics.PerfContext;
+import konputer.kvdb.wal.SyncMode;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,9 +33,18 @@ import static org.junit.jupiter.api.Assertions.*;
 class DbTest {
     private Db kvStore;
 
+    // background compactions of one test must not race with the files of the next
+    @TempDir
+    Path dir;
+
     @BeforeEach
     void setUp() {
-        kvStore = new Db(); // Replace with other KvStore implementations as needed
+        kvStore = new Db(new DbOptions().directory(dir)); // Replace with other KvStore implementations as needed
+    }
+
+    @AfterEach
+    void tearDown() {
+        kvStore.close();
     }
 
     @Test
@@ -61,6 +88,203 @@ class DbTest {
         assertNull(kvStore.getSimple(key));
     }
 
+    @Test
+    void testWriteBatch() {
+        kvStore.set("stale", "old".getBytes());
+        WriteBatch batch = new WriteBatch()
+                .put("a", "1".getBytes())
+                .put("b", "2".getBytes())
+                .remove("stale")
+                .put("a", "3".getBytes());
+        assertEquals(4, batch.size());
+        kvStore.write(batch);
+
+        assertArrayEquals("3".getBytes(), kvStore.getSimple("a"), "last operation on a key wins");
+        assertArrayEquals("2".getBytes(), kvStore.getSimple("b"));
+        assertFalse(kvStore.containsKey("stale"));
+
+        long snapshotId = -1;
+        Iterator<Row> it = kvStore.rawIterate(new TaggedKey("a", 0), new TaggedKey("b", Long.MAX_VALUE));
+        while (it.hasNext()) {
+            long id = it.next().key().snapshotId();
+            assertTrue(snapshotId == -1 || snapshotId == id, "batch spans several snapshot ids");
+            snapshotId = id;
+        }
+        assertNotEquals(-1, snapshotId);
+    }
+
+    @Test
+    void testSnapshotSeesBatchWholeOrNotAtAll() throws Exception {
+        int keys = 200;
+        int rounds = 300;
+        Thread writer = new Thread(() -> {
+            for (int round = 1; round <= rounds; round++) {
+                WriteBatch batch = new WriteBatch();
+                for (int i = 0; i < keys; i++) {
+                    batch.put("key" + i, ("round" + round).getBytes());
+                }
+                kvStore.write(batch);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            try (DbView view = kvStore.snapshot(); DbCursor cursor = view.newCursor(null, null)) {
+                int seen = 0;
+                String round = null;
+                for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                    String value = new String(cursor.value());
+                    assertTrue(round == null || round.equals(value), "snapshot has " + round + " and " + value);
+                    round = value;
+                    seen++;
+                }
+                assertTrue(seen == 0 || seen == keys, "snapshot has " + seen + " keys of the first batch");
+            }
+        }
+        writer.join();
+        assertArrayEquals(("round" + rounds).getBytes(), kvStore.getSimple("key0"));
+    }
+
+    @Test
+    void testMultiGetMatchesGet() {
+        for (DbOptions options : List.of(
+                new DbOptions().directory(dir.resolve("serial")),
+                new DbOptions().directory(dir.resolve("parallel")).multiGetThreads(2),
+                new DbOptions().directory(dir.resolve("decoded")).cacheDecodedBlocks(true))) {
+            try (Db db = new Db(options)) {
+                // older versions in tables, newer ones and removals partly still in the memtable
+                for (int round = 0; round < 2; round++) {
+                    for (int i = 0; i < 20_000; i++) {
+                        db.set("key" + i, ("v" + round + "_" + i + OVERWRITE_PADDING).getBytes());
+                    }
+                }
+                for (int i = 0; i < 20_000; i += 11) {
+                    db.remove("key" + i);
+                }
+
+                Random rand = new Random(7);
+                List<byte[]> keys = new java.util.ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    keys.add(Keys.of("key" + rand.nextInt(22_000)));
+                }
+                keys.add(keys.get(0)); // duplicates get the same answer
+                List<ValueHolder> values = db.multiGet(keys);
+                assertEquals(keys.size(), values.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    assertArrayEquals(db.getSimple(keys.get(i)),
+                            values.get(i) == null ? null : values.get(i).value(), new String(keys.get(i)));
+                }
+
+                Map<String, byte[]> present = db.multiGet(List.of("key1", "key11", "missing"));
+                assertEquals(List.of("key1"), List.copyOf(present.keySet()));
+                assertArrayEquals(db.getSimple("key1"), present.get("key1"));
+            }
+        }
+    }
+
+    @Test
+    void testCursorMatchesModel() {
+        // versions spread over levels, L0 tables and the memtable, keys compare like their strings
+        java.util.TreeMap<String, String> model = new java.util.TreeMap<>();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                String value = "v" + round + "_" + i + OVERWRITE_PADDING;
+                kvStore.set("key" + i, value.getBytes());
+                model.put("key" + i, value);
+            }
+        }
+        for (int i = 0; i < 20_000; i += 7) {
+            kvStore.remove("key" + i);
+            model.remove("key" + i);
+        }
+
+        try (DbCursor cursor = kvStore.newCursor()) {
+            List<String> forward = new java.util.ArrayList<>();
+            for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                forward.add(new String(cursor.key()));
+                assertEquals(model.get(forward.get(forward.size() - 1)), new String(cursor.value()));
+            }
+            assertEquals(List.copyOf(model.keySet()), forward);
+            List<String> backward = new java.util.ArrayList<>();
+            for (cursor.seekToLast(); cursor.isValid(); cursor.prev()) {
+                backward.add(new String(cursor.key()));
+            }
+            assertEquals(List.copyOf(model.descendingKeySet()), backward);
+
+            // re-seeks on the same cursor, each followed by a walk changing direction at random
+            Random rand = new Random(3);
+            for (int s = 0; s < 300; s++) {
+                String target = "key" + rand.nextInt(21_000);
+                String expected;
+                if (rand.nextBoolean()) {
+                    cursor.seek(target);
+                    expected = model.ceilingKey(target);
+                } else {
+                    cursor.seekForPrev(target);
+                    expected = model.floorKey(target);
+                }
+                for (int step = 0; step < 20 && expected != null; step++) {
+                    assertTrue(cursor.isValid(), "expected " + expected);
+                    assertEquals(expected, new String(cursor.key()));
+                    if (rand.nextBoolean()) {
+                        cursor.next();
+                        expected = model.higherKey(expected);
+                    } else {
+                        cursor.prev();
+                        expected = model.lowerKey(expected);
+                    }
+                }
+                if (expected == null) {
+                    assertFalse(cursor.isValid());
+                }
+            }
+        }
+
+        // lower bound inclusive, upper bound exclusive, in both directions
+        try (DbCursor cursor = kvStore.newCursor(Keys.of("key150"), Keys.of("key1600"))) {
+            List<String> expected = List.copyOf(model.subMap("key150", "key1600").keySet());
+            List<String> forward = new java.util.ArrayList<>();
+            for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                forward.add(new String(cursor.key()));
+            }
+            assertEquals(expected, forward);
+            List<String> backward = new java.util.ArrayList<>();
+            for (cursor.seekForPrev("key9"); cursor.isValid(); cursor.prev()) {
+                backward.add(new String(cursor.key()));
+            }
+            assertEquals(com.google.common.collect.Lists.reverse(expected), backward);
+            cursor.seek("key0");
+            assertEquals(expected.get(0), new String(cursor.key()));
+        }
+    }
+
+    @Test
+    void testCursorReadsItsSnapshot() {
+        for (int i = 0; i < 10; i++) {
+            kvStore.set("key" + i, ("old" + i).getBytes());
+        }
+        try (DbView view = kvStore.snapshot();
+             DbCursor cursor = kvStore.newCursor()) {
+            kvStore.set("key3", "new".getBytes());
+            kvStore.remove("key5");
+            kvStore.set("key55", "added".getBytes());
+
+            for (DbCursor c : List.of(cursor, view.newCursor(null, null))) {
+                int count = 0;
+                for (c.seekToFirst(); c.isValid(); c.next()) {
+                    assertEquals("old" + new String(c.key()).substring(3), new String(c.value()));
+                    count++;
+                }
+                assertEquals(10, count);
+            }
+        }
+        try (DbCursor cursor = kvStore.newCursor()) {
+            cursor.seekForPrev("key56");
+            assertEquals("key55", new String(cursor.key()));
+            cursor.prev();
+            assertEquals("key4", new String(cursor.key()));
+        }
+    }
+
     @Test
     void testRawIterateFullRange() {
         // Insert a set of key-value pairs
@@ -130,6 +354,40 @@ class DbTest {
 
     }
 
+    @Test
+    void testSnapshotGetReadsTables() {
+        for (DbOptions options : List.of(
+                new DbOptions().directory(dir.resolve("blocks")),
+                new DbOptions().directory(dir.resolve("decoded")).cacheDecodedBlocks(true))) {
+            try (Db db = new Db(options.writeBuffer(64 * 1024, 256 * 1024))) {
+                int keys = 5_000;
+                for (int i = 0; i < keys; i++) {
+                    db.set("key" + i, ("old" + i).getBytes());
+                }
+                db.remove("key0");
+                try (DbView view = db.snapshot()) {
+                    // newer versions and removals, flushed into tables on top of the old ones
+                    for (int round = 0; round < 3; round++) {
+                        for (int i = 0; i < keys; i++) {
+                            if (i % 3 == 0) {
+                                db.remove("key" + i);
+                            } else {
+                                db.set("key" + i, ("new" + i).getBytes());
+                            }
+                        }
+                    }
+                    db.set("key0", "new0".getBytes());
+                    assertNull(view.get("key0"), "removed before the snapshot");
+                    for (int i = 1; i < keys; i++) {
+                        assertArrayEquals(("old" + i).getBytes(), view.get("key" + i).value(), "key" + i);
+                    }
+                    assertNull(view.get("missing"));
+                    assertArrayEquals("new0".getBytes(), db.getSimple("key0"));
+                }
+            }
+        }
+    }
+
     @Test
     void testGetRangeBasic() {
         // Setup test data
@@ -307,6 +565,338 @@ class DbTest {
         assertThrows(IllegalStateException.class, it::next);
     }
 
+    private static void writeAndReadBack(Db db) {
+        // enough data for several memtable flushes and a compaction of L0
+        byte[] padding = new byte[200];
+        Arrays.fill(padding, (byte) 'x');
+        int count = 60_000;
+        for (int i = 0; i < count; i++) {
+            db.set("key" + i, (i + new String(padding)).getBytes());
+        }
+        for (int i = 0; i < count; i++) {
+            ValueHolder holder = db.get("key" + i);
+            assertNotNull(holder, "missing key" + i);
+            assertEquals(i + new String(padding), new String(holder.value()));
+        }
+    }
+
+    @Test
+    void testGetAfterFlushAndCompaction() {
+        writeAndReadBack(kvStore);
+    }
+
+    @Test
+    void testGetAfterFlushWithDecodedBlockCache() {
+        try (Db db = new Db(new DbOptions().directory(dir.resolve("decoded")).cacheDecodedBlocks(true))) {
+            writeAndReadBack(db);
+        }
+    }
+
+    @Test
+    void testGetAfterFlushWithOffHeapMemTable() {
+        try (Db db = new Db(new DbOptions().directory(dir.resolve("offheap")).offHeapMemTable(true))) {
+            writeAndReadBack(db);
+        }
+    }
+
+    @Test
+    void testGetAfterFlushWithSmallWriteBuffers() {
+        // many rotations, the budget only fits a few frozen tables so writes are held back behind flushes
+        try (Db db = new Db(new DbOptions().directory(dir.resolve("small")).writeBuffer(64 * 1024, 256 * 1024))) {
+            writeAndReadBack(db);
+        }
+    }
+
+    @Test
+    void testPropertiesReportActivity() throws Exception {
+        Path directory = dir.resolve("metrics");
+        ObjectName name;
+        try (Db db = new Db(new DbOptions().directory(directory).writeBuffer(64 * 1024, 1024 * 1024))) {
+            byte[] padding = new byte[200];
+            for (int i = 0; i < 5_000; i++) {
+                db.set("key" + i, padding);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!"0".equals(db.getProperty("kvdb.num-immutable-mem-table"))) {
+                assertTrue(System.nanoTime() < deadline, "flushes did not finish");
+                Thread.sleep(10);
+            }
+            for (int i = 0; i < 1_000; i++) {
+                assertNotNull(db.get("key" + i));
+                assertNull(db.get("key" + i + "-missing"));
+            }
+            try (DbCursor cursor = db.newCursor()) {
+                cursor.seek("key1");
+                assertTrue(cursor.isValid());
+            }
+
+            assertEquals("5000", db.getProperty("kvdb.write.latency").split(" ")[1]);
+            assertTrue(db.getProperty("kvdb.get.latency").startsWith("count 2000 "));
+            assertTrue(db.getProperty("kvdb.seek.latency").startsWith("count 1 "));
+            assertTrue(Long.parseLong(db.getProperty("kvdb.flush.bytes-written")) > 0);
+            long files = Long.parseLong(db.getProperty("kvdb.num-files-at-level0"))
+                    + Long.parseLong(db.getProperty("kvdb.num-files-at-level1"));
+            assertTrue(files > 0);
+            assertEquals("0", db.getProperty("kvdb.num-files-at-level9"));
+            assertTrue(Long.parseLong(db.getProperty("kvdb.bloom.useful")) > 0);
+            long checked = Long.parseLong(db.getProperty("kvdb.bloom.checked"));
+            assertTrue(checked >= Long.parseLong(db.getProperty("kvdb.bloom.useful"))
+                    + Long.parseLong(db.getProperty("kvdb.bloom.false-positive")));
+            assertTrue(db.getProperty("kvdb.stats").contains("kvdb.block-cache.hit-rate: "));
+            assertNull(db.getProperty("kvdb.no-such-property"));
+            assertNull(db.getProperty("no-prefix"));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(new ObjectName("konputer.kvdb:type=Db,directory="
+                    + ObjectName.quote(directory.toAbsolutePath().toString()) + ",*"), null);
+            assertEquals(1, names.size());
+            name = names.iterator().next();
+            assertEquals(2000L, server.getAttribute(name, "get.count"));
+            assertEquals(db.getMetrics().keySet().size(), server.getMBeanInfo(name).getAttributes().length);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    public interface BlockerMBean {
+    }
+
+    public static class Blocker implements BlockerMBean {
+    }
+
+    @Test
+    void testFailedMBeanRegistrationClosesStorage() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("konputer.kvdb:type=Db,directory="
+                + ObjectName.quote(dir.toAbsolutePath().toString()) + ",*"), null);
+        long nextId = Long.parseLong(names.iterator().next().getKeyProperty("id")) + 1;
+        Path directory = dir.resolve("blocked");
+        ObjectName taken = new ObjectName("konputer.kvdb:type=Db,id=" + nextId + ",directory="
+                + ObjectName.quote(directory.toAbsolutePath().toString()));
+        server.registerMBean(new Blocker(), taken);
+        try {
+            // the periodic log syncer starts with the Db and stops when it closes
+            long before = syncerThreads();
+            assertThrows(RuntimeException.class,
+                    () -> new Db(new DbOptions().directory(directory).syncMode(SyncMode.PERIODIC)));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (syncerThreads() > before) {
+                assertTrue(System.nanoTime() < deadline, "background threads of the failed Db still run");
+                Thread.sleep(10);
+            }
+        } finally {
+            server.unregisterMBean(taken);
+        }
+    }
+
+    private static long syncerThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().equals("wal-syncer")).count();
+    }
+
+    @Test
+    void testCloseTwiceAndAfterMBeanWasUnregistered() throws Exception {
+        Path directory = dir.resolve("close");
+        DbOptions options = new DbOptions().directory(directory);
+        Db db = Db.open(options);
+        db.set("key", "value".getBytes());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server.queryNames(new ObjectName("konputer.kvdb:type=Db,directory="
+                + ObjectName.quote(directory.toAbsolutePath().toString()) + ",*"), null)) {
+            server.unregisterMBean(name);
+        }
+        db.close();
+        db.close();
+
+        // the storage was closed all the same, the value is in the log it left behind
+        try (Db reopened = Db.open(options)) {
+            assertArrayEquals("value".getBytes(), reopened.getSimple("key"));
+        }
+    }
+
+    @Test
+    void testPerfContextExplainsOneRead() throws Exception {
+        try (Db db = new Db(new DbOptions().directory(dir.resolve("perf")).writeBuffer(64 * 1024, 1024 * 1024))) {
+            byte[] padding = new byte[200];
+            for (int i = 0; i < 2_000; i++) {
+                db.set("key" + i, padding);
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!"0".equals(db.getProperty("kvdb.num-immutable-mem-table"))) {
+                assertTrue(System.nanoTime() < deadline, "flushes did not finish");
+                Thread.sleep(10);
+            }
+            PerfContext perf = PerfContext.enable();
+            try {
+                assertNotNull(db.get("key0"));
+                assertTrue(perf.memTablesProbed() >= 1);
+                assertTrue(perf.tablesChecked() >= 1);
+                assertTrue(perf.bloomPassed() >= 1);
+                assertTrue(perf.blocksRead() + perf.blockCacheHits() >= 1);
+                assertTrue(perf.rowsDecoded() > 0);
+                assertTrue(perf.tableNanos() > 0);
+
+                perf.reset();
+                try (DbCursor cursor = db.newCursor()) {
+                    cursor.seekToFirst();
+                    for (int i = 0; i < 100; i++) {
+                        cursor.next();
+                    }
+                }
+                assertTrue(perf.memTablesProbed() >= 1);
+                assertTrue(perf.tablesChecked() >= 1);
+                assertTrue(perf.rowsDecoded() >= 100);
+            } finally {
+                PerfContext.disable();
+            }
+            assertNull(PerfContext.current());
+        }
+    }
+
+    @Test
+    void testOverwritesSurvivePartitionedCompaction() {
+        // small tables and an eager L0 trigger push the data through several levels and subcompactions
+        DbOptions options = new DbOptions().directory(dir.resolve("partitioned"))
+                .l0CompactionTrigger(2)
+                .targetFileSize(64 * 1024)
+                .maxSubcompactions(4);
+        writeOverwrites(options);
+        try (Db db = Db.open(options)) {
+            assertNewestVersions(db);
+        }
+    }
+
+    @Test
+    void testOverwritesSurviveTieredCompaction() {
+        DbOptions options = new DbOptions().directory(dir.resolve("tiered"))
+                .compactionStyle(CompactionStyle.TIERED)
+                .l0CompactionTrigger(3)
+                .targetFileSize(64 * 1024);
+        writeOverwrites(options);
+        try (Db db = Db.open(options)) {
+            assertNewestVersions(db);
+            assertTrue(db.getCompactionStats().sortedRuns() > 0);
+        }
+        // the levels written by one style are valid input for the other
+        try (Db db = Db.open(options.compactionStyle(CompactionStyle.LEVELED))) {
+            assertNewestVersions(db);
+        }
+    }
+
+    @Test
+    void testOverwritesSurviveParallelFlushes() {
+        // many small memtables written concurrently, L0 and the frozen tables must stay in freeze order
+        DbOptions options = new DbOptions().directory(dir.resolve("flushes"))
+                .flushThreads(4)
+                .writeBuffer(32 * 1024, 512 * 1024)
+                .l0CompactionTrigger(8);
+        try (Db db = new Db(options)) {
+            for (String round : List.of("old", "new")) {
+                for (int i = 0; i < OVERWRITE_COUNT; i++) {
+                    db.set("key" + i, (round + i + OVERWRITE_PADDING).getBytes());
+                }
+            }
+            assertNewestVersions(db);
+        }
+        try (Db db = Db.open(options)) {
+            assertNewestVersions(db);
+        }
+    }
+
+    @Test
+    void testCompactionKeepsOnlyVersionsStillRead() throws Exception {
+        // rounds of overwrites with new snapshot ids, one snapshot stays open on the first round
+        DbOptions options = new DbOptions().directory(dir.resolve("gc"))
+                .l0CompactionTrigger(2)
+                .targetFileSize(256 * 1024);
+        int keys = 2_000;
+        int rounds = 16;
+        Random rand = new Random(5);
+        long written = 0;
+        try (Db db = new Db(options)) {
+            DbView first = null;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < keys; i++) {
+                    byte[] value = new byte[200];
+                    rand.nextBytes(value); // incompressible, so the table size counts versions
+                    value[0] = (byte) round;
+                    db.set("key" + i, value);
+                    written += value.length;
+                }
+                if (round == 0) {
+                    first = db.snapshot();
+                } else {
+                    db.snapshot().close();
+                }
+            }
+            for (int i = 0; i < keys; i += 2) {
+                db.remove("key" + i);
+            }
+            for (int i = 0; i < keys; i++) {
+                assertEquals(0, first.get("key" + i).value()[0], "snapshot lost key" + i);
+                byte[] latest = db.getSimple("key" + i);
+                assertEquals(i % 2 == 0 ? null : (byte) (rounds - 1), latest == null ? null : latest[0]);
+            }
+            first.close();
+        }
+        long onDisk;
+        try (var files = java.nio.file.Files.list(dir.resolve("gc"))) {
+            onDisk = files.mapToLong(f -> f.toFile().length()).sum();
+        }
+        assertTrue(onDisk < written / 2, "compactions kept overwritten versions");
+    }
+
+    @Test
+    void testBinaryKeysSortUnsigned() {
+        // enough rows to flush, so the keys go through tables and compaction as well as the memtable
+        int count = 40_000;
+        byte[] value = new byte[40];
+        for (int i = 0; i < count; i++) {
+            kvStore.set(ByteBuffer.allocate(Integer.BYTES).putInt(i * 53_687).array(), value);
+        }
+        byte[] low = {0x7F};
+        byte[] high = {(byte) 0x80};
+        kvStore.set(low, "low".getBytes());
+        kvStore.set(high, "high".getBytes());
+
+        assertArrayEquals("low".getBytes(), kvStore.getSimple(low));
+        assertArrayEquals("high".getBytes(), kvStore.getSimple(high));
+        assertNull(kvStore.getSimple(new byte[]{(byte) 0x80, 0}));
+        assertNotNull(kvStore.get(ByteBuffer.allocate(Integer.BYTES).putInt((count - 1) * 53_687).array()));
+
+        byte[] max = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        Iterator<Row> it = kvStore.getRange(new TaggedKey(new byte[0], 0), new TaggedKey(max, Long.MAX_VALUE));
+        byte[] prev = null;
+        int seen = 0;
+        while (it.hasNext()) {
+            byte[] key = it.next().key().bytes();
+            if (prev != null) {
+                assertTrue(Keys.compare(prev, key) < 0, "keys out of unsigned order");
+            }
+            prev = key;
+            seen++;
+        }
+        assertEquals(count + 2, seen);
+    }
+
+    private static final int OVERWRITE_COUNT = 30_000;
+    private static final String OVERWRITE_PADDING = "x".repeat(200);
+
+    private static void writeOverwrites(DbOptions options) {
+        try (Db db = new Db(options)) {
+            // same snapshot id for both rounds, only the table order tells the versions apart
+            for (String round : List.of("old", "new")) {
+                for (int i = 0; i < OVERWRITE_COUNT; i++) {
+                    db.set("key" + i, (round + i + OVERWRITE_PADDING).getBytes());
+                }
+            }
+        }
+    }
+
+    private static void assertNewestVersions(Db db) {
+        for (int i = 0; i < OVERWRITE_COUNT; i++) {
+            assertEquals("new" + i + OVERWRITE_PADDING, new String(db.getSimple("key" + i)), "stale key" + i);
+        }
+    }
+
     /**
      * Operation ratios for benchmarking KvStore.
      */
@@ -405,12 +995,43 @@ class DbTest {
                 new OperationRatios(0.25, 0.25, 0.25, 0.25),
                 new OperationRatios(0.9, 0.05, 0.03, 0.02)
         );
-        for (OperationRatios ratios : ratioSets) {
-            kvStore = new Db(); // Reset for each run
+        for (int run = 0; run < ratioSets.size(); run++) {
+            OperationRatios ratios = ratioSets.get(run);
+            kvStore.close();
+            kvStore = new Db(new DbOptions().directory(dir.resolve("run" + run))); // Reset for each run
             BenchmarkResult result = runKvStoreBenchmark(32, 100000, ratios, 100);
             System.out.println("Ratios: " + ratios + " -> " + result);
             assertTrue(result.reads > 0);
             assertTrue(result.writes > 0);
         }
     }
+
+    @Test
+    void testCompactionStylesReportStats() {
+        // timings live in CompactionStyleBenchmark, this only checks what both styles report
+        int writes = 50_000;
+        for (CompactionStyle style : CompactionStyle.values()) {
+            DbOptions options = new DbOptions().directory(dir.resolve(style.name()))
+                    .compactionStyle(style)
+                    .l0CompactionTrigger(4)
+                    .writeBuffer(64 * 1024, 512 * 1024);
+            try (Db db = new Db(options)) {
+                Random rand = new Random(42);
+                for (int i = 0; i < writes; i++) {
+                    db.set("k" + rand.nextLong(), new byte[100]);
+                }
+                CompactionStats s = db.getCompactionStats();
+                assertTrue(s.flushedBytes() > 0, style + " flushed nothing");
+                assertTrue(s.writeAmplification() >= 1, style + " write amplification " + s.writeAmplification());
+                assertTrue(s.sortedRuns() > 0, style + " has no sorted runs");
+                rand = new Random(42);
+                for (int i = 0; i < writes; i += 100) {
+                    assertNotNull(db.get("k" + rand.nextLong()));
+                    for (int skip = 1; skip < 100; skip++) {
+                        rand.nextLong();
+                    }
+                }
+            }
+        }
+    }
 }
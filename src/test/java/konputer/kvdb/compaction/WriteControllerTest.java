@@ -0,0 +1,61 @@
+package konputer.kvdb.compaction;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteControllerTest {
+
+    @Test
+    void testWritesPassBelowSlowdownTrigger() {
+        WriteController controller = new WriteController(2, 4);
+        controller.l0TablesChanged(1);
+        controller.throttle();
+        assertEquals(0, controller.delayedWrites());
+        assertEquals(0, controller.stalledWrites());
+
+        controller.l0TablesChanged(3);
+        controller.throttle();
+        assertEquals(1, controller.delayedWrites());
+    }
+
+    @Test
+    void testStallUntilCompactionCatchesUp() throws Exception {
+        WriteController controller = new WriteController(2, 4);
+        controller.l0TablesChanged(4);
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            controller.throttle();
+            done.countDown();
+        });
+        writer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS), "writer must block at the stop trigger");
+
+        controller.l0TablesChanged(1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.stalledWrites());
+    }
+
+    @Test
+    void testFailureReleasesAndRejectsWriters() throws Exception {
+        WriteController controller = new WriteController(2, 4);
+        controller.l0TablesChanged(10);
+
+        CountDownLatch rejected = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                controller.throttle();
+            } catch (IllegalStateException e) {
+                rejected.countDown();
+            }
+        });
+        writer.start();
+        controller.fail(new RuntimeException("disk full"));
+        assertTrue(rejected.await(5, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, controller::throttle);
+    }
+}
@@ -0,0 +1,58 @@
+package konputer.kvdb.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+
+    private static byte[] repetitiveJson(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("{\"id\":").append(i).append(",\"type\":\"event\",\"payload\":{\"user\":\"u").append(i % 7).append("\"}}");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), length);
+    }
+
+    private static void assertRoundTrip(Compression c, byte[] raw) {
+        byte[] stored = c.compress(raw, raw.length);
+        ByteBuffer decoded = c.decompress(ByteBuffer.wrap(stored), raw.length);
+        byte[] out = new byte[decoded.remaining()];
+        decoded.get(out);
+        assertArrayEquals(raw, out, c + " failed for " + raw.length + " bytes");
+    }
+
+    @Test
+    void testRoundTripAllCodecs() {
+        Random rand = new Random(42);
+        for (Compression c : Compression.values()) {
+            for (int length : new int[]{0, 1, 3, 4, 15, 16, 270, 1024, 70_000}) {
+                byte[] random = new byte[length];
+                rand.nextBytes(random);
+                assertRoundTrip(c, random);
+                assertRoundTrip(c, repetitiveJson(length));
+                assertRoundTrip(c, new byte[length]);
+            }
+        }
+    }
+
+    @Test
+    void testRepetitiveDataShrinks() {
+        byte[] raw = repetitiveJson(4096);
+        assertTrue(Compression.LZ.compress(raw, raw.length).length < raw.length / 2);
+        assertTrue(Compression.DEFLATE.compress(raw, raw.length).length < raw.length / 3);
+    }
+
+    @Test
+    void testIdsRoundTrip() {
+        for (Compression c : Compression.values()) {
+            assertEquals(c, Compression.fromId(c.id()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> Compression.fromId((byte) 99));
+    }
+}
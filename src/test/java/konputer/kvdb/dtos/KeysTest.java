@@ -0,0 +1,66 @@
+package konputer.kvdb.dtos;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeysTest {
+
+    @Test
+    void testUnsignedOrder() {
+        assertTrue(Keys.compare(new byte[]{0x7F}, new byte[]{(byte) 0x80}) < 0);
+        assertTrue(Keys.compare(new byte[]{(byte) 0xFF}, new byte[]{(byte) 0xFF, 0}) < 0);
+        assertTrue(Keys.compare(new byte[0], new byte[]{0}) < 0);
+        assertEquals(0, Keys.compare(Keys.of("abc"), Keys.of("abc")));
+    }
+
+    @Test
+    void testSerializedComparisonMatchesDecoded() {
+        byte[][] keys = {{}, {0}, {0x7F}, {(byte) 0x80}, {(byte) 0x80, 1}, {(byte) 0xFF}};
+        for (byte[] stored : keys) {
+            // the key sits behind some other bytes, like a row in the middle of a block
+            ByteBuffer buf = ByteBuffer.allocate(3 + Integer.BYTES + stored.length + Long.BYTES);
+            buf.position(3).putInt(stored.length).put(stored).putLong(5);
+            TaggedKey decoded = new TaggedKey(stored, 5);
+            for (byte[] probe : keys) {
+                for (long snapshot : new long[]{4, 5, 6}) {
+                    TaggedKey other = new TaggedKey(probe, snapshot);
+                    assertEquals(Integer.signum(decoded.compareTo(other)),
+                            Integer.signum(TaggedKey.compareSerialized(buf, 3, other)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testBufferComparisonMatchesArrays() {
+        Random rand = new Random(3);
+        for (int n = 0; n < 2_000; n++) {
+            // few distinct bytes so long shared prefixes and mismatches past eight bytes are common
+            byte[] stored = new byte[rand.nextInt(20)];
+            byte[] probe = new byte[rand.nextInt(20)];
+            for (int i = 0; i < stored.length; i++) {
+                stored[i] = (byte) (rand.nextBoolean() ? 0x7F : 0x80);
+            }
+            for (int i = 0; i < probe.length; i++) {
+                probe[i] = i < stored.length && rand.nextInt(8) > 0 ? stored[i] : (byte) (rand.nextBoolean() ? 0x7F : 0x80);
+            }
+            int expected = Integer.signum(Keys.compare(stored, probe));
+            ByteBuffer heap = ByteBuffer.allocate(stored.length + 5);
+            ByteBuffer direct = ByteBuffer.allocateDirect(stored.length + 5);
+            for (ByteBuffer buf : List.of(heap, direct, direct.duplicate().order(ByteOrder.LITTLE_ENDIAN))) {
+                buf.put(3, stored);
+                ByteBuffer sliced = buf.slice(1, stored.length + 4).order(buf.order());
+                for (ByteBuffer view : List.of(buf, buf.asReadOnlyBuffer().order(buf.order()), sliced)) {
+                    int offset = view == sliced ? 2 : 3;
+                    assertEquals(expected, Integer.signum(Keys.compare(view, offset, stored.length, probe)));
+                }
+            }
+        }
+    }
+}
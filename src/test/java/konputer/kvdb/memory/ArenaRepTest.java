@@ -0,0 +1,133 @@
+package konputer.kvdb.memory;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArenaRepTest {
+
+    private static TaggedKey key(Random random) {
+        return new TaggedKey(String.format("key%04d", random.nextInt(500)), random.nextInt(3));
+    }
+
+    private static void assertRow(Map.Entry<TaggedKey, ValueHolder> expected, Row actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual, "missing " + expected.getKey());
+        assertEquals(expected.getKey(), actual.key());
+        assertEquals(expected.getValue().isTombstone(), actual.value().isTombstone());
+        assertEquals(expected.getValue(), actual.value());
+    }
+
+    private static List<Row> drain(Iterator<Row> it) {
+        List<Row> rows = new ArrayList<>();
+        it.forEachRemaining(rows::add);
+        return rows;
+    }
+
+    @Test
+    void testMatchesSortedMap() {
+        Random random = new Random(19);
+        TreeMap<TaggedKey, ValueHolder> model = new TreeMap<>();
+        ArenaRep rep = new ArenaRep();
+        assertNull(rep.first());
+        assertNull(rep.last());
+        for (int i = 0; i < 3000; i++) {
+            TaggedKey key = key(random);
+            // some values span chunks, some keys are written again
+            ValueHolder value = i % 11 == 0 ? ValueHolder.tombstone()
+                    : new ValueHolder(new byte[i % 97 == 0 ? ArenaRep.CHUNK_SIZE : random.nextInt(64)]);
+            model.put(key, value);
+            rep.put(key, value);
+        }
+        assertRow(model.firstEntry(), rep.first());
+        assertRow(model.lastEntry(), rep.last());
+        for (int i = 0; i < 1000; i++) {
+            TaggedKey key = key(random);
+            assertRow(model.floorEntry(key), rep.floor(key));
+            assertRow(model.ceilingEntry(key), rep.ceiling(key));
+            assertRow(model.higherEntry(key), rep.higher(key));
+            assertRow(model.lowerEntry(key), rep.lower(key));
+        }
+        assertEquals(model.size(), drain(rep.iterator(null, null)).size());
+        TaggedKey from = new TaggedKey("key0100", 0);
+        TaggedKey to = new TaggedKey("key0200", Long.MAX_VALUE);
+        List<Row> range = drain(rep.iterator(from, to));
+        List<Map.Entry<TaggedKey, ValueHolder>> expected = new ArrayList<>(model.subMap(from, true, to, true).entrySet());
+        assertEquals(expected.size(), range.size());
+        for (int i = 0; i < range.size(); i++) {
+            assertRow(expected.get(i), range.get(i));
+        }
+    }
+
+    @Test
+    void testSizeCountsArenaBytes() {
+        ArenaRep rep = new ArenaRep();
+        long size = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long added = rep.put(new TaggedKey("key" + i, 1), new ValueHolder(new byte[100]));
+            assertTrue(added >= "key".length() + 100, "put of " + i + " added " + added);
+            size += added;
+        }
+        // a replaced value keeps its bytes, the new one adds its own
+        assertTrue(rep.put(new TaggedKey("key0", 1), new ValueHolder(new byte[100])) >= 100);
+        assertTrue(size < 10_000 * 256L, "size " + size);
+    }
+
+    @Test
+    void testConcurrentPutsAndReads() throws Exception {
+        ArenaRep rep = new ArenaRep();
+        int threads = 4;
+        int perThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        rep.put(new TaggedKey(String.format("key%06d", i * threads + thread), 1),
+                                new ValueHolder(("value" + i).getBytes()));
+                    }
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                // readers never see a row out of order or half written
+                for (int i = 0; i < 50; i++) {
+                    TaggedKey last = null;
+                    for (Iterator<Row> it = rep.iterator(null, null); it.hasNext(); ) {
+                        Row row = it.next();
+                        assertTrue(last == null || last.compareTo(row.key()) < 0);
+                        assertTrue(new String(row.value().value()).startsWith("value"));
+                        last = row.key();
+                    }
+                }
+            }));
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        List<Row> rows = drain(rep.iterator(null, null));
+        assertEquals(threads * perThread, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(new TaggedKey(String.format("key%06d", i), 1), rows.get(i).key());
+        }
+    }
+}
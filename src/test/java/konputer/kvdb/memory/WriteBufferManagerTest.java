@@ -0,0 +1,99 @@
+package konputer.kvdb.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBufferManagerTest {
+
+    @Test
+    void testWritesPassBelowSlowdown() {
+        AtomicLong active = new AtomicLong(100);
+        WriteBufferManager manager = new WriteBufferManager(1000, active::get);
+        manager.frozen(500);
+        manager.throttle();
+        assertEquals(0, manager.delayedWrites());
+        assertEquals(600, manager.memoryUsage());
+
+        active.set(300);
+        manager.throttle();
+        assertEquals(1, manager.delayedWrites());
+        assertEquals(0, manager.stalledWrites());
+    }
+
+    @Test
+    void testWritesPassWithoutPendingFlush() {
+        // nothing would free memory, the active table rotates on its own
+        WriteBufferManager manager = new WriteBufferManager(1000, () -> 2000);
+        manager.throttle();
+        assertEquals(0, manager.delayedWrites());
+        assertEquals(0, manager.stalledWrites());
+    }
+
+    @Test
+    void testStallUntilFlushInstalls() throws Exception {
+        WriteBufferManager manager = new WriteBufferManager(1000, () -> 200);
+        manager.frozen(400);
+        manager.frozen(400);
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            manager.throttle();
+            done.countDown();
+        });
+        writer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS), "writer must block at the budget");
+
+        manager.flushed(400);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, manager.stalledWrites());
+        assertEquals(400, manager.frozenBytes());
+    }
+
+    @Test
+    void testCloseReleasesWriters() throws Exception {
+        WriteBufferManager manager = new WriteBufferManager(1000, () -> 600);
+        manager.frozen(600);
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            manager.throttle();
+            done.countDown();
+        });
+        writer.start();
+        manager.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailedFlushRefusesWriters() throws Exception {
+        WriteBufferManager manager = new WriteBufferManager(1000, () -> 600);
+        manager.frozen(600);
+
+        AtomicReference<Throwable> refused = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                manager.throttle();
+            } catch (IllegalStateException e) {
+                refused.set(e);
+            }
+            done.countDown();
+        });
+        writer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS), "writer must block at the budget");
+
+        IOException error = new IOException("disk full");
+        manager.fail(error);
+        assertTrue(done.await(5, TimeUnit.SECONDS), "a failed flush must wake blocked writers");
+        assertSame(error, refused.get().getCause());
+        IllegalStateException e = assertThrows(IllegalStateException.class, manager::throttle);
+        assertSame(error, e.getCause());
+    }
+}
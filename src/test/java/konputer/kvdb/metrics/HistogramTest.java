@@ -0,0 +1,70 @@
+package konputer.kvdb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void testEmptySnapshot() {
+        Histogram.Snapshot s = new Histogram().snapshot();
+        assertEquals(0, s.count());
+        assertEquals(0, s.p99());
+        assertEquals(0, s.max());
+    }
+
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long v = 1; v <= 100_000; v++) {
+            histogram.record(v * 10);
+        }
+        Histogram.Snapshot s = histogram.snapshot();
+        assertEquals(100_000, s.count());
+        assertEquals(500_005, s.mean(), 0.001);
+        assertEquals(1_000_000, s.max());
+        assertEquals(500_000, s.p50(), 500_000 * 0.0625);
+        assertEquals(990_000, s.p99(), 990_000 * 0.0625);
+        assertEquals(999_000, s.p999(), 999_000 * 0.0625);
+        assertTrue(s.p50() <= s.p99() && s.p99() <= s.p999() && s.p999() <= s.max());
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(7);
+        }
+        histogram.record(31);
+        Histogram.Snapshot s = histogram.snapshot();
+        assertEquals(7, s.p50());
+        assertEquals(7, s.p99());
+        assertEquals(31, s.p999());
+    }
+
+    @Test
+    void testConcurrentRecordsAreAllCounted() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(1000);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Histogram.Snapshot s = histogram.snapshot();
+        assertEquals(200_000, s.count());
+        assertEquals(1000, s.max());
+        assertEquals(1000, s.p50(), 1000 * 0.0625);
+    }
+}
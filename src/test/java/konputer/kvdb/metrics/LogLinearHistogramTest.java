@@ -0,0 +1,52 @@
+package konputer.kvdb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogLinearHistogramTest {
+
+    @Test
+    void testPrecisionFollowsSubBucketBits() {
+        for (int bits : new int[]{4, 7}) {
+            LogLinearHistogram histogram = new LogLinearHistogram(bits);
+            for (long v = 1; v <= 100_000; v++) {
+                histogram.record(v * 10);
+            }
+            double error = 1.0 / (1 << bits);
+            assertEquals(500_000, histogram.percentile(50), 500_000 * error);
+            assertEquals(990_000, histogram.percentile(99), 990_000 * error);
+            assertEquals(1_000_000, histogram.percentile(100));
+        }
+    }
+
+    @Test
+    void testValuesBelowTwoSubBucketRangesAreExact() {
+        LogLinearHistogram histogram = new LogLinearHistogram(7);
+        for (int v = 0; v < 256; v++) {
+            histogram.record(v);
+        }
+        for (int v = 0; v < 256; v++) {
+            assertEquals(v, histogram.percentile((v + 1) * 100.0 / 256));
+        }
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.max());
+    }
+
+    @Test
+    void testAddMergesCounts() {
+        LogLinearHistogram a = new LogLinearHistogram(7);
+        LogLinearHistogram b = new LogLinearHistogram(7);
+        for (int i = 0; i < 99; i++) {
+            a.record(100);
+        }
+        b.record(1_000_000);
+        a.add(b);
+        assertEquals(100, a.count());
+        assertEquals(1_000_000, a.max());
+        assertEquals(100, a.percentile(99));
+        assertEquals(1_000_000, a.percentile(99.9));
+        assertEquals((99 * 100 + 1_000_000) / 100.0, a.mean(), 0.001);
+        assertThrows(IllegalArgumentException.class, () -> a.add(new LogLinearHistogram(4)));
+    }
+}
@@ -0,0 +1,52 @@
+package konputer.kvdb.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerfContextTest {
+
+    @AfterEach
+    void tearDown() {
+        PerfContext.disable();
+    }
+
+    @Test
+    void testOnlyEnabledThreadsHaveAContext() throws InterruptedException {
+        assertNull(PerfContext.current());
+        PerfContext perf = PerfContext.enable();
+        assertSame(perf, PerfContext.current());
+
+        AtomicReference<PerfContext> other = new AtomicReference<>(perf);
+        Thread thread = new Thread(() -> other.set(PerfContext.current()));
+        thread.start();
+        thread.join();
+        assertNull(other.get());
+
+        PerfContext.disable();
+        assertNull(PerfContext.current());
+        PerfContext.disable();
+        assertNull(PerfContext.current());
+    }
+
+    @Test
+    void testEnableStartsFromZero() {
+        PerfContext perf = PerfContext.enable();
+        perf.tableChecked();
+        perf.bloomProbe(false);
+        perf.blockRead(1500);
+        perf.memTableNanos(500);
+        assertEquals(1, perf.tablesChecked());
+        assertEquals(1, perf.bloomSkipped());
+        assertEquals(1, perf.blocksRead());
+        assertEquals(500, perf.totalNanos());
+
+        assertSame(perf, PerfContext.enable());
+        assertEquals(0, perf.tablesChecked());
+        assertEquals(0, perf.blockReadNanos());
+        assertEquals(0, perf.totalNanos());
+    }
+}
@@ -0,0 +1,107 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockBuilderTest {
+
+    private static List<Row> rows(int count) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ValueHolder value = i % 7 == 0 ? ValueHolder.tombstone() : new ValueHolder(("value" + i).getBytes());
+            rows.add(new Row(new TaggedKey(String.format("user/%08d/profile", i / 2), i % 2 + 1), value));
+        }
+        return rows;
+    }
+
+    private static ByteBuffer build(List<Row> rows) throws Exception {
+        BlockBuilder builder = new BlockBuilder();
+        for (Row row : rows) {
+            builder.add(row.key(), row.value());
+        }
+        return ByteBuffer.wrap(builder.finish());
+    }
+
+    @Test
+    void testRowsRoundTrip() throws Exception {
+        List<Row> rows = rows(100);
+        List<Row> read = new ArrayList<>();
+        new SSTableHandle.RowAwareBlock(build(rows)).rowIterator().forEachRemaining(read::add);
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i).key(), read.get(i).key());
+            assertEquals(rows.get(i).value().isTombstone(), read.get(i).value().isTombstone());
+            assertEquals(rows.get(i).value(), read.get(i).value());
+        }
+    }
+
+    @Test
+    void testSharedPrefixesShrinkBlock() throws Exception {
+        List<Row> rows = rows(100);
+        long full = 0;
+        for (Row row : rows) {
+            full += Integer.BYTES + row.key().bytes().length + Long.BYTES + row.value().length();
+        }
+        assertTrue(build(rows).capacity() < full * 2 / 3, "keys should be stored prefix compressed");
+    }
+
+    @Test
+    void testSeekLandsAtOrBeforeKey() throws Exception {
+        List<Row> rows = rows(100);
+        ByteBuffer buf = build(rows);
+        for (int target = 0; target < 50; target++) {
+            byte[] key = Keys.of(String.format("user/%08d/profile", target));
+            SSTableHandle.RowAwareBlock block = new SSTableHandle.RowAwareBlock(buf.duplicate());
+            block.seek(key);
+            int decoded = 0;
+            int found = 0;
+            while (block.hasMore()) {
+                decoded++;
+                int cmp = block.compareNextKey(key);
+                block.skipValue();
+                if (cmp > 0) {
+                    break;
+                }
+                if (cmp == 0) {
+                    found++;
+                }
+            }
+            assertTrue(found >= 1, "seek skipped past " + target);
+            assertTrue(decoded <= BlockBuilder.RESTART_INTERVAL + 2, "decoded " + decoded + " entries");
+        }
+    }
+
+    @Test
+    void testSeekForwardResumesWhereLookupStopped() throws Exception {
+        List<Row> rows = rows(100);
+        SSTableHandle.RowAwareBlock block = new SSTableHandle.RowAwareBlock(build(rows));
+        block.seek(Keys.of(""));
+        // every third key, each found from where the lookup of the one before left the block
+        for (int target = 0; target < 50; target += 3) {
+            byte[] key = Keys.of(String.format("user/%08d/profile", target));
+            block.seekForward(key);
+            int found = 0;
+            while (block.hasMore()) {
+                int cmp = block.compareNextKey(key);
+                if (cmp > 0) {
+                    block.unread();
+                    break;
+                }
+                block.skipValue();
+                if (cmp == 0) {
+                    found++;
+                }
+            }
+            assertEquals(2, found, "versions of " + target);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testHitAndMissCounters() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4, false);
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, ByteBuffer.allocate(100));
+        assertNotNull(cache.get(1, 0));
+        assertNull(cache.get(2, 0), "entries are keyed by table id as well");
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void testUsageStaysWithinCapacity() {
+        long capacity = 64 * 1024;
+        BlockCache cache = new BlockCache(capacity, 4, false);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(1, i * 1024L, ByteBuffer.allocate(1024));
+        }
+        assertTrue(cache.usage() <= capacity);
+        assertNotNull(cache.get(1, 999 * 1024L), "most recent block must survive");
+    }
+
+    @Test
+    void testDisabledCacheNeverHits() {
+        BlockCache cache = BlockCache.disabled();
+        cache.put(1, 0, ByteBuffer.allocate(10));
+        assertNull(cache.get(1, 0));
+        assertEquals(0, cache.usage());
+    }
+
+    @Test
+    void testOffsetsAboveFourGiBKeepTheirTable() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4, false);
+        cache.put(0, 1L << 32, ByteBuffer.allocate(100));
+        assertNull(cache.get(1, 0));
+        assertNotNull(cache.get(0, 1L << 32));
+    }
+
+    @Test
+    void testMappedBlocksAreNotChargedTheirBytes() {
+        BlockCache cache = new BlockCache(1024 * 1024, 1, false);
+        cache.put(1, 0, ByteBuffer.allocateDirect(64 * 1024));
+        assertTrue(cache.usage() < 1024, "usage " + cache.usage());
+    }
+
+    @Test
+    void testOnlyPointReadsOfCompressedBlocksUseTheCache() throws Exception {
+        BlockCache cache = new BlockCache(1024 * 1024, 4, false);
+        try (SSTableHandle lz = writeTable("tbl_1.sstable", 1, Compression.LZ, cache);
+             SSTableHandle none = writeTable("tbl_2.sstable", 2, Compression.NONE, cache)) {
+            // compaction scans neither count as misses nor fill the cache
+            lz.getBlocks().forEach(blocks -> blocks.forEachRemaining(b -> { }));
+            assertEquals(0, cache.misses());
+            assertEquals(0, cache.usage());
+
+            assertNotNull(lz.get(Keys.of("key000042")));
+            assertNotNull(lz.get(Keys.of("key000042")));
+            assertEquals(1, cache.misses());
+            assertEquals(1, cache.hits());
+
+            long usage = cache.usage();
+            assertNotNull(none.get(Keys.of("key000042")));
+            assertEquals(1, cache.misses(), "uncompressed blocks are read from the mapped file");
+            assertEquals(usage, cache.usage());
+        }
+    }
+
+    private SSTableHandle writeTable(String name, int id, Compression compression, BlockCache cache) throws Exception {
+        try (SSTableContentBuilder b = new SSTableContentBuilder(dir.resolve(name).toFile(), id,
+                new TableOptions(compression, cache, 10))) {
+            for (int i = 0; i < 1000; i++) {
+                b.writeKv(new TaggedKey(String.format("key%06d", i), 1), new ValueHolder(("value" + i).getBytes()));
+            }
+            return b.build();
+        }
+    }
+}
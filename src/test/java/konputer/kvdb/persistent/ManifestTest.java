@@ -0,0 +1,104 @@
+package konputer.kvdb.persistent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManifestTest {
+
+    @TempDir
+    Path dir;
+
+    private static VersionEdit add(int tableId, int level, List<Integer> removed) {
+        return new VersionEdit(List.of(new VersionEdit.TableEntry(tableId, level)), removed, tableId + 1, tableId * 10L);
+    }
+
+    @Test
+    void testRecoverAppliesEditsInOrder() throws Exception {
+        assertNull(Manifest.recover(dir));
+
+        Manifest.State state = new Manifest.State(0);
+        try (Manifest manifest = Manifest.create(dir, 1, state)) {
+            manifest.append(add(0, 0, List.of()));
+            manifest.append(add(1, 0, List.of()));
+            manifest.append(add(2, 1, List.of(0, 1)));
+        }
+
+        Manifest.State recovered = Manifest.recover(dir);
+        assertNotNull(recovered);
+        assertEquals(1, recovered.manifestNumber());
+        assertEquals(Map.of(2, 1), recovered.tables());
+        assertEquals(3, recovered.nextTableId());
+        assertEquals(20, recovered.lastSnapshotId());
+    }
+
+    @Test
+    void testTornTailIsIgnored() throws Exception {
+        try (Manifest manifest = Manifest.create(dir, 1, new Manifest.State(0))) {
+            manifest.append(add(0, 0, List.of()));
+            manifest.append(add(1, 0, List.of()));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(Manifest.manifestFile(dir, 1), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        assertEquals(Map.of(0, 0), Manifest.recover(dir).tables());
+    }
+
+    @Test
+    void testCheckpointSwitchesCurrent() throws Exception {
+        Manifest.State state = new Manifest.State(0);
+        Manifest manifest = Manifest.create(dir, 1, state);
+        for (int i = 0; i < Manifest.CHECKPOINT_EDITS; i++) {
+            VersionEdit edit = add(i, 0, i == 0 ? List.of() : List.of(i - 1));
+            manifest.append(edit);
+            state.apply(edit);
+        }
+        assertTrue(manifest.needsCheckpoint());
+        File old = Manifest.manifestFile(dir, 1);
+        long oldLength = old.length();
+
+        manifest = manifest.checkpoint(state);
+        manifest.close();
+
+        assertFalse(old.exists());
+        File current = Manifest.manifestFile(dir, 2);
+        assertTrue(current.length() < oldLength);
+        Manifest.State recovered = Manifest.recover(dir);
+        assertEquals(2, recovered.manifestNumber());
+        assertEquals(Map.of(Manifest.CHECKPOINT_EDITS - 1, 0), recovered.tables());
+        assertEquals(Manifest.CHECKPOINT_EDITS, recovered.nextTableId());
+    }
+
+    @Test
+    void testValueLogStateSurvivesCheckpoint() throws Exception {
+        Manifest.State state = new Manifest.State(0);
+        Manifest manifest = Manifest.create(dir, 1, state);
+        List<VersionEdit> edits = List.of(
+                new VersionEdit(List.of(), List.of(), 1, 0, 3, Map.of(0, 100L, 1, 50L)),
+                new VersionEdit(List.of(), List.of(), 1, 0, 5, Map.of(1, 80L, 3, 10L)));
+        for (VersionEdit edit : edits) {
+            manifest.append(edit);
+            state.apply(edit);
+        }
+        manifest.close();
+        Manifest.State recovered = Manifest.recover(dir);
+        assertEquals(5, recovered.nextValueLogFileId());
+        assertEquals(Map.of(0, 100L, 1, 80L, 3, 10L), recovered.valueLogDiscards());
+
+        // deleted files are dropped before the state is written out again
+        state.retainValueLogFiles(Set.of(1, 3));
+        Manifest.create(dir, 2, state).close();
+        recovered = Manifest.recover(dir);
+        assertEquals(5, recovered.nextValueLogFileId());
+        assertEquals(Map.of(1, 80L, 3, 10L), recovered.valueLogDiscards());
+    }
+}
@@ -0,0 +1,110 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SSTableIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private SSTableHandle writeTable(int count) throws Exception {
+        return writeTable(count, 1, 10);
+    }
+
+    private SSTableHandle writeTable(int count, int versions, int bitsPerKey) throws Exception {
+        File f = dir.resolve("tbl_0.sstable").toFile();
+        try (SSTableContentBuilder b = new SSTableContentBuilder(f, 0,
+                new TableOptions(Compression.LZ, BlockCache.disabled(), bitsPerKey))) {
+            for (int i = 0; i < count; i++) {
+                for (int v = versions; v > 0; v--) {
+                    b.writeKv(new TaggedKey(String.format("key%06d", i), v), new ValueHolder(("value" + i).getBytes()));
+                }
+            }
+            return b.build();
+        }
+    }
+
+    @Test
+    void testIndexRoundTrip() throws Exception {
+        try (SSTableHandle h = writeTable(5000)) {
+            SSTableIndex index = SSTableIndex.open(SSTableHandle.indexFile(dir.resolve("tbl_0.sstable").toFile()));
+            assertEquals(5000, index.entryCount());
+            assertTrue(index.blockCount() > 1);
+            assertEquals(new TaggedKey("key000000", 1), index.fenceKey(0));
+            assertEquals(new TaggedKey("key004999", 1), index.lastKey());
+            assertEquals(-1, index.floorBlock(new TaggedKey("a", 0)));
+            assertEquals(index.blockCount() - 1, index.floorBlock(new TaggedKey("z", 0)));
+            for (int b = 1; b < index.blockCount(); b++) {
+                assertTrue(index.fenceKey(b - 1).compareTo(index.fenceKey(b)) < 0);
+                assertTrue(index.blockOffset(b - 1) < index.blockOffset(b));
+                assertEquals(b, index.floorBlock(index.fenceKey(b)));
+            }
+
+            assertArrayEquals("value0".getBytes(), h.get(Keys.of("key000000")).value());
+            assertArrayEquals("value4999".getBytes(), h.get(Keys.of("key004999")).value());
+            assertNull(h.get(Keys.of("key005000")));
+        }
+    }
+
+    @Test
+    void testFilterHasNoFalseNegatives() throws Exception {
+        writeTable(5000).close();
+        SSTableIndex index = SSTableIndex.open(SSTableHandle.indexFile(dir.resolve("tbl_0.sstable").toFile()));
+        int falsePositives = 0;
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(index.mightContain(Keys.of(String.format("key%06d", i))));
+            if (index.mightContain(Keys.of(String.format("absent%06d", i)))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 500, "false positive rate too high: " + falsePositives);
+    }
+
+    @Test
+    void testFilterSizedFromDistinctKeys() throws Exception {
+        // older versions of a key must not inflate the filter
+        writeTable(200_000, 2, 10).close();
+        SSTableIndex index = SSTableIndex.open(SSTableHandle.indexFile(dir.resolve("tbl_0.sstable").toFile()));
+        int falsePositives = 0;
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(index.mightContain(Keys.of(String.format("key%06d", i))));
+            if (index.mightContain(Keys.of(String.format("absent%06d", i)))) {
+                falsePositives++;
+            }
+        }
+        // 10 bits per key give about 1% for a blocked filter
+        assertTrue(falsePositives < 200_000 * 0.02, "false positive rate too high: " + falsePositives);
+    }
+
+    @Test
+    void testFilterProbesStayInOneCacheLine() {
+        long[] words = new long[64 * KeyFilter.BLOCK_WORDS];
+        KeyFilter filter = KeyFilter.wrap(LongBuffer.wrap(words), 7);
+        for (int key = 0; key < 100; key++) {
+            Arrays.fill(words, 0);
+            filter.put(Keys.of("key" + key));
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] != 0) {
+                    first = first < 0 ? i : first;
+                    last = i;
+                }
+            }
+            assertEquals(first / KeyFilter.BLOCK_WORDS, last / KeyFilter.BLOCK_WORDS);
+            assertTrue(filter.mightContain(Keys.of("key" + key)));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.RowCursor;
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.metrics.Statistics;
+import konputer.kvdb.vlog.ValueLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SSTableMergerTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private SSTableContentBuilder newOutput() throws IOException {
+        return newOutput(new TableOptions(Compression.NONE, BlockCache.disabled(), 10));
+    }
+
+    private SSTableContentBuilder newOutput(TableOptions options) throws IOException {
+        int id = ids.getAndIncrement();
+        File f = dir.resolve("tbl_" + id + ".sstable").toFile();
+        return new SSTableContentBuilder(f, id, options);
+    }
+
+    private SSTableHandle table(List<Row> rows) throws Exception {
+        try (SSTableContentBuilder b = newOutput()) {
+            for (Row row : rows) {
+                b.writeKv(row.key(), row.value());
+            }
+            return b.build();
+        }
+    }
+
+    private static Row value(String key, long snapshotId) {
+        return new Row(new TaggedKey(key, snapshotId), new ValueHolder((key + snapshotId).getBytes()));
+    }
+
+    private static Row tombstone(String key, long snapshotId) {
+        return new Row(new TaggedKey(key, snapshotId), ValueHolder.tombstone());
+    }
+
+    private List<String> merge(SSTableHandle input, long[] snapshots, boolean bottommost) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (SSTableHandle t : SSTableMerger.merge(List.of(input), null, null, this::newOutput, 1 << 20,
+                ValueLog.disabled(), snapshots, bottommost)) {
+            RowCursor c = t.cursor();
+            for (c.seekToFirst(); c.isValid(); c.next()) {
+                Row row = c.row();
+                out.add(row.key().key() + row.key().snapshotId() + (row.value().isTombstone() ? "-" : ""));
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void testKeepsNewestVersionPerSnapshot() throws Exception {
+        SSTableHandle input = table(List.of(
+                value("a", 1), value("a", 3), value("a", 5), value("a", 7),
+                value("b", 2), tombstone("b", 6),
+                value("c", 1), tombstone("c", 2),
+                value("d", 5), tombstone("d", 8)));
+
+        // snapshot 4 reads a3 and b2, the latest readers a7, b6, c2 and d8
+        assertEquals(List.of("a3", "a7", "b2", "b6-", "c2-", "d8-"), merge(input, new long[]{4}, false));
+        // nothing older is left below the bottommost level, so tombstones without older versions go
+        assertEquals(List.of("a3", "a7", "b2", "b6-"), merge(input, new long[]{4}, true));
+        assertEquals(List.of("a7"), merge(input, new long[0], true));
+        // a snapshot taken at a version's own id reads it
+        assertEquals(List.of("a1", "a3", "a5", "a7", "b2", "b6-", "c1", "c2-", "d5", "d8-"),
+                merge(input, new long[]{1, 3, 5, 6}, false));
+    }
+
+    @Test
+    void testCutCountsValuesAppendedToValueLog() throws Exception {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] large = new byte[10_000];
+            Arrays.fill(large, (byte) i);
+            rows.add(new Row(new TaggedKey(String.format("k%03d", i), 1), new ValueHolder(large)));
+        }
+        SSTableHandle input = table(rows);
+
+        // the outputs separate the values, they only hold pointers but the moved values decide the cuts
+        ValueLog valueLog = new ValueLog(dir, 1024, 50, 1 << 20);
+        TableOptions options = new TableOptions(Compression.NONE, BlockCache.disabled(), 10, valueLog, new Statistics());
+        List<SSTableHandle> outputs = SSTableMerger.merge(List.of(input), null, null, () -> newOutput(options),
+                64 * 1024, valueLog, new long[0], true);
+        assertTrue(outputs.size() >= 5, "only " + outputs.size() + " outputs");
+        int i = 0;
+        for (SSTableHandle t : outputs) {
+            RowCursor c = t.cursor();
+            for (c.seekToFirst(); c.isValid(); c.next(), i++) {
+                assertTrue(c.row().value().isPointer());
+                assertArrayEquals(rows.get(i).value().value(), valueLog.resolve(c.row().value()).value());
+            }
+        }
+        assertEquals(rows.size(), i);
+    }
+}
@@ -0,0 +1,86 @@
+package konputer.kvdb.persistent;
+
+import konputer.kvdb.compression.Compression;
+import konputer.kvdb.dtos.Keys;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionTest {
+
+    @TempDir
+    Path dir;
+
+    private SSTableHandle writeTable(int id, String value) throws Exception {
+        File f = dir.resolve("tbl_" + id + ".sstable").toFile();
+        try (SSTableContentBuilder b = new SSTableContentBuilder(f, id,
+                new TableOptions(Compression.NONE, BlockCache.disabled(), 10))) {
+            for (int i = 0; i < 100; i++) {
+                b.writeKv(new TaggedKey(String.format("key%03d", i), 1), new ValueHolder(value.getBytes()));
+            }
+            return b.build();
+        }
+    }
+
+    private File tableFile(int id) {
+        return dir.resolve("tbl_" + id + ".sstable").toFile();
+    }
+
+    @Test
+    void testNewerL0TableWins() throws Exception {
+        Version empty = Version.empty();
+        Version v = empty.apply(Map.of(0, List.of(writeTable(0, "old"), writeTable(1, "new"))), Set.of());
+        empty.unref();
+        assertEquals("new", new String(v.get(Keys.of("key042")).value()));
+        assertNull(v.get(Keys.of("absent")));
+        v.unref();
+    }
+
+    @Test
+    void testSupersededTableStaysUntilLastReaderReleases() throws Exception {
+        SSTableHandle old = writeTable(0, "old");
+        Version empty = Version.empty();
+        Version first = empty.apply(Map.of(0, List.of(old)), Set.of());
+        empty.unref();
+
+        assertTrue(first.tryRef()); // a reader pins the first version
+        Version second = first.apply(Map.of(1, List.of(writeTable(1, "new"))), Set.of(old));
+        first.unref(); // the store moves on to the second version
+        old.supersededNotification();
+
+        assertTrue(tableFile(0).exists(), "pinned table deleted");
+        assertEquals("old", new String(first.get(Keys.of("key001")).value()));
+        first.unref();
+        assertFalse(tableFile(0).exists());
+        assertFalse(first.tryRef(), "released version must not be pinned again");
+
+        assertEquals("new", new String(second.get(Keys.of("key001")).value()));
+        second.unref();
+        assertTrue(tableFile(1).exists(), "table of a released but current version must not be deleted");
+    }
+
+    @Test
+    void testMovedTableIsKept() throws Exception {
+        SSTableHandle table = writeTable(0, "value");
+        Version empty = Version.empty();
+        Version first = empty.apply(Map.of(0, List.of(table)), Set.of());
+        empty.unref();
+        Version moved = first.apply(Map.of(2, List.of(table)), Set.of(table));
+        first.unref();
+
+        assertTrue(moved.l0().isEmpty());
+        assertEquals(List.of(table), moved.level(2).getTables());
+        assertEquals(3, moved.levelCount());
+        assertEquals("value", new String(moved.get(Keys.of("key000")).value()));
+        moved.unref();
+    }
+}
@@ -0,0 +1,143 @@
+package konputer.kvdb.vlog;
+
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import konputer.kvdb.dtos.ValuePointer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueLogTest {
+
+    private static final long FILE_SIZE = 1 << 20;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] value(int i) {
+        byte[] v = new byte[1000];
+        Arrays.fill(v, (byte) i);
+        return v;
+    }
+
+    private List<ValuePointer> writeFile(ValueLog log, int count) throws Exception {
+        ValueLog.Writer writer = log.newWriter();
+        List<ValuePointer> pointers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            pointers.add(writer.append(new TaggedKey("key" + i, 1), value(i)));
+        }
+        writer.finish();
+        return pointers;
+    }
+
+    @Test
+    void testPointersReadBackValues() throws Exception {
+        ValueLog log = new ValueLog(dir, 100, 50, FILE_SIZE);
+        List<ValuePointer> pointers = writeFile(log, 10);
+        for (int i = 0; i < pointers.size(); i++) {
+            assertArrayEquals(value(i), log.read(pointers.get(i)));
+        }
+        assertArrayEquals(value(4), log.resolve(ValueHolder.ofPointer(pointers.get(4))).value());
+        assertFalse(log.separates(new byte[99]));
+        assertTrue(log.separates(new byte[100]));
+        assertFalse(ValueLog.disabled().separates(new byte[1 << 20]));
+    }
+
+    @Test
+    void testDiscardsMarkFileForCollection() throws Exception {
+        ValueLog log = new ValueLog(dir, 100, 50, FILE_SIZE);
+        List<ValuePointer> pointers = writeFile(log, 10);
+        int fileId = pointers.get(0).fileId();
+        for (int i = 0; i < 4; i++) {
+            log.discard(pointers.get(i));
+        }
+        assertFalse(log.needsCollection(fileId));
+        log.discard(pointers.get(4));
+        log.discard(pointers.get(5));
+        assertTrue(log.needsCollection(fileId));
+        assertEquals(6000, log.discardedBytes(fileId));
+    }
+
+    @Test
+    void testFileDeletedWithLastReference() throws Exception {
+        ValueLog log = new ValueLog(dir, 100, 50, FILE_SIZE);
+        int[] file = {writeFile(log, 2).get(0).fileId()};
+        log.retain(file);
+        log.retain(file);
+        log.release(file);
+        assertTrue(log.logFile(file[0]).exists());
+        log.release(file);
+        assertFalse(log.logFile(file[0]).exists());
+        assertThrows(IllegalStateException.class, () -> log.release(file));
+    }
+
+    @Test
+    void testRecoverDropsUnreferencedFiles() throws Exception {
+        ValueLog log = new ValueLog(dir, 100, 50, FILE_SIZE);
+        List<ValuePointer> kept = writeFile(log, 2);
+        int dropped = writeFile(log, 2).get(0).fileId();
+
+        ValueLog reopened = new ValueLog(dir, 100, 50, FILE_SIZE);
+        reopened.recover(0, Map.of());
+        reopened.retain(new int[]{kept.get(0).fileId()});
+        reopened.deleteUnreferenced();
+        assertArrayEquals(value(1), reopened.read(kept.get(1)));
+        assertFalse(reopened.logFile(dropped).exists());
+        // ids are not reused, the next build starts past the files found
+        assertTrue(writeFile(reopened, 1).get(0).fileId() > dropped);
+    }
+
+    @Test
+    void testRecoverRestoresDiscards() throws Exception {
+        ValueLog log = new ValueLog(dir, 100, 50, FILE_SIZE);
+        List<ValuePointer> pointers = writeFile(log, 4);
+        int fileId = pointers.get(0).fileId();
+        log.discard(pointers.get(0));
+        log.discard(pointers.get(1));
+        Map<Integer, Long> changed = log.takeChangedDiscards();
+        assertEquals(Map.of(fileId, 2000L), changed);
+        assertEquals(Map.of(), log.takeChangedDiscards());
+
+        ValueLog reopened = new ValueLog(dir, 100, 50, FILE_SIZE);
+        reopened.recover(fileId + 5, changed);
+        assertEquals(2000, reopened.discardedBytes(fileId));
+        reopened.discard(pointers.get(2));
+        assertTrue(reopened.needsCollection(fileId));
+        assertEquals(fileId + 5, reopened.nextFileId());
+    }
+
+    @Test
+    void testWriterRollsOverAtFileSize() throws Exception {
+        // four 1000 byte values with their keys fit a file
+        ValueLog log = new ValueLog(dir, 100, 50, 4200);
+        ValueLog.Writer writer = log.newWriter();
+        List<ValuePointer> pointers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pointers.add(writer.append(new TaggedKey("key" + i, 1), value(i)));
+        }
+        writer.finish();
+        assertEquals(3, pointers.stream().mapToInt(ValuePointer::fileId).distinct().count());
+        for (int i = 0; i < pointers.size(); i++) {
+            assertArrayEquals(value(i), log.read(pointers.get(i)));
+            assertTrue(log.logFile(pointers.get(i).fileId()).length() <= 4200);
+        }
+        assertEquals(10 * (Integer.BYTES + 4 + Long.BYTES + Integer.BYTES + 1000), writer.appendedBytes());
+
+        ValueLog.Writer abandoned = log.newWriter();
+        List<ValuePointer> lost = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            lost.add(abandoned.append(new TaggedKey("key" + i, 1), value(i)));
+        }
+        abandoned.abandon();
+        for (ValuePointer p : lost) {
+            assertFalse(log.logFile(p.fileId()).exists());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package konputer.kvdb.wal;
+
+import konputer.kvdb.dtos.Row;
+import konputer.kvdb.dtos.TaggedKey;
+import konputer.kvdb.dtos.ValueHolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReplayReturnsAppendedRows() throws Exception {
+        File f = dir.resolve("wal_0.log").toFile();
+        try (WriteAheadLog log = WriteAheadLog.create(f, SyncMode.GROUP)) {
+            log.append(new TaggedKey("a", 1), new ValueHolder("1".getBytes()));
+            log.append(new TaggedKey("b", 2), ValueHolder.tombstone());
+        }
+
+        List<Row> rows = new ArrayList<>();
+        assertEquals(2, WriteAheadLog.replay(f, rows::add));
+        assertEquals(new TaggedKey("a", 1), rows.get(0).key());
+        assertArrayEquals("1".getBytes(), rows.get(0).value().value());
+        assertEquals(new TaggedKey("b", 2), rows.get(1).key());
+        assertTrue(rows.get(1).value().isTombstone());
+    }
+
+    @Test
+    void testTornTailIsIgnored() throws Exception {
+        File f = dir.resolve("wal_0.log").toFile();
+        try (WriteAheadLog log = WriteAheadLog.create(f, SyncMode.PER_WRITE)) {
+            log.append(new TaggedKey("a", 1), new ValueHolder("1".getBytes()));
+            log.append(new TaggedKey("b", 1), new ValueHolder("2".getBytes()));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        List<Row> rows = new ArrayList<>();
+        assertEquals(1, WriteAheadLog.replay(f, rows::add));
+        assertEquals("a", rows.get(0).key().key());
+    }
+
+    @Test
+    void testTornBatchIsDroppedWhole() throws Exception {
+        File f = dir.resolve("wal_0.log").toFile();
+        try (WriteAheadLog log = WriteAheadLog.create(f, SyncMode.PER_WRITE)) {
+            log.append(new TaggedKey("a", 1), new ValueHolder("1".getBytes()));
+            log.append(List.of(
+                    new Row(new TaggedKey("b", 2), new ValueHolder("2".getBytes())),
+                    new Row(new TaggedKey("c", 2), ValueHolder.tombstone()),
+                    new Row(new TaggedKey("d", 2), new ValueHolder("4".getBytes()))));
+        }
+        // cut into the last row of the batch, the rows before it are intact but must not come back alone
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        List<Row> rows = new ArrayList<>();
+        assertEquals(1, WriteAheadLog.replay(f, rows::add));
+        assertEquals("a", rows.get(0).key().key());
+    }
+
+    @Test
+    void testConcurrentGroupCommitKeepsEveryRecord() throws Exception {
+        File f = dir.resolve("wal_0.log").toFile();
+        int threads = 16;
+        int perThread = 500;
+        try (WriteAheadLog log = WriteAheadLog.create(f, SyncMode.GROUP)) {
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            log.append(new TaggedKey("k" + thread + "_" + i, i), new ValueHolder(new byte[]{(byte) i}));
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+        }
+
+        Set<String> keys = new HashSet<>();
+        WriteAheadLog.replay(f, row -> keys.add(row.key().key()));
+        assertEquals(threads * perThread, keys.size());
+    }
+
+    @Test
+    void testDeleteRemovesFile() throws Exception {
+        File f = dir.resolve("wal_0.log").toFile();
+        WriteAheadLog log = WriteAheadLog.create(f, SyncMode.NONE);
+        log.append(new TaggedKey("a", 1), new ValueHolder("1".getBytes()));
+        log.delete();
+        assertFalse(f.exists());
+    }
+}